@@ -21,6 +21,7 @@ import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.util.Iterator;
 
 import org.apache.maven.artifact.Artifact;
@@ -181,6 +182,7 @@ public final class FingerprintMojo extends TreeMojo {
       try (final URLClassLoader classLoader = new URLClassLoader(optionalDeps, null)) {
         final LibraryFingerprint fingerprint = new LibraryFingerprint(classLoader, compileDeps);
         fingerprint.toFile(destFile);
+        createTriggersTxt(fingerprint, new File(destFile.getParentFile(), UtilConstants.TRIGGERS_FILE));
         if (getLog().isDebugEnabled())
           getLog().debug(fingerprint.toString());
       }
@@ -190,6 +192,30 @@ public final class FingerprintMojo extends TreeMojo {
     }
   }
 
+  /**
+   * Writes the names of the 3rd-party library classes in the specified
+   * {@code LibraryFingerprint} to {@code destFile}, one per line. The
+   * SpecialAgent uses these names as "triggers" to defer the installation of
+   * the plugin's rules until the library is first seen in the runtime.
+   *
+   * @param fingerprint The {@code LibraryFingerprint}.
+   * @param destFile The {@code File} to which to write the trigger names.
+   * @throws IOException If an I/O error has occurred.
+   */
+  private void createTriggersTxt(final LibraryFingerprint fingerprint, final File destFile) throws IOException {
+    final ClassFingerprint[] classes = fingerprint.getClasses();
+    if (classes == null) {
+      getLog().warn("No classes were fingerprinted, " + UtilConstants.TRIGGERS_FILE + " will not be created");
+      return;
+    }
+
+    final StringBuilder builder = new StringBuilder();
+    for (final ClassFingerprint cls : classes)
+      builder.append(cls.getName()).append('\n');
+
+    Files.write(destFile.toPath(), builder.toString().getBytes());
+  }
+
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
     if ("pom".equalsIgnoreCase(getProject().getPackaging())) {
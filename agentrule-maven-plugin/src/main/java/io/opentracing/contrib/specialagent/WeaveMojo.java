@@ -0,0 +1,158 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Mojo that pre-instruments the JAR of the project and the JARs of its runtime
+ * dependencies at build time, by applying the {@code AgentRule}s of the
+ * Instrumentation Plugins bundled in the SpecialAgent JAR. The woven JARs are
+ * written to {@code outputDirectory}, and each contains a manifest of the
+ * woven classes. When the application is run from the woven JARs with the
+ * SpecialAgent and {@code -Dsa.instrumentation.woven}, the SpecialAgent skips
+ * the matching and transformation of the woven classes, and only links the
+ * plugins into the class loaders that define them.
+ */
+@Mojo(name="weave", defaultPhase=LifecyclePhase.PACKAGE, requiresDependencyResolution=ResolutionScope.RUNTIME)
+public final class WeaveMojo extends AbstractMojo {
+  private static final String WEAVER_CLASS = "io.opentracing.contrib.specialagent.Weaver";
+
+  @Parameter(defaultValue="${project}", required=true, readonly=true)
+  private MavenProject project;
+
+  @Parameter(property="sa.weave.agentJar", required=true)
+  private File agentJar;
+
+  @Parameter(property="sa.weave.outputDirectory", defaultValue="${project.build.directory}/woven")
+  private File outputDirectory;
+
+  @Parameter(property="sa.weave.includeDependencies", defaultValue="true")
+  private boolean includeDependencies;
+
+  @Parameter(property="sa.weave.skip", defaultValue="false")
+  private boolean skip;
+
+  private File[] extractRuleJars() throws IOException {
+    final File rulesDir = new File(project.getBuild().getDirectory(), "specialagent-rules");
+    rulesDir.mkdirs();
+    final List<File> ruleFiles = new ArrayList<>();
+    try (final JarFile jarFile = new JarFile(agentJar)) {
+      final Enumeration<JarEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        final JarEntry entry = entries.nextElement();
+        final String name = entry.getName();
+        if (!name.startsWith(UtilConstants.META_INF_PLUGIN_PATH) || !name.endsWith(".jar"))
+          continue;
+
+        final File ruleFile = new File(rulesDir, name.substring(name.lastIndexOf('/') + 1));
+        try (final InputStream in = jarFile.getInputStream(entry)) {
+          Files.copy(in, ruleFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        ruleFiles.add(ruleFile);
+      }
+    }
+
+    return ruleFiles.toArray(new File[ruleFiles.size()]);
+  }
+
+  private File[] getJarFiles() {
+    final List<File> jarFiles = new ArrayList<>();
+    final File artifactFile = project.getArtifact().getFile();
+    if (artifactFile != null && artifactFile.isFile() && artifactFile.getName().endsWith(".jar"))
+      jarFiles.add(artifactFile);
+
+    if (includeDependencies) {
+      for (final Artifact artifact : project.getArtifacts()) {
+        if (!"jar".equals(artifact.getType()) || artifact.getFile() == null)
+          continue;
+
+        if (Artifact.SCOPE_COMPILE.equals(artifact.getScope()) || Artifact.SCOPE_RUNTIME.equals(artifact.getScope()))
+          jarFiles.add(artifact.getFile());
+      }
+    }
+
+    return jarFiles.toArray(new File[jarFiles.size()]);
+  }
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    if (skip) {
+      getLog().info("Skipping weave.");
+      return;
+    }
+
+    if ("pom".equalsIgnoreCase(project.getPackaging())) {
+      getLog().info("Skipping for \"pom\" module.");
+      return;
+    }
+
+    if (!agentJar.isFile())
+      throw new MojoExecutionException("SpecialAgent JAR not found: " + agentJar.getAbsolutePath());
+
+    final File[] jarFiles = getJarFiles();
+    if (jarFiles.length == 0) {
+      getLog().warn("No JARs to weave. Is the goal bound to a phase after \"package\"?");
+      return;
+    }
+
+    try {
+      final File[] ruleFiles = extractRuleJars();
+      if (ruleFiles.length == 0)
+        throw new MojoExecutionException("No plugins were found in " + agentJar.getAbsolutePath());
+
+      // The Weaver is loaded from the SpecialAgent JAR, so that the JARs are
+      // woven with the same ByteBuddy and AgentRule classes as at runtime
+      try (final URLClassLoader classLoader = new URLClassLoader(new URL[] {AssembleUtil.toURL(agentJar)}, null)) {
+        final Class<?> weaverClass = Class.forName(WEAVER_CLASS, true, classLoader);
+        final int count = (Integer)weaverClass.getMethod("weave", File[].class, File[].class, File.class).invoke(null, ruleFiles, jarFiles, outputDirectory);
+        getLog().info("Woven " + count + " classes in " + jarFiles.length + " JARs to " + outputDirectory.getAbsolutePath());
+      }
+    }
+    catch (final ClassNotFoundException | IllegalAccessException | NoSuchMethodException e) {
+      throw new MojoExecutionException(agentJar.getAbsolutePath() + " does not provide " + WEAVER_CLASS, e);
+    }
+    catch (final InvocationTargetException e) {
+      throw new MojoFailureException("Failed to weave JARs", e.getCause());
+    }
+    catch (final IOException e) {
+      throw new MojoFailureException(null, e);
+    }
+  }
+}
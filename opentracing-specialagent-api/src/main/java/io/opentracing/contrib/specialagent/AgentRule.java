@@ -15,6 +15,7 @@
 
 package io.opentracing.contrib.specialagent;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -58,7 +59,31 @@ public abstract class AgentRule {
 
   public static final Logger logger = Logger.getLogger(AgentRule.class);
 
-  public abstract Iterable<? extends AgentBuilder> buildAgent(AgentBuilder builder) throws Exception;
-  // ElementMatcher<? super MethodDescription> onMethod();
-  // DynamicAdvice advice();
+  /**
+   * Returns the {@code AgentBuilder}s that implement the transformations of
+   * this rule. Rules that declare their advice with {@link #advice()} need not
+   * override this method.
+   *
+   * @param builder The {@code AgentBuilder} from which the returned
+   *          {@code AgentBuilder}s are to be built.
+   * @return The {@code AgentBuilder}s that implement the transformations of
+   *         this rule.
+   * @throws Exception If an exception has occurred.
+   */
+  public Iterable<? extends AgentBuilder> buildAgent(final AgentBuilder builder) throws Exception {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Returns the declarative advice of this rule. The advice of all rules is
+   * merged by type, so that all advice that matches a type is applied in a
+   * single pass over its class file.
+   *
+   * @return The declarative advice of this rule, or {@code null} if this rule
+   *         implements its transformations with
+   *         {@link #buildAgent(AgentBuilder)} only.
+   */
+  public DynamicAdvice[] advice() {
+    return null;
+  }
 }
\ No newline at end of file
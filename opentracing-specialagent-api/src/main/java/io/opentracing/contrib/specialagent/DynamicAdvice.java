@@ -15,71 +15,77 @@
 
 package io.opentracing.contrib.specialagent;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-
-import net.bytebuddy.ByteBuddy;
-import net.bytebuddy.asm.Advice;
-import net.bytebuddy.description.modifier.Visibility;
-import net.bytebuddy.dynamic.DynamicType;
-import net.bytebuddy.dynamic.DynamicType.Unloaded;
-import net.bytebuddy.implementation.MethodCall;
-import net.bytebuddy.pool.TypePool;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
 
+/**
+ * A declarative advice of an {@link AgentRule}, which applies the
+ * {@code @Advice.OnMethodEnter} and {@code @Advice.OnMethodExit} methods of an
+ * advice class to the methods matched by a method matcher, in the types
+ * matched by a type matcher.
+ * <p>
+ * Rules that declare their advice with {@link AgentRule#advice()} do not
+ * install a {@code Transformer} of their own. Instead, the
+ * {@code SpecialAgent} merges the advice of all rules into a single
+ * transformer, which applies all advice that matches a type in a single pass
+ * over its class file.
+ *
+ * @author Seva Safris
+ */
 public class DynamicAdvice {
-  private Class<?> onEnter;
-  private Class<?> onExit;
+  private final ElementMatcher<? super TypeDescription> typeMatcher;
+  private final ElementMatcher<? super MethodDescription> methodMatcher;
+  private final Class<?> advice;
 
-  public DynamicAdvice(final Class<?> advice) {
-    TypePool.Default.of(Thread.currentThread().getContextClassLoader()).describe("FIXME");
-    for (final Method method : advice.getMethods()) {
-      if (Modifier.isStatic(method.getModifiers())) {
-        for (final Annotation annotation : method.getAnnotations()) {
-          if (Advice.OnMethodEnter.class.equals(annotation.annotationType())) {
-            if (onEnter != null)
-              throw new IllegalArgumentException("Multiple methods with @Advice.OnMethodEnter not allowed: " + advice.getName() + "#" + onEnter.getName() + ", and: " + advice.getName() + "#" + method.getName());
+  /**
+   * Creates a new {@code DynamicAdvice}.
+   *
+   * @param typeMatcher The matcher of the types to be advised.
+   * @param methodMatcher The matcher of the methods to be advised.
+   * @param advice The advice class, which declares the
+   *          {@code @Advice.OnMethodEnter} and/or {@code @Advice.OnMethodExit}
+   *          methods.
+   * @throws IllegalArgumentException If any argument is null.
+   */
+  public DynamicAdvice(final ElementMatcher<? super TypeDescription> typeMatcher, final ElementMatcher<? super MethodDescription> methodMatcher, final Class<?> advice) {
+    if (typeMatcher == null)
+      throw new IllegalArgumentException("typeMatcher == null");
 
-            onEnter = buildInterceptor(method, annotation);
-          }
-          else if (Advice.OnMethodExit.class.equals(annotation.annotationType())) {
-            if (onExit != null)
-              throw new IllegalArgumentException("Multiple methods with @Advice.OnMethodExit not allowed: " + advice.getName() + "#" + onExit.getName() + ", and: " + advice.getName() + "#" + method.getName());
+    if (methodMatcher == null)
+      throw new IllegalArgumentException("methodMatcher == null");
 
-            onExit = buildInterceptor(method, annotation);
-          }
-        }
-      }
-    }
-  }
+    if (advice == null)
+      throw new IllegalArgumentException("advice == null");
 
-  private static Class<?> buildInterceptor(final Method method, final Annotation annotation) {
-    DynamicType.Builder.MethodDefinition.ParameterDefinition.Simple<?> builder = new ByteBuddy()
-      .makeInterface()
-      .name("MyInterface")
-      .annotateType(annotation)
-      .modifiers(Visibility.PUBLIC)
-      .defineMethod(method.getName(), void.class, Visibility.PUBLIC);
-
-    final Class<?>[] parameterTypes = method.getParameterTypes();
-    final Annotation[][] parameterAnnotations = method.getParameterAnnotations();
-    for (int i = 0; i < parameterTypes.length; ++i)
-      builder = builder.withParameter(parameterTypes[i]).annotateParameter(parameterAnnotations[i]);
+    this.typeMatcher = typeMatcher;
+    this.methodMatcher = methodMatcher;
+    this.advice = advice;
+  }
 
-    final Unloaded<?> unloaded = builder
-      .intercept(MethodCall.invoke(method).withAllArguments())
-      .make();
+  /**
+   * @return The matcher of the types to be advised.
+   */
+  public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+    return this.typeMatcher;
+  }
 
-    return unloaded
-      .load(Thread.currentThread().getContextClassLoader().getClass().getClassLoader())
-      .getLoaded();
+  /**
+   * @return The matcher of the methods to be advised.
+   */
+  public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+    return this.methodMatcher;
   }
 
-  Class<?> getOnEnter() {
-    return this.onEnter;
+  /**
+   * @return The advice class.
+   */
+  public Class<?> getAdvice() {
+    return this.advice;
   }
 
-  Class<?> getOnExit() {
-    return this.onExit;
+  @Override
+  public String toString() {
+    return advice.getName() + " on " + methodMatcher + " of " + typeMatcher;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,175 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks twice: once without the SpecialAgent as the baseline,
+ * and once with the SpecialAgent loaded into each benchmark JVM with
+ * {@code -javaagent}. The results of both runs are written in JSON to
+ * {@code baseline.json} and {@code agent.json}, and the overhead per
+ * benchmark is written to {@code overhead.csv}, in the output directory.
+ * <p>
+ * Usage:
+ * {@code java -Dspecialagent.jar=<agent.jar> -jar benchmarks.jar [regex]}
+ * <p>
+ * System properties:
+ * <ul>
+ * <li>{@code specialagent.jar}: The path of the assembled SpecialAgent JAR
+ * (default: the JAR in
+ * {@code ../opentracing-specialagent/target}).</li>
+ * <li>{@code benchmark.output}: The output directory (default:
+ * {@code target/jmh}).</li>
+ * <li>{@code benchmark.compare}: The path of an {@code overhead.csv} of a
+ * previous run, against which the overhead of this run is compared.</li>
+ * <li>{@code benchmark.threshold}: The increase of the overhead (in percent
+ * of the baseline) beyond which the comparison fails (default: {@code 10}).</li>
+ * </ul>
+ * All {@code -Dsa.*} system properties are passed to the JVMs of the
+ * instrumented run.
+ */
+public final class BenchmarkRunner {
+  private static final String HEADER = "benchmark,unit,baseline,agent,overhead,overheadPercent";
+
+  /**
+   * @return The SpecialAgent JAR, as specified by the
+   *         {@code specialagent.jar} system property, or as found in
+   *         {@code ../opentracing-specialagent/target}.
+   */
+  public static File getAgentJar() {
+    final String agentJar = System.getProperty("specialagent.jar");
+    if (agentJar != null)
+      return new File(agentJar);
+
+    final File[] files = new File("../opentracing-specialagent/target").listFiles();
+    if (files != null)
+      for (final File file : files)
+        if (file.getName().matches("opentracing-specialagent-[0-9.]+(-SNAPSHOT)?\\.jar"))
+          return file;
+
+    return new File("../opentracing-specialagent/target/opentracing-specialagent.jar");
+  }
+
+  private static Map<String,RunResult> run(final String include, final File agentJar, final File result) throws RunnerException {
+    final ChainedOptionsBuilder builder = new OptionsBuilder()
+      .include(include)
+      .resultFormat(ResultFormatType.JSON)
+      .result(result.getPath());
+
+    if (agentJar != null) {
+      final List<String> jvmArgs = new ArrayList<>();
+      jvmArgs.add("-javaagent:" + agentJar.getAbsolutePath());
+      for (final String name : System.getProperties().stringPropertyNames())
+        if (name.startsWith("sa."))
+          jvmArgs.add("-D" + name + "=" + System.getProperty(name));
+
+      builder.jvmArgsAppend(jvmArgs.toArray(new String[jvmArgs.size()]));
+    }
+
+    final Collection<RunResult> results = new Runner(builder.build()).run();
+    final Map<String,RunResult> nameToResult = new LinkedHashMap<>();
+    for (final RunResult runResult : results)
+      nameToResult.put(runResult.getParams().getBenchmark(), runResult);
+
+    return nameToResult;
+  }
+
+  private static Map<String,Double> writeOverhead(final Map<String,RunResult> baseline, final Map<String,RunResult> agent, final File file) throws FileNotFoundException {
+    final Map<String,Double> nameToPercent = new LinkedHashMap<>();
+    try (final PrintWriter out = new PrintWriter(file)) {
+      out.println(HEADER);
+      for (final Map.Entry<String,RunResult> entry : baseline.entrySet()) {
+        final RunResult instrumented = agent.get(entry.getKey());
+        if (instrumented == null)
+          continue;
+
+        final double base = entry.getValue().getPrimaryResult().getScore();
+        final double score = instrumented.getPrimaryResult().getScore();
+        // The overhead of a throughput benchmark is the loss of throughput
+        final double overhead = entry.getValue().getParams().getMode() == Mode.Throughput ? base - score : score - base;
+        final double percent = base == 0 ? 0 : 100 * overhead / base;
+        nameToPercent.put(entry.getKey(), percent);
+        out.println(entry.getKey() + "," + entry.getValue().getPrimaryResult().getScoreUnit() + "," + String.format("%.3f,%.3f,%.3f,%.1f", base, score, overhead, percent));
+      }
+    }
+
+    return nameToPercent;
+  }
+
+  private static int compare(final Map<String,Double> nameToPercent, final File previous, final double threshold) throws IOException {
+    int regressions = 0;
+    for (final String line : Files.readAllLines(previous.toPath())) {
+      if (line.equals(HEADER))
+        continue;
+
+      final String[] columns = line.split(",");
+      final Double percent = nameToPercent.get(columns[0]);
+      if (percent == null)
+        continue;
+
+      final double previousPercent = Double.parseDouble(columns[5]);
+      if (percent - previousPercent > threshold) {
+        System.err.println("Overhead of " + columns[0] + " regressed from " + previousPercent + "% to " + String.format("%.1f", percent) + "%");
+        ++regressions;
+      }
+    }
+
+    return regressions;
+  }
+
+  public static void main(final String[] args) throws IOException, RunnerException {
+    final String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+    final File agentJar = getAgentJar();
+    if (!agentJar.isFile())
+      throw new FileNotFoundException("SpecialAgent JAR not found at " + agentJar.getAbsolutePath() + " (specify -Dspecialagent.jar=<agent.jar>)");
+
+    final File outputDir = new File(System.getProperty("benchmark.output", "target/jmh"));
+    if (!outputDir.isDirectory() && !outputDir.mkdirs())
+      throw new IOException("Unable to create " + outputDir.getAbsolutePath());
+
+    final Map<String,RunResult> baseline = run(include, null, new File(outputDir, "baseline.json"));
+    final Map<String,RunResult> agent = run(include, agentJar, new File(outputDir, "agent.json"));
+    final Map<String,Double> nameToPercent = writeOverhead(baseline, agent, new File(outputDir, "overhead.csv"));
+
+    final String compare = System.getProperty("benchmark.compare");
+    if (compare != null) {
+      final String threshold = System.getProperty("benchmark.threshold");
+      if (compare(nameToPercent, new File(compare), threshold != null ? Double.parseDouble(threshold) : 10) > 0)
+        System.exit(1);
+    }
+  }
+
+  private BenchmarkRunner() {
+  }
+}
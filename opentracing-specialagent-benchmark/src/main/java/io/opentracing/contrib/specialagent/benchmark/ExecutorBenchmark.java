@@ -0,0 +1,85 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Overhead of the {@code concurrent} rule on {@link Executor#execute(Runnable)}.
+ * The direct executor isolates the cost of the advice, and the thread pool
+ * measures the round trip of a task through a real executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorBenchmark {
+  private static final class DirectExecutor implements Executor {
+    @Override
+    public void execute(final Runnable command) {
+      command.run();
+    }
+  }
+
+  private static final Runnable task = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  private Executor directExecutor;
+  private ExecutorService threadPool;
+
+  @Setup
+  public void setup() {
+    directExecutor = new DirectExecutor();
+    threadPool = Executors.newSingleThreadExecutor();
+  }
+
+  @TearDown
+  public void tearDown() {
+    threadPool.shutdownNow();
+  }
+
+  @Benchmark
+  public void directExecute() {
+    directExecutor.execute(task);
+  }
+
+  @Benchmark
+  public void threadPoolExecute(final Blackhole blackhole) throws ExecutionException, InterruptedException {
+    blackhole.consume(threadPool.submit(task).get());
+  }
+}
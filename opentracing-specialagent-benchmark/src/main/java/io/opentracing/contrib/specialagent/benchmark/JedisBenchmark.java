@@ -0,0 +1,112 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Transaction;
+
+/**
+ * Overhead of the {@code jedis} rule on {@code Connection#sendCommand}, against
+ * a {@link StubRedisServer}, for single commands, for commands with a large
+ * value, and for the throughput of pipelines and transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JedisBenchmark {
+  private StubRedisServer server;
+  private Jedis jedis;
+  private String largeValue;
+
+  @Setup
+  public void setup() throws IOException {
+    server = new StubRedisServer();
+    jedis = new Jedis("127.0.0.1", server.getPort());
+    jedis.connect();
+    final char[] chars = new char[1024 * 1024];
+    Arrays.fill(chars, 'v');
+    largeValue = new String(chars);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    jedis.close();
+    server.close();
+  }
+
+  @Benchmark
+  public String ping() {
+    return jedis.ping();
+  }
+
+  @Benchmark
+  public String set() {
+    return jedis.set("key", "value");
+  }
+
+  @Benchmark
+  public String get() {
+    return jedis.get("key");
+  }
+
+  @Benchmark
+  public String setLargeValue() {
+    return jedis.set("key", largeValue);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public List<Object> pipeline() {
+    final Pipeline pipeline = jedis.pipelined();
+    for (int i = 0; i < 100; ++i)
+      pipeline.set("key", "value");
+
+    return pipeline.syncAndReturnAll();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public List<Object> transaction() {
+    final Transaction transaction = jedis.multi();
+    for (int i = 0; i < 100; ++i)
+      transaction.set("key", "value");
+
+    return transaction.exec();
+  }
+}
@@ -0,0 +1,107 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+/**
+ * Overhead of the {@code kafka-client} rule on {@code KafkaProducer#send} and
+ * {@code KafkaConsumer#poll}, against an embedded broker that runs in the
+ * benchmark JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KafkaBenchmark {
+  private static final String TOPIC = "benchmark";
+
+  private EmbeddedKafkaBroker broker;
+  private KafkaProducer<String,String> producer;
+  private KafkaConsumer<String,String> consumer;
+
+  @Setup
+  public void setup() {
+    broker = new EmbeddedKafkaBroker(1, true, 1, TOPIC);
+    broker.afterPropertiesSet();
+
+    final Map<String,Object> producerConfig = new HashMap<>();
+    producerConfig.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+    producerConfig.put(ProducerConfig.ACKS_CONFIG, "1");
+    producerConfig.put(ProducerConfig.LINGER_MS_CONFIG, 0);
+    producer = new KafkaProducer<>(producerConfig, new StringSerializer(), new StringSerializer());
+
+    final Map<String,Object> consumerConfig = new HashMap<>();
+    consumerConfig.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+    consumerConfig.put(ConsumerConfig.GROUP_ID_CONFIG, "benchmark");
+    consumerConfig.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+    consumer = new KafkaConsumer<>(consumerConfig, new StringDeserializer(), new StringDeserializer());
+    consumer.subscribe(Collections.singletonList(TOPIC));
+    while (consumer.assignment().isEmpty())
+      consumer.poll(Duration.ofMillis(100));
+  }
+
+  @TearDown
+  public void tearDown() {
+    consumer.close();
+    producer.close();
+    broker.destroy();
+  }
+
+  @Benchmark
+  public RecordMetadata send() throws ExecutionException, InterruptedException {
+    return producer.send(new ProducerRecord<String,String>(TOPIC, "key", "value")).get();
+  }
+
+  @Benchmark
+  public int sendAndPoll() throws ExecutionException, InterruptedException {
+    producer.send(new ProducerRecord<String,String>(TOPIC, "key", "value")).get();
+    ConsumerRecords<String,String> records;
+    do
+      records = consumer.poll(Duration.ofMillis(100));
+    while (records.isEmpty());
+    return records.count();
+  }
+}
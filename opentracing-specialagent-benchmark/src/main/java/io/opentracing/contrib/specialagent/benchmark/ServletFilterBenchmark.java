@@ -0,0 +1,123 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of the {@code web-servlet-filter} rule on the
+ * {@code Filter#doFilter} path of a request, which passes through a filter
+ * to a servlet, with {@link Stubs} in place of the container.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServletFilterBenchmark {
+  public static class BenchmarkFilter implements Filter {
+    @Override
+    public void init(final FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
+      chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+
+  public static class BenchmarkServlet extends HttpServlet {
+    private static final long serialVersionUID = -5236720613587452011L;
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) {
+      response.setStatus(HttpServletResponse.SC_OK);
+    }
+  }
+
+  private ServletContext servletContext;
+  private Filter filter;
+  private FilterChain chain;
+
+  @Setup
+  public void setup() throws ServletException {
+    final Map<String,Object> contextProperties = new HashMap<>();
+    contextProperties.put("getContextPath", "");
+    contextProperties.put("getMajorVersion", 3);
+    contextProperties.put("getMinorVersion", 0);
+    servletContext = Stubs.proxy(ServletContext.class, contextProperties);
+
+    final Map<String,Object> configProperties = new HashMap<>();
+    configProperties.put("getServletContext", servletContext);
+    configProperties.put("getFilterName", "benchmark");
+    filter = new BenchmarkFilter();
+    filter.init(Stubs.proxy(FilterConfig.class, configProperties));
+
+    final HttpServlet servlet = new BenchmarkServlet();
+    configProperties.put("getServletName", "benchmark");
+    servlet.init(Stubs.proxy(ServletConfig.class, configProperties));
+    chain = new FilterChain() {
+      @Override
+      public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+        servlet.service(request, response);
+      }
+    };
+  }
+
+  @Benchmark
+  public void doFilter() throws IOException, ServletException {
+    final Map<String,Object> requestProperties = new HashMap<>();
+    requestProperties.put("getMethod", "GET");
+    requestProperties.put("getProtocol", "HTTP/1.1");
+    requestProperties.put("getRequestURI", "/benchmark");
+    requestProperties.put("getRequestURL", new StringBuffer("http://localhost/benchmark"));
+    requestProperties.put("getServletContext", servletContext);
+    final Map<String,Object> responseProperties = new HashMap<>();
+    responseProperties.put("getStatus", HttpServletResponse.SC_OK);
+    filter.doFilter(Stubs.proxy(HttpServletRequest.class, requestProperties), Stubs.proxy(HttpServletResponse.class, responseProperties), chain);
+  }
+}
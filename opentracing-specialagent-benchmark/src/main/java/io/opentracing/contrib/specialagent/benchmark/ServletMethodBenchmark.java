@@ -0,0 +1,67 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.opentracing.contrib.web.servlet.filter.ClassUtil;
+import io.opentracing.contrib.web.servlet.filter.MethodCache;
+
+/**
+ * Comparison of the lookup and invocation of a method of the request with
+ * {@link ClassUtil} on each call, as the {@code web-servlet-filter} rule did
+ * for {@code ServletRequest#getServletContext()} and
+ * {@code ServletRequest#isAsyncStarted()}, with the {@link MethodCache} that
+ * the rule uses instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServletMethodBenchmark {
+  public static class BenchmarkRequest {
+    public boolean isAsyncStarted() {
+      return false;
+    }
+  }
+
+  private static final MethodCache isAsyncStarted = new MethodCache("isAsyncStarted");
+
+  private final Object request = new BenchmarkRequest();
+  private final Object[] returned = new Object[1];
+
+  @Benchmark
+  public Object classUtil() {
+    return ClassUtil.invoke(returned, request, ClassUtil.getMethod(request.getClass(), "isAsyncStarted")) ? returned[0] : null;
+  }
+
+  @Benchmark
+  public Object methodCache() {
+    return isAsyncStarted.invoke(returned, request) ? returned[0] : null;
+  }
+}
@@ -0,0 +1,125 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A local stand-in for a Redis server, which answers {@code PING} with
+ * {@code +PONG}, {@code GET} with a null bulk string, {@code EXEC} with an
+ * empty array, and all other commands with {@code +OK}, so that the client side of the Jedis rule can be measured
+ * without a Redis installation.
+ */
+class StubRedisServer implements AutoCloseable {
+  private static final byte[] PONG = "+PONG\r\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NULL = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] EMPTY = "*0\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  private final ServerSocket serverSocket;
+
+  StubRedisServer() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    final Thread thread = new Thread("StubRedisServer") {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Socket socket = serverSocket.accept();
+            final Thread handler = new Thread("StubRedisServer-" + socket.getPort()) {
+              @Override
+              public void run() {
+                serve(socket);
+              }
+            };
+            handler.setDaemon(true);
+            handler.start();
+          }
+        }
+        catch (final IOException e) {
+          // Closed
+        }
+      }
+    };
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  private static String readLine(final InputStream in) throws IOException {
+    final StringBuilder builder = new StringBuilder();
+    for (int ch; (ch = in.read()) != '\n';) {
+      if (ch == -1)
+        return null;
+
+      if (ch != '\r')
+        builder.append((char)ch);
+    }
+
+    return builder.toString();
+  }
+
+  private static void serve(final Socket socket) {
+    try (
+      final Socket s = socket;
+      final InputStream in = new BufferedInputStream(s.getInputStream());
+      final OutputStream out = new BufferedOutputStream(s.getOutputStream());
+    ) {
+      for (String line; (line = readLine(in)) != null;) {
+        if (line.length() == 0 || line.charAt(0) != '*')
+          continue;
+
+        final int count = Integer.parseInt(line.substring(1));
+        String command = null;
+        for (int i = 0; i < count; ++i) {
+          // Bulk strings are skipped by their length, as values may be large
+          final byte[] argument = new byte[Integer.parseInt(readLine(in).substring(1))];
+          for (int n = 0, r; n < argument.length; n += r)
+            if ((r = in.read(argument, n, argument.length - n)) == -1)
+              return;
+
+          readLine(in);
+          if (i == 0)
+            command = new String(argument, StandardCharsets.US_ASCII);
+        }
+
+        out.write("PING".equalsIgnoreCase(command) ? PONG : "GET".equalsIgnoreCase(command) ? NULL : "EXEC".equalsIgnoreCase(command) ? EMPTY : OK);
+        if (in.available() == 0)
+          out.flush();
+      }
+    }
+    catch (final IOException e) {
+      // Disconnected
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dynamic proxies that stand in for the interfaces of a container, such as
+ * the {@code ServletContext}, {@code HttpServletRequest} and
+ * {@code HttpServletResponse}. Attributes are kept in a map, the values of the
+ * specified properties are returned by their getters, and all other methods
+ * return the default value of their return type.
+ */
+final class Stubs {
+  @SuppressWarnings("unchecked")
+  static <T>T proxy(final Class<T> type, final Map<String,Object> properties) {
+    final Map<String,Object> attributes = new HashMap<>();
+    return (T)Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        final String name = method.getName();
+        if ("getAttribute".equals(name))
+          return attributes.get(args[0]);
+
+        if ("setAttribute".equals(name))
+          return attributes.put((String)args[0], args[1]);
+
+        if ("removeAttribute".equals(name))
+          return attributes.remove(args[0]);
+
+        if ("getAttributeNames".equals(name))
+          return Collections.enumeration(attributes.keySet());
+
+        if ("hashCode".equals(name))
+          return System.identityHashCode(proxy);
+
+        if ("equals".equals(name))
+          return proxy == args[0];
+
+        if ("toString".equals(name))
+          return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+
+        if (properties.containsKey(name))
+          return properties.get(name);
+
+        final Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class)
+          return Boolean.FALSE;
+
+        if (returnType == int.class)
+          return 0;
+
+        if (returnType == long.class)
+          return 0L;
+
+        if (Enumeration.class.equals(returnType))
+          return Collections.emptyEnumeration();
+
+        return null;
+      }
+    });
+  }
+
+  private Stubs() {
+  }
+}
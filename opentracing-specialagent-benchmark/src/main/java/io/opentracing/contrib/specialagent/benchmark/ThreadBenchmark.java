@@ -0,0 +1,64 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of the {@code thread} rule on {@link Thread#start()} and
+ * {@link Thread#run()}. The concurrent benchmark measures the contention of
+ * threads that are started from several threads at once, and the allocation
+ * of the hand-over of the span is measured with {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadBenchmark {
+  private static final Runnable task = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  @Benchmark
+  public void startAndJoin() throws InterruptedException {
+    final Thread thread = new Thread(task);
+    thread.start();
+    thread.join();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void startAndJoinConcurrently() throws InterruptedException {
+    startAndJoin();
+  }
+
+  @Benchmark
+  public void run() {
+    new Thread(task).run();
+  }
+}
@@ -0,0 +1,124 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark.startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A mini servlet container, which deploys {@code -Dstartup.webapps} (default:
+ * {@code 20}) webapps in isolated class loaders, each of which loads its own
+ * copy of the servlet API and of a servlet, and serves requests to
+ * {@code /app<n>} by dispatching to the webapp {@code <n>}.
+ */
+public class ContainerApp {
+  /**
+   * The entrypoint of a webapp, which is loaded in the isolated class loader
+   * of the webapp.
+   */
+  public static class Webapp {
+    public static class WebappServlet extends HttpServlet {
+      private static final long serialVersionUID = 2908271873652315207L;
+
+      @Override
+      protected void doGet(final HttpServletRequest request, final HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_OK);
+      }
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final HttpServlet servlet = new WebappServlet();
+
+    public String handle(final String path) throws Exception {
+      final Future<String> future = executor.submit(new Callable<String>() {
+        @Override
+        public String call() {
+          return "Hello from " + path + " (" + servlet.getClass().getClassLoader() + ")";
+        }
+      });
+      return future.get();
+    }
+  }
+
+  private static URL[] getClassPath() throws IOException {
+    final String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+    final URL[] urls = new URL[entries.length];
+    for (int i = 0; i < entries.length; ++i)
+      urls[i] = new File(entries[i]).toURI().toURL();
+
+    return urls;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    Fixture.main();
+    final int count = Integer.getInteger("startup.webapps", 20);
+    final URL[] classPath = getClassPath();
+    final ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+    final Object[] webapps = new Object[count];
+    final Method[] handlers = new Method[count];
+    for (int i = 0; i < count; ++i) {
+      final Class<?> webappClass = Class.forName(Webapp.class.getName(), true, new URLClassLoader(classPath, parent));
+      webapps[i] = webappClass.getConstructor().newInstance();
+      handlers[i] = webappClass.getMethod("handle", String.class);
+    }
+
+    final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        int status = 404;
+        byte[] body = new byte[0];
+        if (path.startsWith("/app")) {
+          final int index = Integer.parseInt(path.substring(4));
+          try {
+            body = ((String)handlers[index].invoke(webapps[index], path)).getBytes(StandardCharsets.UTF_8);
+            status = 200;
+          }
+          catch (final Exception e) {
+            status = 500;
+          }
+        }
+
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    });
+    server.start();
+    Fixture.firstRequest("http://127.0.0.1:" + server.getAddress().getPort() + "/app0");
+  }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark.startup;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The instrumentation of a fixture application, which records the time from
+ * the launch of the JVM (as specified by {@link #LAUNCH_PROPERTY}) to the
+ * entry of {@code main}, and to the completion of the first request. When the
+ * first request has completed, the fixture prints a {@link #PREFIX} line with
+ * the measurements to standard out, and exits.
+ */
+final class Fixture {
+  static final String LAUNCH_PROPERTY = "startup.launch";
+  static final String PREFIX = "[startup] ";
+
+  private static long timeToMain = -1;
+
+  /**
+   * Records the time to {@code main}. This method must be the first statement
+   * of the {@code main} method of a fixture.
+   */
+  static void main() {
+    timeToMain = System.currentTimeMillis() - Long.parseLong(System.getProperty(LAUNCH_PROPERTY));
+  }
+
+  /**
+   * Performs the first request of the fixture, and then reports the
+   * measurements and exits.
+   *
+   * @param url The URL of the first request.
+   * @throws IOException If an I/O error has occurred.
+   */
+  static void firstRequest(final String url) throws IOException {
+    final HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+    final int status = connection.getResponseCode();
+    try (final InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      if (in != null)
+        while (in.read() != -1);
+    }
+
+    final long timeToFirstRequest = System.currentTimeMillis() - Long.parseLong(System.getProperty(LAUNCH_PROPERTY));
+    if (status != 200)
+      throw new IllegalStateException("First request to " + url + " returned " + status);
+
+    System.out.println(PREFIX + "timeToMain=" + timeToMain + ",timeToFirstRequest=" + timeToFirstRequest + ",metaspace=" + getMetaspace() + ",rss=" + getRss() + ",transformed=" + getTransformed());
+    System.out.flush();
+    System.exit(0);
+  }
+
+  private static long getMetaspace() {
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      if ("Metaspace".equals(pool.getName()))
+        return pool.getUsage().getUsed() / 1024;
+
+    return -1;
+  }
+
+  private static long getRss() {
+    try (final BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+      for (String line; (line = reader.readLine()) != null;)
+        if (line.startsWith("VmRSS:"))
+          return Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+    }
+    catch (final IOException e) {
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return The number of classes transformed by the SpecialAgent, as counted
+   *         by its {@code AgentStatistics} (with {@code -Dsa.stats}), or
+   *         {@code 0} if the SpecialAgent is not loaded.
+   */
+  private static long getTransformed() {
+    try {
+      final Class<?> cls = Class.forName("io.opentracing.contrib.specialagent.AgentStatistics");
+      final Field field = cls.getDeclaredField("instance");
+      field.setAccessible(true);
+      return (Long)Class.forName("io.opentracing.contrib.specialagent.AgentStatisticsMBean").getMethod("getTransformed").invoke(field.get(null));
+    }
+    catch (final ClassNotFoundException e) {
+      return 0;
+    }
+    catch (final ReflectiveOperationException e) {
+      return -1;
+    }
+  }
+
+  private Fixture() {
+  }
+}
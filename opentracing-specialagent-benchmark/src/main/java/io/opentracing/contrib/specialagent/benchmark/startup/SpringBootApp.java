@@ -0,0 +1,43 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark.startup;
+
+import java.io.IOException;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * A Spring Boot application with an embedded Tomcat, which serves requests
+ * with a {@code @RestController}.
+ */
+@SpringBootApplication
+@RestController
+public class SpringBootApp {
+  @GetMapping("/")
+  public String hello() {
+    return "Hello";
+  }
+
+  public static void main(final String[] args) throws IOException {
+    Fixture.main();
+    final ServletWebServerApplicationContext context = (ServletWebServerApplicationContext)SpringApplication.run(SpringBootApp.class, "--server.port=0", "--server.address=127.0.0.1", "--spring.main.banner-mode=off");
+    Fixture.firstRequest("http://127.0.0.1:" + context.getWebServer().getPort() + "/");
+  }
+}
@@ -0,0 +1,215 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.benchmark.startup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.opentracing.contrib.specialagent.benchmark.BenchmarkRunner;
+
+/**
+ * Macro-benchmark of the startup of fixture applications with and without the
+ * SpecialAgent. Each fixture is launched {@code -Dstartup.iterations} times
+ * (default: {@code 5}) in a new JVM without the SpecialAgent, and with
+ * {@code -javaagent}, and the medians of the time to {@code main}, the time
+ * to the first request, the used metaspace, the RSS, and the number of
+ * transformed classes are written to {@code startup.csv} in the output
+ * directory. The medians are also appended, with the id of the commit and a
+ * timestamp, to the history file, so that the results can be tracked per
+ * commit.
+ * <p>
+ * Usage:
+ * {@code java -cp "target/classes:target/lib/*" io.opentracing.contrib.specialagent.benchmark.startup.StartupBenchmark [fixture...]}
+ * <p>
+ * The fixtures are {@code plain} ({@link PlainApp}), {@code spring-boot}
+ * ({@link SpringBootApp}) and {@code container} ({@link ContainerApp}).
+ * <p>
+ * System properties:
+ * <ul>
+ * <li>{@code specialagent.jar}: The path of the assembled SpecialAgent JAR.</li>
+ * <li>{@code startup.iterations}: The number of launches per fixture and
+ * mode.</li>
+ * <li>{@code benchmark.output}: The output directory (default:
+ * {@code target/startup}).</li>
+ * <li>{@code benchmark.history}: The history file (default:
+ * {@code history.csv} in the output directory).</li>
+ * <li>{@code benchmark.commit}: The id of the commit (default: the output of
+ * {@code git rev-parse --short HEAD}).</li>
+ * </ul>
+ * All {@code -Dsa.*} system properties are passed to the JVMs with the
+ * SpecialAgent.
+ */
+public final class StartupBenchmark {
+  private static final String[] METRICS = {"timeToMain", "timeToFirstRequest", "metaspace", "rss", "transformed"};
+  private static final Map<String,Class<?>> fixtures = new LinkedHashMap<>();
+
+  static {
+    fixtures.put("plain", PlainApp.class);
+    fixtures.put("spring-boot", SpringBootApp.class);
+    fixtures.put("container", ContainerApp.class);
+  }
+
+  private static Map<String,Long> launch(final Class<?> fixture, final File agentJar) throws IOException, InterruptedException {
+    final List<String> command = new ArrayList<>();
+    command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+    if (agentJar != null) {
+      command.add("-javaagent:" + agentJar.getAbsolutePath());
+      command.add("-Dsa.stats");
+      for (final String name : System.getProperties().stringPropertyNames())
+        if (name.startsWith("sa."))
+          command.add("-D" + name + "=" + System.getProperty(name));
+    }
+
+    final String webapps = System.getProperty("startup.webapps");
+    if (webapps != null)
+      command.add("-Dstartup.webapps=" + webapps);
+
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("-D" + Fixture.LAUNCH_PROPERTY + "=" + System.currentTimeMillis());
+    command.add(fixture.getName());
+
+    final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    final StringBuilder output = new StringBuilder();
+    Map<String,Long> metrics = null;
+    try (final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+      for (String line; (line = reader.readLine()) != null;) {
+        if (line.startsWith(Fixture.PREFIX)) {
+          metrics = new LinkedHashMap<>();
+          for (final String pair : line.substring(Fixture.PREFIX.length()).split(",")) {
+            final int eq = pair.indexOf('=');
+            metrics.put(pair.substring(0, eq), Long.parseLong(pair.substring(eq + 1)));
+          }
+        }
+        else {
+          output.append(line).append('\n');
+        }
+      }
+    }
+
+    final int exitCode = process.waitFor();
+    if (metrics == null || exitCode != 0)
+      throw new IllegalStateException(fixture.getSimpleName() + " exited with " + exitCode + " without reporting:\n" + output);
+
+    return metrics;
+  }
+
+  private static long median(final List<Long> values) {
+    final List<Long> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    return sorted.get(sorted.size() / 2);
+  }
+
+  private static Map<String,Long> measure(final Class<?> fixture, final File agentJar, final int iterations) throws IOException, InterruptedException {
+    final Map<String,List<Long>> metricToValues = new LinkedHashMap<>();
+    for (final String metric : METRICS)
+      metricToValues.put(metric, new ArrayList<Long>());
+
+    for (int i = 0; i < iterations; ++i)
+      for (final Map.Entry<String,Long> entry : launch(fixture, agentJar).entrySet())
+        metricToValues.get(entry.getKey()).add(entry.getValue());
+
+    final Map<String,Long> medians = new LinkedHashMap<>();
+    for (final Map.Entry<String,List<Long>> entry : metricToValues.entrySet())
+      medians.put(entry.getKey(), median(entry.getValue()));
+
+    return medians;
+  }
+
+  private static String getCommit() {
+    final String commit = System.getProperty("benchmark.commit");
+    if (commit != null)
+      return commit;
+
+    try {
+      final Process process = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+      try (final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+        final String line = reader.readLine();
+        return process.waitFor() == 0 && line != null ? line.trim() : "unknown";
+      }
+    }
+    catch (final IOException | InterruptedException e) {
+      return "unknown";
+    }
+  }
+
+  private static String toRow(final String fixture, final String mode, final Map<String,Long> medians) {
+    final StringBuilder builder = new StringBuilder(fixture).append(',').append(mode);
+    for (final String metric : METRICS)
+      builder.append(',').append(medians.get(metric));
+
+    return builder.toString();
+  }
+
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    final File agentJar = BenchmarkRunner.getAgentJar();
+    if (!agentJar.isFile())
+      throw new FileNotFoundException("SpecialAgent JAR not found at " + agentJar.getAbsolutePath() + " (specify -Dspecialagent.jar=<agent.jar>)");
+
+    final List<String> names = args.length > 0 ? Arrays.asList(args) : new ArrayList<>(fixtures.keySet());
+    final int iterations = Integer.getInteger("startup.iterations", 5);
+    final File outputDir = new File(System.getProperty("benchmark.output", "target/startup"));
+    if (!outputDir.isDirectory() && !outputDir.mkdirs())
+      throw new IOException("Unable to create " + outputDir.getAbsolutePath());
+
+    final String header = "fixture,mode,timeToMainMs,timeToFirstRequestMs,metaspaceKb,rssKb,transformed";
+    final List<String> rows = new ArrayList<>();
+    for (final String name : names) {
+      final Class<?> fixture = fixtures.get(name);
+      if (fixture == null)
+        throw new IllegalArgumentException("Unknown fixture: " + name + " (expected one of " + fixtures.keySet() + ")");
+
+      final Map<String,Long> baseline = measure(fixture, null, iterations);
+      final Map<String,Long> agent = measure(fixture, agentJar, iterations);
+      rows.add(toRow(name, "baseline", baseline));
+      rows.add(toRow(name, "agent", agent));
+      System.out.println(name + ": timeToMain +" + (agent.get("timeToMain") - baseline.get("timeToMain")) + "ms, timeToFirstRequest +" + (agent.get("timeToFirstRequest") - baseline.get("timeToFirstRequest")) + "ms, metaspace +" + (agent.get("metaspace") - baseline.get("metaspace")) + "KB, rss +" + (agent.get("rss") - baseline.get("rss")) + "KB, transformed " + agent.get("transformed"));
+    }
+
+    try (final PrintWriter out = new PrintWriter(new File(outputDir, "startup.csv"))) {
+      out.println(header);
+      for (final String row : rows)
+        out.println(row);
+    }
+
+    final String historyProperty = System.getProperty("benchmark.history");
+    final File history = historyProperty != null ? new File(historyProperty) : new File(outputDir, "history.csv");
+    final boolean exists = history.exists();
+    final String prefix = getCommit() + "," + String.format("%tFT%<tT", new Date()) + ",";
+    try (final PrintWriter out = new PrintWriter(new FileWriter(history, true))) {
+      if (!exists)
+        out.println("commit,date," + header);
+
+      for (final String row : rows)
+        out.println(prefix + row);
+    }
+  }
+
+  private StartupBenchmark() {
+  }
+}
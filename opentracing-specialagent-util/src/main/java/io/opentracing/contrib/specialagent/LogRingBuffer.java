@@ -0,0 +1,112 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free bounded ring buffer with multiple producers and a single
+ * consumer, which drops (and counts) the elements that are offered when the
+ * buffer is full.
+ */
+final class LogRingBuffer {
+  private final AtomicReferenceArray<Object> slots;
+  private final int capacity;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile long head;
+
+  /**
+   * Creates a new {@code LogRingBuffer} with the specified capacity, which is
+   * rounded up to the next power of 2.
+   *
+   * @param capacity The capacity.
+   * @throws IllegalArgumentException If {@code capacity} is not positive.
+   */
+  LogRingBuffer(final int capacity) {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity (" + capacity + ") must be positive");
+
+    this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.slots = new AtomicReferenceArray<>(this.capacity);
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Offers the specified element to the buffer. This method may be called by
+   * any thread, and does not block.
+   *
+   * @param element The element.
+   * @return {@code true} if the element was added, or {@code false} if it was
+   *         dropped because the buffer is full.
+   */
+  boolean offer(final Object element) {
+    long t;
+    do {
+      t = tail.get();
+      if (t - head >= capacity) {
+        dropped.incrementAndGet();
+        return false;
+      }
+    }
+    while (!tail.compareAndSet(t, t + 1));
+    slots.lazySet((int)t & mask, element);
+    return true;
+  }
+
+  /**
+   * Removes the next element from the buffer. This method must only be called
+   * by a single consumer at a time.
+   *
+   * @return The next element, or {@code null} if there is no element that is
+   *         ready to be consumed.
+   */
+  Object poll() {
+    final long h = head;
+    final int index = (int)h & mask;
+    final Object element = slots.get(index);
+    if (element == null)
+      return null;
+
+    slots.lazySet(index, null);
+    head = h + 1;
+    return element;
+  }
+
+  /**
+   * @return Whether the buffer is empty, whereby an element that is being
+   *         offered concurrently may already be counted.
+   */
+  boolean isEmpty() {
+    return tail.get() == head;
+  }
+
+  /**
+   * Returns and resets the number of dropped elements.
+   *
+   * @return The number of elements that were dropped since the last call of
+   *         this method.
+   */
+  long takeDropped() {
+    return dropped.getAndSet(0);
+  }
+}
@@ -18,14 +18,50 @@ package io.opentracing.contrib.specialagent;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * The logger of the {@code SpecialAgent}, which writes to {@code System.err},
+ * or to the file specified by the {@link #LOG_FILE_PROPERTY} system property.
+ * <p>
+ * The level is specified by the {@link #LOG_LEVEL_PROPERTY} system property,
+ * and may be overridden for specific classes or packages with
+ * {@code -Dsa.log.level.<class or package>=<level>}, whereby the longest
+ * matching name prevails.
+ * <p>
+ * With the {@link #LOG_ASYNC_PROPERTY} system property, messages are written
+ * by a background thread, to which they are handed off through a lock-free
+ * {@link LogRingBuffer} (of the size specified by the
+ * {@link #LOG_ASYNC_BUFFER_PROPERTY} system property), so that logging does
+ * not block (or serialize) the logging threads on the lock of the output
+ * stream. Messages that are logged while the buffer is full are dropped, and
+ * the number of dropped messages is reported in the log.
+ */
 public final class Logger {
   static final String LOG_LEVEL_PROPERTY = "sa.log.level";
   static final String LOG_FILE_PROPERTY = "sa.log.file";
+  static final String LOG_ASYNC_PROPERTY = "sa.log.async";
+  static final String LOG_ASYNC_BUFFER_PROPERTY = "sa.log.async.buffer";
 
-  private static final Logger logger = new Logger();
+  private static final ConcurrentMap<String,Logger> loggers = new ConcurrentHashMap<>();
+  private static final Map<String,Level> classLevels = new HashMap<>();
   private static Level level = Level.INFO;
   private static PrintStream out = System.err;
+  private static Writer writer;
+
+  private static final class Entry {
+    private final String msg;
+    private final Throwable thrown;
+
+    private Entry(final String msg, final Throwable thrown) {
+      this.msg = msg;
+      this.thrown = thrown;
+    }
+  }
 
   static {
     try {
@@ -34,17 +70,160 @@ public final class Logger {
       if (logLevelProperty != null)
         Logger.setLevel(Level.parse(logLevelProperty));
 
+      // Load user log levels of classes and packages
+      for (final String key : System.getProperties().stringPropertyNames())
+        if (key.startsWith(LOG_LEVEL_PROPERTY + "."))
+          classLevels.put(key.substring(LOG_LEVEL_PROPERTY.length() + 1), Level.parse(System.getProperty(key)));
+
       // Load user log file
       final String logFileProperty = System.getProperty(LOG_FILE_PROPERTY);
       if (logFileProperty != null)
         Logger.setOut(new PrintStream(new FileOutputStream(logFileProperty), true));
+
+      final String logAsyncProperty = System.getProperty(LOG_ASYNC_PROPERTY);
+      if (logAsyncProperty != null && !"false".equals(logAsyncProperty)) {
+        final String logAsyncBufferProperty = System.getProperty(LOG_ASYNC_BUFFER_PROPERTY);
+        startWriter(new Writer(new LogRingBuffer(logAsyncBufferProperty != null ? Integer.parseInt(logAsyncBufferProperty) : 8192)));
+      }
     }
     catch (final FileNotFoundException e) {
       throw new ExceptionInInitializerError(e);
     }
   }
 
+  /**
+   * The background thread that writes the messages in the buffer. The writer
+   * parks without a timeout while the buffer is empty, and is unparked by the
+   * logging thread that offers a message while the writer is idle.
+   */
+  static final class Writer extends Thread {
+    private final LogRingBuffer buffer;
+    private volatile boolean idle;
+
+    Writer(final LogRingBuffer buffer) {
+      super("SpecialAgent-Logger");
+      this.buffer = buffer;
+      setDaemon(true);
+    }
+
+    /**
+     * Offers the specified element to the buffer, and unparks the writer if
+     * it is idle.
+     *
+     * @param element The element.
+     * @return {@code true} if the element was added, or {@code false} if it
+     *         was dropped because the buffer is full.
+     */
+    boolean offer(final Object element) {
+      if (!buffer.offer(element))
+        return false;
+
+      if (idle)
+        LockSupport.unpark(this);
+
+      return true;
+    }
+
+    boolean isIdle() {
+      return idle;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        if (drain(buffer) > 0)
+          continue;
+
+        // The writer becomes idle before it checks the buffer, and producers
+        // check whether it is idle after they offer, so that an element that
+        // is offered concurrently is either seen here, or unparks the writer
+        idle = true;
+        if (buffer.isEmpty())
+          LockSupport.park(this);
+        else
+          Thread.yield();
+
+        idle = false;
+      }
+    }
+  }
+
+  private static void startWriter(final Writer writer) {
+    Logger.writer = writer;
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread("SpecialAgent-Logger-Flush") {
+      @Override
+      public void run() {
+        drain(writer.buffer);
+      }
+    });
+  }
+
+  /**
+   * Writes the messages in the specified buffer to the output stream, and
+   * reports the number of messages that were dropped.
+   *
+   * @param buffer The buffer.
+   * @return The number of messages that were written.
+   */
+  static int drain(final LogRingBuffer buffer) {
+    synchronized (buffer) {
+      int count = 0;
+      for (Object element; (element = buffer.poll()) != null; ++count) {
+        if (element instanceof Entry) {
+          final Entry entry = (Entry)element;
+          out.println(entry.msg);
+          entry.thrown.printStackTrace(out);
+        }
+        else {
+          out.println(element);
+        }
+      }
+
+      final long dropped = buffer.takeDropped();
+      if (dropped > 0)
+        out.println("SpecialAgent dropped " + dropped + " log messages because the log buffer (" + buffer.capacity() + ") was full");
+
+      return count;
+    }
+  }
+
+  /**
+   * Returns the level that is specified for the class by the specified name,
+   * as the level of the longest matching class or package name in the
+   * specified map.
+   *
+   * @param className The name of the class.
+   * @param classLevels The map of class and package names to levels.
+   * @return The level that is specified for the class, or {@code null} if no
+   *         level is specified.
+   */
+  static Level getLevel(final String className, final Map<String,Level> classLevels) {
+    if (classLevels.isEmpty())
+      return null;
+
+    for (String name = className;;) {
+      final Level level = classLevels.get(name);
+      if (level != null)
+        return level;
+
+      final int index = Math.max(name.lastIndexOf('.'), name.lastIndexOf('$'));
+      if (index == -1)
+        return null;
+
+      name = name.substring(0, index);
+    }
+  }
+
   public static Logger getLogger(final Class<?> cls) {
+    final String className = cls.getName();
+    Logger logger = loggers.get(className);
+    if (logger == null) {
+      final Logger existing = loggers.putIfAbsent(className, logger = new Logger(getLevel(className, classLevels)));
+      if (existing != null)
+        logger = existing;
+    }
+
     return logger;
   }
 
@@ -56,53 +235,65 @@ public final class Logger {
     Logger.out = out;
   }
 
+  private static void write(final String msg, final Throwable thrown) {
+    final Writer writer = Logger.writer;
+    if (writer != null) {
+      writer.offer(thrown == null ? msg : new Entry(msg, thrown));
+    }
+    else {
+      out.println(msg);
+      if (thrown != null)
+        thrown.printStackTrace(out);
+    }
+  }
+
+  private final Level classLevel;
+
+  private Logger(final Level classLevel) {
+    this.classLevel = classLevel;
+  }
+
   public boolean isLoggable(final Level level) {
-    return Logger.level.isLoggable(level);
+    return (classLevel != null ? classLevel : Logger.level).isLoggable(level);
   }
 
   public void severe(final String msg) {
     if (isLoggable(Level.SEVERE))
-      out.println(msg);
+      write(msg, null);
   }
 
   public void warning(final String msg) {
     if (isLoggable(Level.WARNING))
-      out.println(msg);
+      write(msg, null);
   }
 
   public void info(final String msg) {
     if (isLoggable(Level.INFO))
-      out.println(msg);
+      write(msg, null);
   }
 
   public void fine(final String msg) {
     if (isLoggable(Level.FINE))
-      out.println(msg);
+      write(msg, null);
   }
 
   public void finer(final String msg) {
     if (isLoggable(Level.FINER))
-      out.println(msg);
+      write(msg, null);
   }
 
   public void finest(final String msg) {
     if (isLoggable(Level.FINEST))
-      out.println(msg);
+      write(msg, null);
   }
 
   public void log(final Level level, final String msg, final Throwable thrown) {
-    if (isLoggable(level)) {
-      out.println(msg);
-      if (thrown != null)
-        thrown.printStackTrace(out);
-    }
+    if (isLoggable(level))
+      write(msg, thrown);
   }
 
   public void log(final Level level, final String msg) {
     if (isLoggable(level))
-      out.println(msg);
-  }
-
-  private Logger() {
+      write(msg, null);
   }
-}
\ No newline at end of file
+}
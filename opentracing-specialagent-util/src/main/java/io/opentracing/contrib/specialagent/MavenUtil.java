@@ -18,6 +18,9 @@ package io.opentracing.contrib.specialagent;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.maven.model.Model;
@@ -36,6 +39,7 @@ public final class MavenUtil {
       throw new IllegalStateException(e);
     }
   }
+
   /**
    * Filters the specified array of {@code File} objects by checking if the file
    * name is included in the specified set of files to match.
@@ -43,14 +47,17 @@ public final class MavenUtil {
    * @param files The array of {@code File} objects to filter.
    * @param matches The set of {@code File} objects whose names are to be
    *          matched by the specified array of URL objects.
-   * @param index The index value for stack tracking (must be called with 0).
-   * @param depth The depth value for stack tracking (must be called with 0).
    * @return An array of {@code File} objects that have file names that belong
-   *         to the specified files to match.
+   *         to the specified files to match, in the order of {@code files}, or
+   *         {@code null} if no files were matched.
    */
-  private static File[] filterUrlFileNames(final File[] files, final Set<File> matches, final int index, final int depth) {
-    for (int i = index; i < files.length; ++i) {
-      final File file = files[i];
+  private static File[] filterUrlFileNames(final File[] files, final Set<File> matches) {
+    final Set<String> names = new HashSet<>(matches.size());
+    for (final File match : matches)
+      names.add(match.getName());
+
+    final List<File> results = new ArrayList<>();
+    for (final File file : files) {
       final String artifact;
       if (file.isDirectory() && "target".equals(file.getParentFile().getName()) && "classes".equals(file.getName()))
         artifact = getArtifactFile(file.getParentFile().getParentFile());
@@ -59,16 +66,11 @@ public final class MavenUtil {
       else
         continue;
 
-      for (final File match : matches) {
-        if (artifact.equals(match.getName())) {
-          final File[] results = filterUrlFileNames(files, matches, i + 1, depth + 1);
-          results[depth] = file;
-          return results;
-        }
-      }
+      if (names.contains(artifact))
+        results.add(file);
     }
 
-    return depth == 0 ? null : new File[depth];
+    return results.size() == 0 ? null : results.toArray(new File[results.size()]);
   }
 
   /**
@@ -89,7 +91,7 @@ public final class MavenUtil {
    */
   public static File[] filterRuleURLs(final File[] files, final String dependenciesTgf, final boolean includeOptional, final String ... scopes) throws IOException {
     final Set<File> matches = AssembleUtil.selectFromTgf(dependenciesTgf, includeOptional, scopes);
-    return filterUrlFileNames(files, matches, 0, 0);
+    return filterUrlFileNames(files, matches);
   }
 
   private MavenUtil() {
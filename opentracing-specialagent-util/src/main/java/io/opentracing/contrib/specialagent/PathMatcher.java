@@ -0,0 +1,226 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A matcher of URL paths against a set of exact, prefix and glob patterns,
+ * which are compiled into a trie that is matched directly against the
+ * characters of a path, without allocation. The patterns are:
+ * <ul>
+ * <li>{@code /health}: The exact path.</li>
+ * <li>{@code /metrics/**}: All paths with the prefix {@code /metrics/}, where
+ * {@code **} matches zero or more characters, including {@code '/'}.</li>
+ * <li>{@code /api/*}{@code /status}: A glob, where {@code *} matches zero or
+ * more characters, excluding {@code '/'}, and {@code ?} matches a single
+ * character other than {@code '/'}.</li>
+ * <li>{@code regex:/v[0-9]+/ping}: A regular expression, which is matched
+ * against the path only if it is not matched by the trie.</li>
+ * </ul>
+ */
+public final class PathMatcher {
+  /**
+   * The prefix of patterns that are regular expressions.
+   */
+  public static final String REGEX_PREFIX = "regex:";
+
+  private static final class Node {
+    private char[] chars = new char[0];
+    private Node[] children = new Node[0];
+    private Node single;
+    private Node star;
+    private Node globstar;
+    private boolean terminal;
+
+    private boolean isLiteral() {
+      return single == null && star == null && globstar == null;
+    }
+
+    private Node get(final char ch) {
+      final int index = Arrays.binarySearch(chars, ch);
+      return index < 0 ? null : children[index];
+    }
+
+    private Node add(final char ch) {
+      int index = Arrays.binarySearch(chars, ch);
+      if (index >= 0)
+        return children[index];
+
+      index = -index - 1;
+      final char[] chars = new char[this.chars.length + 1];
+      System.arraycopy(this.chars, 0, chars, 0, index);
+      System.arraycopy(this.chars, index, chars, index + 1, this.chars.length - index);
+      chars[index] = ch;
+
+      final Node[] children = new Node[this.children.length + 1];
+      System.arraycopy(this.children, 0, children, 0, index);
+      System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+      final Node child = children[index] = new Node();
+
+      this.chars = chars;
+      this.children = children;
+      return child;
+    }
+  }
+
+  /**
+   * Returns a new {@code PathMatcher} of the comma-delimited patterns in the
+   * specified string, or {@code null} if the string is null or does not
+   * contain any patterns. This method is intended for the value of a system
+   * property.
+   *
+   * @param patterns The comma-delimited patterns.
+   * @return A new {@code PathMatcher} of the patterns, or {@code null} if the
+   *         string is null or does not contain any patterns.
+   * @throws IllegalArgumentException If a regular expression is invalid.
+   */
+  public static PathMatcher parse(final String patterns) {
+    if (patterns == null)
+      return null;
+
+    final List<String> list = new ArrayList<>();
+    for (final String pattern : patterns.split(",")) {
+      final String trimmed = pattern.trim();
+      if (trimmed.length() > 0)
+        list.add(trimmed);
+    }
+
+    return list.size() == 0 ? null : new PathMatcher(list.toArray(new String[list.size()]));
+  }
+
+  private final Node root = new Node();
+  private final Pattern pattern;
+
+  /**
+   * Creates a new {@code PathMatcher} of the specified patterns.
+   *
+   * @param patterns The patterns.
+   * @throws IllegalArgumentException If a regular expression is invalid.
+   * @throws NullPointerException If {@code patterns} or a member of
+   *           {@code patterns} is null.
+   */
+  public PathMatcher(final String ... patterns) {
+    final StringBuilder regex = new StringBuilder();
+    for (final String pattern : patterns) {
+      if (pattern.startsWith(REGEX_PREFIX)) {
+        if (regex.length() > 0)
+          regex.append('|');
+
+        regex.append("(?:").append(pattern.substring(REGEX_PREFIX.length())).append(')');
+        continue;
+      }
+
+      Node node = root;
+      for (int i = 0; i < pattern.length(); ++i) {
+        final char ch = pattern.charAt(i);
+        if (ch == '?') {
+          node = node.single != null ? node.single : (node.single = new Node());
+        }
+        else if (ch != '*') {
+          node = node.add(ch);
+        }
+        else if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+          node = node.globstar != null ? node.globstar : (node.globstar = new Node());
+          ++i;
+        }
+        else {
+          node = node.star != null ? node.star : (node.star = new Node());
+        }
+      }
+
+      node.terminal = true;
+    }
+
+    this.pattern = regex.length() == 0 ? null : Pattern.compile(regex.toString());
+  }
+
+  /**
+   * Returns whether the specified path matches a pattern of this matcher.
+   *
+   * @param path The path.
+   * @return Whether the specified path matches a pattern of this matcher.
+   * @throws NullPointerException If {@code path} is null.
+   */
+  public boolean matches(final CharSequence path) {
+    return matches(path, 0, path.length());
+  }
+
+  /**
+   * Returns whether the region of the specified path from {@code start}
+   * (inclusive) to {@code end} (exclusive) matches a pattern of this matcher.
+   * This is intended for the matching of the path of a request URI after its
+   * context path, without the allocation of a substring.
+   *
+   * @param path The path.
+   * @param start The start index of the region (inclusive).
+   * @param end The end index of the region (exclusive).
+   * @return Whether the region of the specified path matches a pattern of this
+   *         matcher.
+   * @throws NullPointerException If {@code path} is null.
+   * @throws IndexOutOfBoundsException If {@code start} or {@code end} are
+   *           outside the bounds of {@code path}.
+   */
+  public boolean matches(final CharSequence path, final int start, final int end) {
+    if (start < 0 || end > path.length() || start > end)
+      throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + path.length());
+
+    return matches(root, path, start, end) || pattern != null && pattern.matcher(path.subSequence(start, end)).matches();
+  }
+
+  private static boolean matches(Node node, final CharSequence path, int index, final int end) {
+    // Exact and prefix characters are matched iteratively, and only the
+    // wildcards backtrack
+    while (node.isLiteral()) {
+      if (index == end)
+        return node.terminal;
+
+      if ((node = node.get(path.charAt(index++))) == null)
+        return false;
+    }
+
+    if (index == end && node.terminal)
+      return true;
+
+    if (node.globstar != null)
+      for (int i = index; i <= end; ++i)
+        if (matches(node.globstar, path, i, end))
+          return true;
+
+    if (node.star != null) {
+      for (int i = index; i <= end; ++i) {
+        if (matches(node.star, path, i, end))
+          return true;
+
+        if (i < end && path.charAt(i) == '/')
+          break;
+      }
+    }
+
+    if (index == end)
+      return false;
+
+    final char ch = path.charAt(index);
+    if (node.single != null && ch != '/' && matches(node.single, path, index + 1, end))
+      return true;
+
+    final Node child = node.get(ch);
+    return child != null && matches(child, path, index + 1, end);
+  }
+}
@@ -20,8 +20,11 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -86,6 +89,43 @@ public class PluginManifest {
     this.name = name;
   }
 
+  /**
+   * Returns the names of the classes whose first definition in the runtime
+   * signifies the presence of the 3rd-party library instrumented by this
+   * plugin, as listed in the plugin's {@link UtilConstants#TRIGGERS_FILE}, or
+   * {@code null} if the plugin does not declare triggers.
+   *
+   * @return The names of the trigger classes of this plugin, or {@code null}
+   *         if the plugin does not declare triggers.
+   */
+  public String[] getTriggers() {
+    try {
+      final String triggers;
+      if (file.isDirectory()) {
+        final File triggersFile = new File(file, UtilConstants.TRIGGERS_FILE);
+        triggers = triggersFile.exists() ? new String(Files.readAllBytes(triggersFile.toPath())) : null;
+      }
+      else {
+        triggers = AssembleUtil.readFileFromJar(file, UtilConstants.TRIGGERS_FILE);
+      }
+
+      if (triggers == null)
+        return null;
+
+      final List<String> names = new ArrayList<>();
+      for (final String line : triggers.split("\n")) {
+        final String name = line.trim();
+        if (name.length() > 0 && name.charAt(0) != '#')
+          names.add(name);
+      }
+
+      return names.size() == 0 ? null : names.toArray(new String[names.size()]);
+    }
+    catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   public URL getFingerprint() {
     try {
       return new URL(file.isDirectory() ? "file:" + file + "/fingerprint.bin" : "jar:file:" + file + "!/fingerprint.bin");
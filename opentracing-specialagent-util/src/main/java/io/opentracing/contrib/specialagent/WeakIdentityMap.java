@@ -0,0 +1,187 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, final Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, final either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent map with weakly referenced keys that are compared by reference
+ * equality instead of object equality. Entries are removed when their keys
+ * are garbage collected, which makes this map suitable to associate state
+ * with objects of the instrumented application (such as requests, responses
+ * or threads) without retaining them, and without contention between the
+ * threads that read and write the map.
+ * <p>
+ * Reads do not block, and the entries of collected keys are expunged on
+ * writes. Callers that know when an object goes out of use should
+ * nevertheless {@link #remove(Object)} its entry explicitly, so that the
+ * entry does not linger until the next garbage collection.
+ *
+ * @param <K> The type of keys maintained by this map.
+ * @param <V> The type of mapped values.
+ */
+public class WeakIdentityMap<K,V> {
+  private interface Ref {
+    Object referent();
+  }
+
+  private static final class WeakKey extends WeakReference<Object> implements Ref {
+    private final int hashCode;
+
+    private WeakKey(final Object referent, final ReferenceQueue<Object> queue) {
+      super(referent, queue);
+      this.hashCode = System.identityHashCode(referent);
+    }
+
+    @Override
+    public Object referent() {
+      return get();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj == this)
+        return true;
+
+      if (!(obj instanceof Ref))
+        return false;
+
+      final Object referent = get();
+      return referent != null && referent == ((Ref)obj).referent();
+    }
+  }
+
+  private static final class LookupKey implements Ref {
+    private final Object referent;
+
+    private LookupKey(final Object referent) {
+      this.referent = referent;
+    }
+
+    @Override
+    public Object referent() {
+      return referent;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(referent);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof Ref && referent == ((Ref)obj).referent();
+    }
+  }
+
+  private final ConcurrentMap<Ref,V> map = new ConcurrentHashMap<>();
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+  private void expunge() {
+    for (Reference<?> reference; (reference = queue.poll()) != null;)
+      map.remove(reference);
+  }
+
+  /**
+   * Returns the value to which the specified key is mapped.
+   *
+   * @param key The key.
+   * @return The value to which the specified key is mapped, or {@code null}
+   *         if this map contains no mapping for the key.
+   * @throws NullPointerException If the specified key is null.
+   */
+  public V get(final K key) {
+    return map.get(new LookupKey(checkKey(key)));
+  }
+
+  /**
+   * Returns whether this map contains a mapping for the specified key.
+   *
+   * @param key The key.
+   * @return Whether this map contains a mapping for the specified key.
+   * @throws NullPointerException If the specified key is null.
+   */
+  public boolean containsKey(final K key) {
+    return map.containsKey(new LookupKey(checkKey(key)));
+  }
+
+  /**
+   * Associates the specified value with the specified key.
+   *
+   * @param key The key.
+   * @param value The value.
+   * @return The previous value associated with the key, or {@code null} if
+   *         there was no mapping for the key.
+   * @throws NullPointerException If the specified key or value is null.
+   */
+  public V put(final K key, final V value) {
+    expunge();
+    return map.put(new WeakKey(checkKey(key), queue), value);
+  }
+
+  /**
+   * Associates the specified value with the specified key, unless the key is
+   * already mapped to a value.
+   *
+   * @param key The key.
+   * @param value The value.
+   * @return The value that is associated with the key, or {@code null} if the
+   *         specified value was associated with the key.
+   * @throws NullPointerException If the specified key or value is null.
+   */
+  public V putIfAbsent(final K key, final V value) {
+    expunge();
+    return map.putIfAbsent(new WeakKey(checkKey(key), queue), value);
+  }
+
+  /**
+   * Removes the mapping for the specified key.
+   *
+   * @param key The key.
+   * @return The value that was associated with the key, or {@code null} if
+   *         there was no mapping for the key.
+   * @throws NullPointerException If the specified key is null.
+   */
+  public V remove(final K key) {
+    expunge();
+    return map.remove(new LookupKey(checkKey(key)));
+  }
+
+  /**
+   * @return The number of mappings in this map, after the mappings of keys
+   *         that were garbage collected have been expunged.
+   */
+  public int size() {
+    expunge();
+    return map.size();
+  }
+
+  private static <K>K checkKey(final K key) {
+    if (key == null)
+      throw new NullPointerException("key == null");
+
+    return key;
+  }
+}
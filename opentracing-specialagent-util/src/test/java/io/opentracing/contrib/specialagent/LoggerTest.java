@@ -0,0 +1,88 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Logger} and {@link LogRingBuffer}.
+ */
+public class LoggerTest {
+  @Test
+  public void testClassLevels() {
+    final Map<String,Level> classLevels = new HashMap<>();
+    assertNull(Logger.getLevel("io.opentracing.contrib.specialagent.SpecialAgent", classLevels));
+
+    classLevels.put("io.opentracing.contrib.specialagent", Level.FINE);
+    classLevels.put("io.opentracing.contrib.specialagent.SpecialAgent", Level.FINEST);
+    assertEquals(Level.FINEST, Logger.getLevel("io.opentracing.contrib.specialagent.SpecialAgent", classLevels));
+    assertEquals(Level.FINEST, Logger.getLevel("io.opentracing.contrib.specialagent.SpecialAgent$1", classLevels));
+    assertEquals(Level.FINE, Logger.getLevel("io.opentracing.contrib.specialagent.AgentRule", classLevels));
+    assertNull(Logger.getLevel("io.opentracing.contrib.SpecialAgentRule", classLevels));
+  }
+
+  @Test
+  public void testRingBuffer() {
+    final LogRingBuffer buffer = new LogRingBuffer(3);
+    assertEquals(4, buffer.capacity());
+    for (int i = 0; i < 6; ++i)
+      assertEquals(i < 4, buffer.offer(i));
+
+    assertEquals(2, buffer.takeDropped());
+    assertEquals(0, buffer.takeDropped());
+    assertEquals(0, buffer.poll());
+    assertEquals(1, buffer.poll());
+    assertTrue(buffer.offer(4));
+    assertEquals(2, buffer.poll());
+    assertEquals(3, buffer.poll());
+    assertEquals(4, buffer.poll());
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void testWriter() throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Logger.setOut(new PrintStream(bytes, true));
+    try {
+      final Logger.Writer writer = new Logger.Writer(new LogRingBuffer(4));
+      writer.start();
+
+      // The writer parks without a timeout while idle, and is unparked by the offer
+      for (int i = 0; i < 2; ++i) {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!(writer.isIdle() && writer.getState() == Thread.State.WAITING) && System.currentTimeMillis() < deadline)
+          Thread.sleep(1);
+
+        assertEquals(Thread.State.WAITING, writer.getState());
+        assertTrue(writer.offer("message" + i));
+        while (!bytes.toString().contains("message" + i) && System.currentTimeMillis() < deadline)
+          Thread.sleep(1);
+
+        assertTrue(bytes.toString().contains("message" + i));
+      }
+    }
+    finally {
+      Logger.setOut(System.err);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link PathMatcher}.
+ */
+public class PathMatcherTest {
+  @Test
+  public void testExact() {
+    final PathMatcher matcher = new PathMatcher("/health", "/status");
+    assertTrue(matcher.matches("/health"));
+    assertTrue(matcher.matches("/status"));
+    assertFalse(matcher.matches("/health/"));
+    assertFalse(matcher.matches("/healt"));
+    assertFalse(matcher.matches("/"));
+    assertFalse(matcher.matches(""));
+  }
+
+  @Test
+  public void testPrefix() {
+    final PathMatcher matcher = new PathMatcher("/metrics/**");
+    assertTrue(matcher.matches("/metrics/"));
+    assertTrue(matcher.matches("/metrics/jvm"));
+    assertTrue(matcher.matches("/metrics/jvm/memory"));
+    assertFalse(matcher.matches("/metrics"));
+    assertFalse(matcher.matches("/metricsx"));
+  }
+
+  @Test
+  public void testGlob() {
+    final PathMatcher matcher = new PathMatcher("/api/*/status", "/v?/ping", "*.ico", "/a/**/z");
+    assertTrue(matcher.matches("/api/orders/status"));
+    assertTrue(matcher.matches("/api//status"));
+    assertFalse(matcher.matches("/api/orders/items/status"));
+    assertTrue(matcher.matches("/v1/ping"));
+    assertFalse(matcher.matches("/v10/ping"));
+    assertFalse(matcher.matches("/v//ping"));
+    assertTrue(matcher.matches("favicon.ico"));
+    assertFalse(matcher.matches("/favicon.ico"));
+    assertTrue(matcher.matches("/a/b/z"));
+    assertFalse(matcher.matches("/a/"));
+    assertTrue(matcher.matches("/a/b/c/z"));
+  }
+
+  @Test
+  public void testRegion() {
+    final PathMatcher matcher = new PathMatcher("/health");
+    final String uri = "/context/health";
+    assertTrue(matcher.matches(uri, "/context".length(), uri.length()));
+    assertFalse(matcher.matches(uri, 0, uri.length()));
+    assertFalse(matcher.matches(uri, "/context".length(), uri.length() - 1));
+  }
+
+  @Test
+  public void testRegex() {
+    final PathMatcher matcher = new PathMatcher("/health", "regex:/v[0-9]+/ping", "regex:/info|/env");
+    assertTrue(matcher.matches("/health"));
+    assertTrue(matcher.matches("/v12/ping"));
+    assertTrue(matcher.matches("/info"));
+    assertTrue(matcher.matches("/env"));
+    assertFalse(matcher.matches("/va/ping"));
+    final String uri = "/context/v1/ping";
+    assertTrue(matcher.matches(uri, "/context".length(), uri.length()));
+  }
+
+  @Test
+  public void testParse() {
+    assertNull(PathMatcher.parse(null));
+    assertNull(PathMatcher.parse(" , "));
+    final PathMatcher matcher = PathMatcher.parse("/health, /metrics/** ,regex:/info");
+    assertTrue(matcher.matches("/health"));
+    assertTrue(matcher.matches("/metrics/jvm"));
+    assertTrue(matcher.matches("/info"));
+    assertFalse(matcher.matches("/"));
+  }
+}
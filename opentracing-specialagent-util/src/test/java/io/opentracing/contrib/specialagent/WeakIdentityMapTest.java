@@ -0,0 +1,60 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link WeakIdentityMap}.
+ */
+public class WeakIdentityMapTest {
+  @Test
+  public void testIdentity() {
+    final WeakIdentityMap<String,Integer> map = new WeakIdentityMap<>();
+    final String key1 = new String("key");
+    final String key2 = new String("key");
+    assertNull(map.put(key1, 1));
+    assertNull(map.put(key2, 2));
+    assertEquals(2, map.size());
+    assertEquals(Integer.valueOf(1), map.get(key1));
+    assertEquals(Integer.valueOf(2), map.get(key2));
+    assertEquals(Integer.valueOf(1), map.put(key1, 3));
+    assertEquals(Integer.valueOf(3), map.putIfAbsent(key1, 4));
+    assertEquals(Integer.valueOf(3), map.remove(key1));
+    assertFalse(map.containsKey(key1));
+    assertTrue(map.containsKey(key2));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testExpunge() throws InterruptedException {
+    final WeakIdentityMap<Object,Integer> map = new WeakIdentityMap<>();
+    final Object retained = new Object();
+    map.put(retained, 0);
+    for (int i = 0; i < 100; ++i)
+      map.put(new Object(), i);
+
+    for (int i = 0; i < 50 && map.size() > 1; ++i) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, map.size());
+    assertEquals(Integer.valueOf(0), map.get(retained));
+  }
+}
@@ -0,0 +1,300 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+/**
+ * Self-diagnostics of the {@code SpecialAgent}, which are enabled with the
+ * {@link #STATS_PROPERTY} system property. The statistics comprise the counts
+ * of discovered, transformed, ignored and errored classes (and the time spent
+ * in their transformation) per rule and per class loader, as well as the
+ * number of live {@link RuleClassLoader}s, the hit rate of the
+ * {@link SpecialAgent#linkRule(int,ClassLoader)} cache, the hits and misses of
+ * {@link SpecialAgent#findClass(ClassLoader,String)}, and the time spent in
+ * fingerprint verification.
+ * <p>
+ * The statistics are exposed via JMX as the {@link #OBJECT_NAME} MBean, and
+ * are logged as a compact line every {@link #INTERVAL_PROPERTY} seconds. The
+ * MBean is registered from a background thread after the first interval, so
+ * that the platform MBean server is not initialized during premain.
+ */
+public final class AgentStatistics implements AgentStatisticsMBean {
+  private static final Logger logger = Logger.getLogger(AgentStatistics.class);
+  static final String STATS_PROPERTY = "sa.stats";
+  static final String INTERVAL_PROPERTY = "sa.stats.interval";
+  static final String OBJECT_NAME = "io.opentracing.contrib.specialagent:type=AgentStatistics";
+
+  static final boolean enabled;
+
+  static {
+    final String statsProperty = System.getProperty(STATS_PROPERTY);
+    enabled = statsProperty != null && !"false".equals(statsProperty);
+  }
+
+  /**
+   * The counters of the classes processed by a rule, or in a class loader.
+   */
+  static final class Counters {
+    final String name;
+    final AtomicLong discovered = new AtomicLong();
+    final AtomicLong transformed = new AtomicLong();
+    final AtomicLong ignored = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong nanos = new AtomicLong();
+
+    Counters(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name + ": discovered=" + discovered.get() + ", transformed=" + transformed.get() + ", ignored=" + ignored.get() + ", errors=" + errors.get() + ", transformMs=" + TimeUnit.NANOSECONDS.toMillis(nanos.get());
+    }
+  }
+
+  private static final ConcurrentMap<String,Counters> ruleToCounters = new ConcurrentHashMap<>();
+  private static final Map<ClassLoader,Counters> classLoaderToCounters = Collections.synchronizedMap(new WeakHashMap<ClassLoader,Counters>());
+  private static final Set<RuleClassLoader> ruleClassLoaders = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<RuleClassLoader,Boolean>()));
+  private static final AtomicLong linkRuleHits = new AtomicLong();
+  private static final AtomicLong linkRuleMisses = new AtomicLong();
+  private static final AtomicLong findClassHits = new AtomicLong();
+  private static final AtomicLong findClassMisses = new AtomicLong();
+  private static final AtomicLong fingerprints = new AtomicLong();
+  private static final AtomicLong fingerprintNanos = new AtomicLong();
+  private static final AgentStatistics instance = new AgentStatistics();
+  private static boolean started;
+
+  /**
+   * Returns the counters of the rule by the specified name.
+   *
+   * @param name The name of the rule.
+   * @return The counters of the rule, or {@code null} if the statistics are
+   *         not enabled.
+   */
+  static Counters forRule(final String name) {
+    if (!enabled)
+      return null;
+
+    final Counters counters = ruleToCounters.get(name);
+    if (counters != null)
+      return counters;
+
+    final Counters created = new Counters(name);
+    final Counters existing = ruleToCounters.putIfAbsent(name, created);
+    return existing != null ? existing : created;
+  }
+
+  /**
+   * Returns the counters of the specified class loader.
+   *
+   * @param classLoader The class loader, or {@code null} for the bootstrap
+   *          class loader.
+   * @return The counters of the class loader, or {@code null} if the
+   *         statistics are not enabled.
+   */
+  static Counters forClassLoader(final ClassLoader classLoader) {
+    if (!enabled)
+      return null;
+
+    synchronized (classLoaderToCounters) {
+      Counters counters = classLoaderToCounters.get(classLoader);
+      if (counters == null)
+        classLoaderToCounters.put(classLoader, counters = new Counters(AssembleUtil.getNameId(classLoader)));
+
+      return counters;
+    }
+  }
+
+  static void onLinkRule(final boolean cached) {
+    if (enabled)
+      (cached ? linkRuleHits : linkRuleMisses).incrementAndGet();
+  }
+
+  static void onFindClass(final boolean found) {
+    if (enabled)
+      (found ? findClassHits : findClassMisses).incrementAndGet();
+  }
+
+  static void onFingerprint(final long nanos) {
+    if (enabled) {
+      fingerprints.incrementAndGet();
+      fingerprintNanos.addAndGet(nanos);
+    }
+  }
+
+  static void onRuleClassLoader(final RuleClassLoader ruleClassLoader) {
+    if (enabled)
+      ruleClassLoaders.add(ruleClassLoader);
+  }
+
+  /**
+   * Starts the background thread that registers the MBean, and periodically
+   * logs the summary of the statistics, if the statistics are enabled.
+   */
+  static synchronized void start() {
+    if (!enabled || started)
+      return;
+
+    started = true;
+    final String intervalProperty = System.getProperty(INTERVAL_PROPERTY);
+    final long interval = TimeUnit.SECONDS.toMillis(intervalProperty != null ? Long.parseLong(intervalProperty) : 60);
+    final Thread thread = new Thread("SpecialAgent-Statistics") {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(interval);
+          try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+          }
+          catch (final Exception e) {
+            logger.log(Level.WARNING, "Unable to register " + OBJECT_NAME, e);
+          }
+
+          while (true) {
+            logger.info(instance.getSummary());
+            Thread.sleep(interval);
+          }
+        }
+        catch (final InterruptedException e) {
+        }
+      }
+    };
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return The totals of the counters of all rules, in the order of:
+   *         discovered, transformed, ignored, errors, and nanos.
+   */
+  private static long[] totals() {
+    final long[] totals = new long[5];
+    for (final Counters counters : ruleToCounters.values()) {
+      totals[0] += counters.discovered.get();
+      totals[1] += counters.transformed.get();
+      totals[2] += counters.ignored.get();
+      totals[3] += counters.errors.get();
+      totals[4] += counters.nanos.get();
+    }
+
+    return totals;
+  }
+
+  private static String[] toStrings(final Iterable<Counters> counters) {
+    final List<String> strings = new ArrayList<>();
+    for (final Counters counter : counters)
+      strings.add(counter.toString());
+
+    return strings.toArray(new String[strings.size()]);
+  }
+
+  private AgentStatistics() {
+  }
+
+  @Override
+  public long getDiscovered() {
+    return totals()[0];
+  }
+
+  @Override
+  public long getTransformed() {
+    return totals()[1];
+  }
+
+  @Override
+  public long getIgnored() {
+    return totals()[2];
+  }
+
+  @Override
+  public long getErrors() {
+    return totals()[3];
+  }
+
+  @Override
+  public long getTransformMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totals()[4]);
+  }
+
+  @Override
+  public int getRuleClassLoaders() {
+    return ruleClassLoaders.size();
+  }
+
+  @Override
+  public long getLinkRuleHits() {
+    return linkRuleHits.get();
+  }
+
+  @Override
+  public long getLinkRuleMisses() {
+    return linkRuleMisses.get();
+  }
+
+  @Override
+  public long getFindClassHits() {
+    return findClassHits.get();
+  }
+
+  @Override
+  public long getFindClassMisses() {
+    return findClassMisses.get();
+  }
+
+  @Override
+  public long getFingerprintVerifications() {
+    return fingerprints.get();
+  }
+
+  @Override
+  public long getFingerprintMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(fingerprintNanos.get());
+  }
+
+  @Override
+  public String[] getRuleStatistics() {
+    return toStrings(ruleToCounters.values());
+  }
+
+  @Override
+  public String[] getClassLoaderStatistics() {
+    synchronized (classLoaderToCounters) {
+      return toStrings(new ArrayList<>(classLoaderToCounters.values()));
+    }
+  }
+
+  @Override
+  public String getSummary() {
+    final long[] totals = totals();
+    final long hits = getLinkRuleHits();
+    final long lookups = hits + getLinkRuleMisses();
+    return "SpecialAgent statistics: rules=" + ruleToCounters.size() + ", discovered=" + totals[0] + ", transformed=" + totals[1] + ", ignored=" + totals[2] + ", errors=" + totals[3] + ", transformMs=" + TimeUnit.NANOSECONDS.toMillis(totals[4]) + ", ruleClassLoaders=" + getRuleClassLoaders() + ", linkRule=" + hits + "/" + lookups + (lookups == 0 ? "" : String.format(" (%.1f%%)", 100d * hits / lookups)) + ", findClass=" + getFindClassHits() + "/" + (getFindClassHits() + getFindClassMisses()) + ", fingerprint=" + getFingerprintVerifications() + " (" + getFingerprintMillis() + "ms)";
+  }
+}
@@ -33,6 +33,7 @@ import java.util.jar.JarFile;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.agent.builder.AgentBuilder.Identified.Narrowable;
 import net.bytebuddy.agent.builder.AgentBuilder.InitializationStrategy;
+import net.bytebuddy.agent.builder.AgentBuilder.LocationStrategy;
 import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
 import net.bytebuddy.agent.builder.AgentBuilder.Transformer;
 import net.bytebuddy.agent.builder.AgentBuilder.TypeStrategy;
@@ -79,7 +80,9 @@ public class BootLoaderAgent {
       .disableClassFormatChanges()
       .with(RedefinitionStrategy.RETRANSFORMATION)
       .with(InitializationStrategy.NoOp.INSTANCE)
-      .with(TypeStrategy.Default.REDEFINE);
+      .with(TypeStrategy.Default.REDEFINE)
+      .with(TypePoolCache.INSTANCE)
+      .with(LocationStrategy.ForClassLoader.WEAK);
 
     final Narrowable j8 = builder.type(is(ClassLoader.class));
     j8.transform(new Transformer() {
@@ -25,21 +25,22 @@ import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import net.bytebuddy.agent.builder.AgentBuilder;
-import net.bytebuddy.agent.builder.AgentBuilder.Identified.Narrowable;
 import net.bytebuddy.agent.builder.AgentBuilder.InitializationStrategy;
-import net.bytebuddy.agent.builder.AgentBuilder.Listener;
+import net.bytebuddy.agent.builder.AgentBuilder.LocationStrategy;
+import net.bytebuddy.agent.builder.AgentBuilder.RawMatcher;
 import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
-import net.bytebuddy.agent.builder.AgentBuilder.Transformer;
 import net.bytebuddy.agent.builder.AgentBuilder.TypeStrategy;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.DynamicType;
-import net.bytebuddy.dynamic.DynamicType.Builder;
 import net.bytebuddy.utility.JavaModule;
 
 /**
@@ -49,7 +50,10 @@ import net.bytebuddy.utility.JavaModule;
  */
 public class ByteBuddyManager extends Manager {
   private static final Logger logger = Logger.getLogger(ByteBuddyManager.class);
-  private static final String RULES_FILE = "otarules.mf";
+  static final String RULES_FILE = "otarules.mf";
+  private static final String LAZY_PROPERTY = "sa.instrumentation.lazy";
+  private static final String WOVEN_PROPERTY = "sa.instrumentation.woven";
+  private static final String CACHE_PROPERTY = "sa.instrumentation.cache";
 
   private static void log(final Level level, final String message, final Throwable t) {
     if (t instanceof IllegalStateException && t.getMessage().startsWith("Cannot resolve type description for "))
@@ -62,18 +66,6 @@ public class ByteBuddyManager extends Manager {
     logger.log(level, message);
   }
 
-  private static void installOn(final Narrowable builder, final Class<?> advice, final AgentRule agentRule, final Listener listener, final Instrumentation instrumentation) {
-    builder
-      .transform(new Transformer() {
-        @Override
-        public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
-          return null;//builder.visit(Advice.to(advice).on(agentRule.onMethod()));
-        }
-      })
-      .with(listener)
-      .installOn(instrumentation);
-  }
-
   private static void assertParent(final AgentBuilder expected, final AgentBuilder builder) {
     try {
       final Class<?> cls = Class.forName("net.bytebuddy.agent.builder.AgentBuilder$Default$Transforming");
@@ -90,22 +82,34 @@ public class ByteBuddyManager extends Manager {
     }
   }
 
-  private static AgentBuilder newBuilder() {
+  private static final IgnoredTypeMatcher ignoredTypeMatcher = IgnoredTypeMatcher.fromSystemProperties();
+
+  static AgentBuilder newBuilder() {
+    return newBuilder(null);
+  }
+
+  static AgentBuilder newBuilder(final RawMatcher ignoredMatcher) {
     // Prepare the builder to be used to implement transformations in AgentRule(s)
-    AgentBuilder agentBuilder = new AgentBuilder.Default()
+    AgentBuilder.Ignored agentBuilder = new AgentBuilder.Default()
       .disableClassFormatChanges()
-      .ignore(none());
+      .ignore(ignoredTypeMatcher);
 
     if (AgentRuleUtil.tracerClassLoader != null)
-      agentBuilder = agentBuilder.ignore(any(), is(AgentRuleUtil.tracerClassLoader));
+      agentBuilder = agentBuilder.or(any(), is(AgentRuleUtil.tracerClassLoader));
+
+    if (ignoredMatcher != null)
+      agentBuilder = agentBuilder.or(ignoredMatcher);
 
     return agentBuilder
       .with(RedefinitionStrategy.RETRANSFORMATION)
       .with(InitializationStrategy.NoOp.INSTANCE)
-      .with(TypeStrategy.Default.REDEFINE);
+      .with(TypeStrategy.Default.REDEFINE)
+      .with(TypePoolCache.INSTANCE)
+      .with(LocationStrategy.ForClassLoader.WEAK);
   }
 
   private Instrumentation inst;
+  private TransformationCache cache;
 
   ByteBuddyManager() {
     super(RULES_FILE);
@@ -123,14 +127,42 @@ public class ByteBuddyManager extends Manager {
   void loadRules(final ClassLoader allRulesClassLoader, final Map<File,Integer> ruleJarToIndex, final Event[] events, final Map<File,PluginManifest> fileToPluginManifest) throws IOException {
     AgentRule agentRule = null;
     try {
+      final String cacheProperty = System.getProperty(CACHE_PROPERTY);
+      if (cacheProperty != null && !"false".equals(cacheProperty))
+        cache = new TransformationCache(cacheProperty.length() == 0 || "true".equals(cacheProperty) ? new File(System.getProperty("java.io.tmpdir"), "opentracing-specialagent-cache") : new File(cacheProperty));
+
       // Load ClassLoader Agent
       agentRule = new ClassLoaderAgentRule();
       loadAgentRule(agentRule, newBuilder(), -1, events);
 
       // Load the Mutex Agent
+      final StartupProfiler.Phase phase = StartupProfiler.start("MutexAgent.premain");
       MutexAgent.premain(inst);
+      StartupProfiler.stop(phase);
+
+      final String wovenProperty = System.getProperty(WOVEN_PROPERTY);
+      final WovenClasses wovenClasses;
+      if (wovenProperty != null && !"false".equals(wovenProperty)) {
+        final Map<String,Integer> nameToIndex = new HashMap<>();
+        for (final Map.Entry<File,Integer> entry : ruleJarToIndex.entrySet()) {
+          final PluginManifest pluginManifest = fileToPluginManifest.get(entry.getKey());
+          if (pluginManifest != null)
+            nameToIndex.put(pluginManifest.name, entry.getValue());
+        }
+
+        wovenClasses = new WovenClasses(nameToIndex);
+        inst.addTransformer(wovenClasses);
+        wovenClasses.linkLoaded(inst.getAllLoadedClasses());
+      }
+      else {
+        wovenClasses = null;
+      }
+
+      final String lazyProperty = System.getProperty(LAZY_PROPERTY);
+      final TriggerTransformer triggerTransformer = lazyProperty != null && !"false".equals(lazyProperty) ? new TriggerTransformer(inst) : null;
 
-      // Prepare the agent rules
+      // Prepare the agent rules, and merge their declarative advice
+      final MergedAdvice mergedAdvice = new MergedAdvice();
       final Enumeration<URL> enumeration = allRulesClassLoader.getResources(file);
       while (enumeration.hasMoreElements()) {
         final URL scriptUrl = enumeration.nextElement();
@@ -139,6 +171,9 @@ public class ByteBuddyManager extends Manager {
           logger.finest("Dereferencing index for " + ruleJar);
 
         final int index = ruleJarToIndex.get(ruleJar);
+        final PluginManifest pluginManifest = fileToPluginManifest.get(ruleJar);
+        final List<AgentRule> agentRules = new ArrayList<>();
+        final RawMatcher wovenMatcher = wovenClasses == null ? null : wovenClasses.matcher(pluginManifest.name);
 
         final BufferedReader reader = new BufferedReader(new InputStreamReader(scriptUrl.openStream()));
         for (String line; (line = reader.readLine()) != null;) {
@@ -159,8 +194,6 @@ public class ByteBuddyManager extends Manager {
             continue;
           }
 
-          final PluginManifest pluginManifest = fileToPluginManifest.get(ruleJar);
-
           final String simpleClassName = line.substring(line.lastIndexOf('.') + 1);
           final String disableRule = System.getProperty("sa.instrumentation.plugin." + pluginManifest.name + "." + simpleClassName + ".disable");
           if (disableRule != null && !"false".equals(disableRule)) {
@@ -170,15 +203,68 @@ public class ByteBuddyManager extends Manager {
             continue;
           }
 
-          if (logger.isLoggable(Level.FINE))
-            logger.fine("Installing new rule: " + line);
-
           AgentRule.classNameToName.put(agentClass.getName(), pluginManifest.name);
 
           agentRule = (AgentRule)agentClass.getConstructor().newInstance();
-          loadAgentRule(agentRule, newBuilder(), index, events);
+          agentRules.add(agentRule);
           loadedRules.add(line);
         }
+
+        final String[] triggers = triggerTransformer == null ? null : pluginManifest.getTriggers();
+        if (triggers == null) {
+          for (final AgentRule rule : agentRules) {
+            if (logger.isLoggable(Level.FINE))
+              logger.fine("Installing new rule: " + rule.getClass().getName());
+
+            agentRule = rule;
+            loadAgentRule(rule, newBuilder(wovenMatcher), index, events);
+            mergedAdvice.add(rule, index, wovenMatcher);
+          }
+        }
+        else if (agentRules.size() > 0) {
+          if (logger.isLoggable(Level.FINE))
+            logger.fine("Deferring rules of \"" + pluginManifest.name + "\" until first sighting of one of " + triggers.length + " trigger classes");
+
+          triggerTransformer.register(new TriggerTransformer.Trigger(pluginManifest, triggers) {
+            @Override
+            void install() {
+              final MergedAdvice triggeredAdvice = new MergedAdvice();
+              for (final AgentRule rule : agentRules) {
+                if (logger.isLoggable(Level.FINE))
+                  logger.fine("Installing new rule: " + rule.getClass().getName());
+
+                try {
+                  loadAgentRule(rule, newBuilder(wovenMatcher), index, events);
+                  triggeredAdvice.add(rule, index, wovenMatcher);
+                }
+                catch (final Exception e) {
+                  logger.log(Level.SEVERE, "Error invoking " + rule + "#buildAgent(AgentBuilder)", e);
+                }
+              }
+
+              loadMergedAdvice(triggeredAdvice, events);
+            }
+          });
+        }
+      }
+
+      loadMergedAdvice(mergedAdvice, events);
+      if (triggerTransformer != null && !triggerTransformer.isEmpty()) {
+        // Register the transformer before checking the loaded classes, so that
+        // no trigger class can be defined in between without being seen
+        inst.addTransformer(triggerTransformer);
+        triggerTransformer.fireLoaded(inst.getAllLoadedClasses());
+      }
+
+      AgentStatistics.start();
+      TypePoolCache.INSTANCE.logStatistics();
+      if (logger.isLoggable(Level.FINE)) {
+        Runtime.getRuntime().addShutdownHook(new Thread("SpecialAgent-TypePoolCache") {
+          @Override
+          public void run() {
+            TypePoolCache.INSTANCE.logStatistics();
+          }
+        });
       }
     }
     catch (final UnsupportedClassVersionError | InvocationTargetException e) {
@@ -196,33 +282,97 @@ public class ByteBuddyManager extends Manager {
   }
 
   private void loadAgentRule(final AgentRule agentRule, final AgentBuilder agentBuilder, final int index, final Event[] events) throws Exception {
-    final Iterable<? extends AgentBuilder> builders = agentRule.buildAgent(agentBuilder);
-    for (final AgentBuilder builder : builders) {
-//      assertParent(agentBuilder, builder);
-      final TransformationListener listener = new TransformationListener(index, events);
-//      if (agentRule.onEn().getOnEnter() != null)
-//        installOn(builder, agentRule.onEn().getOnEnter(), agentRule, listener, instrumentation);
-//
-//      if (agentRule.onEn().getOnExit() != null)
-//        installOn(builder, agentRule.onEn().getOnExit(), agentRule, listener, instrumentation);
-
-      builder.with(listener).installOn(inst);
+    final StartupProfiler.Phase phase = StartupProfiler.start(agentRule.getClass().getName());
+    try {
+      final Iterable<? extends AgentBuilder> builders = agentRule.buildAgent(agentBuilder);
+      int i = 0;
+      for (final AgentBuilder builder : builders) {
+//        assertParent(agentBuilder, builder);
+        final TransformationListener listener = new TransformationListener(index, events, AgentStatistics.forRule(agentRule.getClass().getName()));
+        if (cache != null)
+          builder.with(listener).installOn(inst, cache.decorator(agentRule.getClass().getName() + "#" + i++, index));
+        else
+          builder.with(listener).installOn(inst);
+      }
+    }
+    finally {
+      StartupProfiler.stop(phase);
+    }
+  }
+
+  /**
+   * Installs the specified merged declarative advice. The transformation
+   * cache is not applied to the merged advice, because its advice may belong
+   * to several plugins, which are linked per type by the transformer itself.
+   *
+   * @param mergedAdvice The merged advice.
+   * @param events The events to be logged.
+   */
+  private void loadMergedAdvice(final MergedAdvice mergedAdvice, final Event[] events) {
+    if (mergedAdvice.isEmpty())
+      return;
+
+    final StartupProfiler.Phase phase = StartupProfiler.start(MergedAdvice.class.getName());
+    try {
+      mergedAdvice.apply(newBuilder())
+        .with(new TransformationListener(-1, events, AgentStatistics.forRule(MergedAdvice.class.getName())))
+        .installOn(inst);
+    }
+    finally {
+      StartupProfiler.stop(phase);
     }
   }
 
   class TransformationListener implements AgentBuilder.Listener {
     private final int index;
     private final Event[] events;
+    private final AgentStatistics.Counters ruleCounters;
+    private final ThreadLocal<Discovery> discovery;
+
+    /**
+     * The class loader counters and start time of the type that is being
+     * processed by the rule in the current thread. The class loader and its
+     * counters are cleared when the processing of the type is complete, so
+     * that the thread does not retain the class loader.
+     */
+    private final class Discovery {
+      private ClassLoader classLoader;
+      private AgentStatistics.Counters classLoaderCounters;
+      private long startNanos;
+
+      private AgentStatistics.Counters classLoaderCounters(final ClassLoader classLoader) {
+        if (classLoaderCounters == null || this.classLoader != classLoader) {
+          this.classLoader = classLoader;
+          classLoaderCounters = AgentStatistics.forClassLoader(classLoader);
+        }
 
-    TransformationListener(final int index, final Event[] events) {
+        return classLoaderCounters;
+      }
+    }
+
+    TransformationListener(final int index, final Event[] events, final AgentStatistics.Counters ruleCounters) {
       this.index = index;
       this.events = events;
+      this.ruleCounters = ruleCounters;
+      this.discovery = ruleCounters == null ? null : new ThreadLocal<Discovery>() {
+        @Override
+        protected Discovery initialValue() {
+          return new Discovery();
+        }
+      };
     }
 
     @Override
     public void onDiscovery(final String typeName, final ClassLoader classLoader, final JavaModule module, final boolean loaded) {
       if (events[Event.DISCOVERY.ordinal()] != null)
         log(Level.SEVERE, "Event::onDiscovery(" + typeName + ", " + AssembleUtil.getNameId(classLoader) + ", " + module + ", " + loaded + ")");
+
+      if (ruleCounters != null) {
+        final Discovery discovery = this.discovery.get();
+        discovery.classLoaderCounters(classLoader).discovered.incrementAndGet();
+        ruleCounters.discovered.incrementAndGet();
+        discovery.startNanos = System.nanoTime();
+      }
     }
 
     @Override
@@ -230,26 +380,57 @@ public class ByteBuddyManager extends Manager {
       if (events[Event.TRANSFORMATION.ordinal()] != null)
         log(Level.SEVERE, "Event::onTransformation(" + typeDescription.getName() + ", " + AssembleUtil.getNameId(classLoader) + ", " + module + ", " + loaded + ", " + dynamicType + ")");
 
-      if (index != -1 && !SpecialAgent.linkRule(index, classLoader))
+      if (ruleCounters != null) {
+        ruleCounters.transformed.incrementAndGet();
+        discovery.get().classLoaderCounters(classLoader).transformed.incrementAndGet();
+      }
+
+      if (index != -1 && !SpecialAgent.linkRule(index, classLoader)) {
+        TransformationCache.abort();
         throw new IllegalStateException("Disallowing transformation due to incompatibility");
+      }
     }
 
     @Override
     public void onIgnored(final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module, final boolean loaded) {
       if (events[Event.IGNORED.ordinal()] != null)
         log(Level.SEVERE, "Event::onIgnored(" + typeDescription.getName() + ", " + AssembleUtil.getNameId(classLoader) + ", " + module + ", " + loaded + ")");
+
+      if (ruleCounters != null) {
+        ruleCounters.ignored.incrementAndGet();
+        discovery.get().classLoaderCounters(classLoader).ignored.incrementAndGet();
+      }
     }
 
     @Override
     public void onError(final String typeName, final ClassLoader classLoader, final JavaModule module, final boolean loaded, final Throwable throwable) {
+      TransformationCache.abort();
       if (events[Event.ERROR.ordinal()] != null)
         log(Level.SEVERE, "Event::onError(" + typeName + ", " + AssembleUtil.getNameId(classLoader) + ", " + module + ", " + loaded + ")", throwable);
+
+      if (ruleCounters != null) {
+        ruleCounters.errors.incrementAndGet();
+        discovery.get().classLoaderCounters(classLoader).errors.incrementAndGet();
+      }
     }
 
     @Override
     public void onComplete(final String typeName, final ClassLoader classLoader, final JavaModule module, final boolean loaded) {
       if (events[Event.COMPLETE.ordinal()] != null)
         log(Level.SEVERE, "Event::onComplete(" + typeName + ", " + AssembleUtil.getNameId(classLoader) + ", " + module + ", " + loaded + ")");
+
+      if (ruleCounters != null) {
+        final Discovery discovery = this.discovery.get();
+        if (discovery.startNanos != 0) {
+          final long nanos = System.nanoTime() - discovery.startNanos;
+          ruleCounters.nanos.addAndGet(nanos);
+          discovery.classLoaderCounters(classLoader).nanos.addAndGet(nanos);
+          discovery.startNanos = 0;
+        }
+
+        discovery.classLoader = null;
+        discovery.classLoaderCounters = null;
+      }
     }
   }
 }
\ No newline at end of file
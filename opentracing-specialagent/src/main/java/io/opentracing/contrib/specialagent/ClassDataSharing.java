@@ -0,0 +1,138 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Support for the training run of a Class Data Sharing (AppCDS) archive of the
+ * classes of the {@code SpecialAgent} and its plugins. When the
+ * {@link #DUMP_PROPERTY} system property is specified, all classes of the
+ * {@code SpecialAgent} JAR and of the extracted plugin JARs are loaded after
+ * the rules are loaded, so that the JVM records them in the class list that it
+ * writes with {@code -XX:DumpLoadedClassList}, from which the archive is then
+ * created with {@code -Xshare:dump}.
+ * <p>
+ * The classes of the {@code SpecialAgent} JAR are only shared if the JAR is
+ * on the boot class path when the JVM starts (i.e. with
+ * {@code -Xbootclasspath/a}), because the {@code Boot-Class-Path} of the agent
+ * manifest is appended after the archive has been mapped.
+ * <p>
+ * The JARs of the plugins must be extracted to the same paths in the training
+ * run and in subsequent runs, for the archived classes to be used. Therefore,
+ * the training run implies a persistent extraction directory (see
+ * {@link SpecialAgent#EXTRACT_DIR_PROPERTY}).
+ */
+final class ClassDataSharing {
+  private static final Logger logger = Logger.getLogger(ClassDataSharing.class);
+  static final String DUMP_PROPERTY = "sa.cds.dump";
+
+  /**
+   * @return Whether this is a training run of a Class Data Sharing archive.
+   */
+  static boolean isDump() {
+    final String dumpProperty = System.getProperty(DUMP_PROPERTY);
+    return dumpProperty != null && !"false".equals(dumpProperty);
+  }
+
+  /**
+   * Loads (without initializing) all classes in the specified JAR file with
+   * the specified class loader.
+   *
+   * @param file The JAR file.
+   * @param classLoader The class loader, or {@code null} for the bootstrap
+   *          class loader.
+   * @return The number of classes that were loaded.
+   * @throws IOException If an I/O error has occurred.
+   */
+  static int preload(final File file, final ClassLoader classLoader) throws IOException {
+    int count = 0;
+    try (final JarFile jarFile = new JarFile(file)) {
+      final Enumeration<JarEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        final String name = entries.nextElement().getName();
+        if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class") || name.endsWith("package-info.class"))
+          continue;
+
+        try {
+          Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false, classLoader);
+          ++count;
+        }
+        catch (final ClassNotFoundException | LinkageError e) {
+          // Classes with optional dependencies that are absent are skipped
+          if (logger.isLoggable(Level.FINEST))
+            logger.finest("CDS training run skipped " + name + " in " + file + ": " + e);
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Loads all classes of the {@code SpecialAgent} JAR and of the specified
+   * JAR files, and logs the JVM options with which the archive is to be used.
+   *
+   * @param jarToClassLoader The map of JAR files to the class loaders by which
+   *          their classes are to be loaded.
+   * @param extractDir The directory to which the JARs of the plugins were
+   *          extracted.
+   */
+  static void dump(final Map<File,ClassLoader> jarToClassLoader, final File extractDir) {
+    final Map<File,ClassLoader> jars = new LinkedHashMap<>();
+    final URL location = SpecialAgentUtil.getLocation(SpecialAgent.class);
+    if (location != null && "file".equals(location.getProtocol()) && location.getPath().endsWith(".jar"))
+      jars.put(new File(location.getPath()), SpecialAgent.class.getClassLoader());
+
+    jars.putAll(jarToClassLoader);
+    int count = 0;
+    for (final Map.Entry<File,ClassLoader> entry : jars.entrySet()) {
+      if (!entry.getKey().isFile())
+        continue;
+
+      try {
+        count += preload(entry.getKey(), entry.getValue());
+      }
+      catch (final IOException e) {
+        logger.log(Level.WARNING, "CDS training run was unable to read " + entry.getKey(), e);
+      }
+    }
+
+    logger.info("CDS training run loaded " + count + " classes from " + jars.size() + " JARs, which were extracted to " + extractDir);
+    boolean dumping = false;
+    for (final String arg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+      if (arg.startsWith("-XX:DumpLoadedClassList") || arg.startsWith("-XX:ArchiveClassesAtExit"))
+        dumping = true;
+
+    if (!dumping)
+      logger.warning("CDS training run was started without -XX:DumpLoadedClassList=<classlist>, so the loaded classes will not be recorded");
+
+    final String agentJar = location == null ? "<agent.jar>" : location.getPath();
+    logger.info("To create the archive: java -Xshare:dump -XX:SharedClassListFile=<classlist> -XX:SharedArchiveFile=<archive> -Xbootclasspath/a:" + agentJar + File.pathSeparator + agentJar + " -cp <classpath>");
+    logger.info("To use the archive: java -XX:SharedArchiveFile=<archive> -Xbootclasspath/a:" + agentJar + " -javaagent:" + agentJar + " -D" + SpecialAgent.EXTRACT_DIR_PROPERTY + "=" + extractDir.getParent() + " ...");
+  }
+
+  private ClassDataSharing() {
+  }
+}
@@ -0,0 +1,195 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * A {@link AgentBuilder.RawMatcher} that matches the types to be ignored by
+ * all {@code AgentRule}s, which is evaluated on the name of the type only, so
+ * that the matchers of the rules are not evaluated (and the type is not
+ * parsed) for classes that are of no interest to any rule.
+ * <p>
+ * The ignored types are specified as a list of package or class name
+ * prefixes, which are held in a prefix trie. A prefix that starts with
+ * {@code '!'} is an exception, which excludes the names that start with it
+ * from being ignored. The longest prefix that matches a name determines
+ * whether the name is ignored. In addition, classes that are generated at
+ * runtime (lambdas, and CGLIB, Javassist and {@code java.lang.reflect.Proxy}
+ * proxies) are always ignored.
+ */
+class IgnoredTypeMatcher implements AgentBuilder.RawMatcher {
+  static final String IGNORE_PROPERTY = "sa.ignore";
+
+  /**
+   * The default prefixes, which ignore the JDK and the SpecialAgent's own
+   * dependencies, with exceptions for the JDK types that are instrumented by
+   * {@link ClassLoaderAgentRule}, and the thread, concurrent and JDBC
+   * plugins.
+   */
+  static final String[] DEFAULTS = {
+    "java.",
+    "javax.accessibility.",
+    "javax.crypto.",
+    "javax.imageio.",
+    "javax.management.",
+    "javax.naming.",
+    "javax.net.",
+    "javax.script.",
+    "javax.security.",
+    "javax.sound.",
+    "javax.swing.",
+    "javax.xml.",
+    "jdk.",
+    "sun.",
+    "com.sun.",
+    "org.ietf.",
+    "org.omg.",
+    "org.w3c.",
+    "org.xml.",
+    "net.bytebuddy.",
+    "!java.lang.ClassLoader",
+    "!java.lang.Thread",
+    "!java.lang.VirtualThread",
+    "!java.net.URLClassLoader",
+    "!java.security.SecureClassLoader",
+    "!java.sql.",
+    "!java.util.concurrent.",
+    "!jdk.internal.loader.",
+    "!sun.misc.Launcher$"
+  };
+
+  private static final String[] GENERATED = {
+    "$$Lambda$",
+    "$$EnhancerBy",
+    "$$FastClassBy",
+    "$$_javassist",
+    "$HibernateProxy$"
+  };
+
+  private static final byte NONE = 0;
+  private static final byte IGNORE = 1;
+  private static final byte INCLUDE = 2;
+
+  private static final class Node {
+    private char[] chars = new char[0];
+    private Node[] nodes = new Node[0];
+    private byte state = NONE;
+
+    private Node get(final char ch) {
+      for (int i = 0; i < chars.length; ++i)
+        if (chars[i] == ch)
+          return nodes[i];
+
+      return null;
+    }
+
+    private Node add(final char ch) {
+      final Node node = get(ch);
+      if (node != null)
+        return node;
+
+      chars = Arrays.copyOf(chars, chars.length + 1);
+      nodes = Arrays.copyOf(nodes, nodes.length + 1);
+      chars[chars.length - 1] = ch;
+      return nodes[nodes.length - 1] = new Node();
+    }
+  }
+
+  /**
+   * Returns a new {@code IgnoredTypeMatcher} with the {@link #DEFAULTS}, and
+   * the comma-delimited prefixes in the {@link #IGNORE_PROPERTY} system
+   * property.
+   *
+   * @return A new {@code IgnoredTypeMatcher} with the {@link #DEFAULTS}, and
+   *         the comma-delimited prefixes in the {@link #IGNORE_PROPERTY}
+   *         system property.
+   */
+  static IgnoredTypeMatcher fromSystemProperties() {
+    final IgnoredTypeMatcher matcher = new IgnoredTypeMatcher(DEFAULTS);
+    final String property = System.getProperty(IGNORE_PROPERTY);
+    if (property != null)
+      for (final String prefix : property.split(","))
+        matcher.add(prefix.trim());
+
+    return matcher;
+  }
+
+  private final Node root = new Node();
+
+  /**
+   * Creates a new {@code IgnoredTypeMatcher} with the specified prefixes.
+   *
+   * @param prefixes The prefixes of the names of the types to be ignored, or
+   *          (if starting with {@code '!'}) not to be ignored.
+   */
+  IgnoredTypeMatcher(final String ... prefixes) {
+    for (final String prefix : prefixes)
+      add(prefix);
+  }
+
+  private void add(final String prefix) {
+    final boolean include = prefix.startsWith("!");
+    final int start = include ? 1 : 0;
+    if (prefix.length() == start)
+      return;
+
+    Node node = root;
+    for (int i = start; i < prefix.length(); ++i)
+      node = node.add(prefix.charAt(i));
+
+    node.state = include ? INCLUDE : IGNORE;
+  }
+
+  private static boolean isGenerated(final String name) {
+    if (name.indexOf('$') == -1)
+      return false;
+
+    for (final String marker : GENERATED)
+      if (name.contains(marker))
+        return true;
+
+    // Proxies of non-public interfaces are defined in the interface's package
+    final int index = name.lastIndexOf('.') + 7;
+    return name.length() > index && name.startsWith("$Proxy", index - 6) && Character.isDigit(name.charAt(index));
+  }
+
+  /**
+   * Returns whether the type by the specified name is to be ignored.
+   *
+   * @param name The name of the type.
+   * @return Whether the type by the specified name is to be ignored.
+   */
+  boolean isIgnored(final String name) {
+    byte state = NONE;
+    Node node = root;
+    for (int i = 0; i < name.length() && (node = node.get(name.charAt(i))) != null; ++i)
+      if (node.state != NONE)
+        state = node.state;
+
+    return state == IGNORE || isGenerated(name);
+  }
+
+  @Override
+  public boolean matches(final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain) {
+    return isIgnored(typeDescription.getName());
+  }
+}
@@ -0,0 +1,134 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType.Builder;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * The {@link DynamicAdvice} of a set of {@link AgentRule}s, merged into a
+ * single {@link AgentBuilder.RawMatcher} and {@link AgentBuilder.Transformer}.
+ * The type matcher matches the union of the types of all advice, and the
+ * transformer chains the visitors of all advice that match a type, so that
+ * the class file of the type is parsed and written only once, regardless of
+ * the number of rules that advise it.
+ * <p>
+ * The plugin of each advice is linked via
+ * {@link SpecialAgent#linkRule(int,ClassLoader)} when the advice is applied.
+ * Advice of a plugin that is incompatible with the class loader of a type is
+ * skipped, while the advice of the other plugins is still applied.
+ */
+final class MergedAdvice implements AgentBuilder.RawMatcher, AgentBuilder.Transformer {
+  private static final Logger logger = Logger.getLogger(MergedAdvice.class);
+
+  private static final class Entry {
+    private final int index;
+    private final DynamicAdvice advice;
+    private final AgentBuilder.RawMatcher wovenMatcher;
+    private final AsmVisitorWrapper visitor;
+
+    private Entry(final int index, final DynamicAdvice advice, final AgentBuilder.RawMatcher wovenMatcher) {
+      this.index = index;
+      this.advice = advice;
+      this.wovenMatcher = wovenMatcher;
+      this.visitor = Advice.to(advice.getAdvice()).on(advice.getMethodMatcher());
+    }
+
+    private boolean matches(final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain) {
+      return advice.getTypeMatcher().matches(typeDescription) && (wovenMatcher == null || !wovenMatcher.matches(typeDescription, classLoader, module, classBeingRedefined, protectionDomain));
+    }
+  }
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  /**
+   * Adds the declarative advice of the specified rule.
+   *
+   * @param agentRule The rule.
+   * @param index The index of the plugin of the rule, to be linked via
+   *          {@link SpecialAgent#linkRule(int,ClassLoader)}, or {@code -1} if
+   *          no plugin is to be linked.
+   * @param wovenMatcher The matcher of the types that have already been woven
+   *          with the plugin, or {@code null}.
+   * @return {@code true} if the rule declares advice, otherwise
+   *         {@code false}.
+   */
+  boolean add(final AgentRule agentRule, final int index, final AgentBuilder.RawMatcher wovenMatcher) {
+    final DynamicAdvice[] advices = agentRule.advice();
+    if (advices == null || advices.length == 0)
+      return false;
+
+    for (final DynamicAdvice advice : advices)
+      entries.add(new Entry(index, advice, wovenMatcher));
+
+    return true;
+  }
+
+  /**
+   * @return Whether no advice has been added.
+   */
+  boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Returns an {@code AgentBuilder} that applies the merged advice.
+   *
+   * @param builder The {@code AgentBuilder} from which the returned
+   *          {@code AgentBuilder} is to be built.
+   * @return An {@code AgentBuilder} that applies the merged advice.
+   */
+  AgentBuilder apply(final AgentBuilder builder) {
+    return builder.type(this).transform(this);
+  }
+
+  @Override
+  public boolean matches(final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain) {
+    for (int i = 0, size = entries.size(); i < size; ++i)
+      if (entries.get(i).matches(typeDescription, classLoader, module, classBeingRedefined, protectionDomain))
+        return true;
+
+    return false;
+  }
+
+  @Override
+  public Builder<?> transform(Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
+    for (int i = 0, size = entries.size(); i < size; ++i) {
+      final Entry entry = entries.get(i);
+      if (!entry.matches(typeDescription, classLoader, module, null, null))
+        continue;
+
+      if (entry.index != -1 && !SpecialAgent.linkRule(entry.index, classLoader)) {
+        if (logger.isLoggable(Level.FINE))
+          logger.fine("Skipping " + entry.advice + " for " + typeDescription.getName() + " due to incompatibility");
+
+        continue;
+      }
+
+      builder = builder.visit(entry.visitor);
+    }
+
+    return builder;
+  }
+}
@@ -27,6 +27,7 @@ import io.opentracing.Tracer;
 import io.opentracing.Tracer.SpanBuilder;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.agent.builder.AgentBuilder.InitializationStrategy;
+import net.bytebuddy.agent.builder.AgentBuilder.LocationStrategy;
 import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
 import net.bytebuddy.agent.builder.AgentBuilder.Transformer;
 import net.bytebuddy.agent.builder.AgentBuilder.TypeStrategy;
@@ -48,6 +49,8 @@ public class MutexAgent {
       .with(RedefinitionStrategy.RETRANSFORMATION)
       .with(InitializationStrategy.NoOp.INSTANCE)
       .with(TypeStrategy.Default.REDEFINE)
+      .with(TypePoolCache.INSTANCE)
+      .with(LocationStrategy.ForClassLoader.WEAK)
       .type(isSubTypeOf(Tracer.class)
         .or(isSubTypeOf(Scope.class))
         .or(isSubTypeOf(ScopeManager.class))
@@ -0,0 +1,571 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.References;
+import io.opentracing.Tracer;
+import io.opentracing.noop.NoopTracerFactory;
+import io.opentracing.propagation.Format;
+import io.opentracing.tag.Tag;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+/**
+ * A lightweight {@code Tracer} that is registered with the
+ * {@code GlobalTracer} while the actual tracer is being resolved in the
+ * background. The spans that are started before the actual tracer is
+ * {@link #handOff(Tracer) handed off} are recorded, and up to a bounded number
+ * of finished spans are buffered. When the actual tracer is handed off, the
+ * buffered spans (and the spans that were started before, but finished
+ * after, the hand off) are replayed to the actual tracer with their original
+ * timestamps, tags, logs and references, and all subsequent calls are
+ * delegated to the actual tracer. Spans that exceed the bound of the buffer
+ * are dropped, and references to dropped spans are omitted when the spans that
+ * reference them are replayed.
+ * <p>
+ * Scopes that are activated before the hand off remain active after it: until
+ * the scopes of the placeholder are closed on a thread, the active span of the
+ * thread is resolved, and spans are activated, through the scope manager of
+ * the placeholder, and spans that are built on the thread implicitly
+ * reference its active span.
+ * <p>
+ * Contexts cannot be injected or extracted before the hand off: until then,
+ * {@link #inject(SpanContext,Format,Object)} does nothing, and
+ * {@link #extract(Format,Object)} returns {@code null}.
+ */
+final class PlaceholderTracer implements Tracer {
+  private static final Logger logger = Logger.getLogger(PlaceholderTracer.class);
+
+  private final ScopeManager scopeManager = new ThreadLocalScopeManager();
+  private final List<PlaceholderSpan> buffer = new ArrayList<>();
+  private final int capacity;
+  private volatile Tracer tracer;
+  private int dropped;
+
+  /**
+   * Creates a new {@code PlaceholderTracer} with the specified capacity of
+   * the buffer of finished spans.
+   *
+   * @param capacity The maximum number of finished spans to buffer until the
+   *          hand off. If {@code capacity} is {@code 0}, all spans that are
+   *          finished before the hand off are dropped.
+   */
+  PlaceholderTracer(final int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Hands off to the specified actual tracer, to which the buffered spans are
+   * replayed, and to which all subsequent calls are delegated.
+   *
+   * @param tracer The actual tracer, or {@code null} if the tracer could not
+   *          be resolved, in which case the buffered spans are dropped, and
+   *          all subsequent calls are delegated to a {@code NoopTracer}.
+   */
+  void handOff(final Tracer tracer) {
+    final List<PlaceholderSpan> spans;
+    final int dropped;
+    synchronized (buffer) {
+      spans = tracer == null ? Collections.<PlaceholderSpan>emptyList() : new ArrayList<>(buffer);
+      dropped = this.dropped + (tracer == null ? buffer.size() : 0);
+      buffer.clear();
+      this.tracer = tracer != null ? tracer : NoopTracerFactory.create();
+    }
+
+    for (final PlaceholderSpan span : spans)
+      span.replay(tracer);
+
+    if (logger.isLoggable(Level.FINE))
+      logger.fine("PlaceholderTracer handed off to " + this.tracer.getClass().getName() + ": " + spans.size() + " spans replayed, " + dropped + " spans dropped");
+  }
+
+  private void onFinish(final PlaceholderSpan span) {
+    final Tracer tracer;
+    synchronized (buffer) {
+      tracer = this.tracer;
+      if (tracer == null) {
+        if (buffer.size() < capacity) {
+          buffer.add(span);
+        }
+        else {
+          span.drop();
+          ++dropped;
+        }
+
+        return;
+      }
+    }
+
+    span.replay(tracer);
+  }
+
+  @Override
+  public ScopeManager scopeManager() {
+    final Tracer tracer = this.tracer;
+    return tracer != null && scopeManager.activeSpan() == null ? tracer.scopeManager() : scopeManager;
+  }
+
+  @Override
+  public Span activeSpan() {
+    final Span span = scopeManager.activeSpan();
+    if (span != null)
+      return span;
+
+    final Tracer tracer = this.tracer;
+    return tracer != null ? tracer.activeSpan() : null;
+  }
+
+  @Override
+  public Scope activateSpan(final Span span) {
+    final Tracer tracer = this.tracer;
+    return tracer != null && scopeManager.activeSpan() == null ? tracer.activateSpan(span) : scopeManager.activate(span);
+  }
+
+  @Override
+  public SpanBuilder buildSpan(final String operationName) {
+    final Tracer tracer = this.tracer;
+    if (tracer == null)
+      return new PlaceholderSpanBuilder(operationName);
+
+    final Span activeSpan = scopeManager.activeSpan();
+    return activeSpan == null ? tracer.buildSpan(operationName) : new HandOffSpanBuilder(tracer, tracer.buildSpan(operationName), activeSpan);
+  }
+
+  @Override
+  public <C>void inject(final SpanContext spanContext, final Format<C> format, final C carrier) {
+    final Tracer tracer = this.tracer;
+    if (tracer == null)
+      return;
+
+    final SpanContext context = resolve(tracer, spanContext);
+    if (context != null)
+      tracer.inject(context, format, carrier);
+  }
+
+  @Override
+  public <C>SpanContext extract(final Format<C> format, final C carrier) {
+    final Tracer tracer = this.tracer;
+    return tracer != null ? tracer.extract(format, carrier) : null;
+  }
+
+  @Override
+  public void close() {
+    final Tracer tracer = this.tracer;
+    if (tracer != null)
+      tracer.close();
+  }
+
+  /**
+   * Resolves the specified context to a context of the actual tracer.
+   *
+   * @param tracer The actual tracer.
+   * @param context The context.
+   * @return The context of the actual tracer, or {@code null} if the context
+   *         is of a span that was dropped before the hand off.
+   */
+  private static SpanContext resolve(final Tracer tracer, final SpanContext context) {
+    if (!(context instanceof PlaceholderSpan))
+      return context;
+
+    final Span span = ((PlaceholderSpan)context).materialize(tracer);
+    return span != null ? span.context() : null;
+  }
+
+  /**
+   * A {@code SpanBuilder} of the actual tracer for a thread on which a scope
+   * of the placeholder is still active after the hand off, which implicitly
+   * references the active span of the placeholder, and which resolves the
+   * references to spans that were recorded before the hand off.
+   */
+  private final class HandOffSpanBuilder implements SpanBuilder {
+    private final Tracer tracer;
+    private final SpanBuilder builder;
+    private final Span activeSpan;
+    private boolean explicit;
+
+    private HandOffSpanBuilder(final Tracer tracer, final SpanBuilder builder, final Span activeSpan) {
+      this.tracer = tracer;
+      this.builder = builder;
+      this.activeSpan = activeSpan;
+    }
+
+    @Override
+    public SpanBuilder asChildOf(final SpanContext parent) {
+      return addReference(References.CHILD_OF, parent);
+    }
+
+    @Override
+    public SpanBuilder asChildOf(final Span parent) {
+      return parent == null ? this : addReference(References.CHILD_OF, parent.context());
+    }
+
+    @Override
+    public SpanBuilder addReference(final String referenceType, final SpanContext referencedContext) {
+      if (referencedContext != null) {
+        explicit = true;
+        final SpanContext context = resolve(tracer, referencedContext);
+        if (context != null)
+          builder.addReference(referenceType, context);
+      }
+
+      return this;
+    }
+
+    @Override
+    public SpanBuilder ignoreActiveSpan() {
+      explicit = true;
+      builder.ignoreActiveSpan();
+      return this;
+    }
+
+    @Override
+    public SpanBuilder withTag(final String key, final String value) {
+      builder.withTag(key, value);
+      return this;
+    }
+
+    @Override
+    public SpanBuilder withTag(final String key, final boolean value) {
+      builder.withTag(key, value);
+      return this;
+    }
+
+    @Override
+    public SpanBuilder withTag(final String key, final Number value) {
+      builder.withTag(key, value);
+      return this;
+    }
+
+    @Override
+    public <T>SpanBuilder withTag(final Tag<T> tag, final T value) {
+      builder.withTag(tag, value);
+      return this;
+    }
+
+    @Override
+    public SpanBuilder withStartTimestamp(final long microseconds) {
+      builder.withStartTimestamp(microseconds);
+      return this;
+    }
+
+    @Override
+    public Span start() {
+      if (!explicit) {
+        final SpanContext context = resolve(tracer, activeSpan.context());
+        if (context != null)
+          builder.asChildOf(context);
+      }
+
+      return builder.start();
+    }
+
+    @Override
+    @Deprecated
+    public Span startManual() {
+      return start();
+    }
+
+    @Override
+    @Deprecated
+    public Scope startActive(final boolean finishSpanOnClose) {
+      return scopeManager().activate(start(), finishSpanOnClose);
+    }
+  }
+
+  private final class PlaceholderSpanBuilder implements SpanBuilder {
+    private final String operationName;
+    private final Map<String,Object> tags = new LinkedHashMap<>();
+    private final List<Object[]> references = new ArrayList<>(1);
+    private boolean ignoreActiveSpan;
+    private long startMicros;
+
+    private PlaceholderSpanBuilder(final String operationName) {
+      this.operationName = operationName;
+    }
+
+    @Override
+    public SpanBuilder asChildOf(final SpanContext parent) {
+      return addReference(References.CHILD_OF, parent);
+    }
+
+    @Override
+    public SpanBuilder asChildOf(final Span parent) {
+      return parent == null ? this : addReference(References.CHILD_OF, parent.context());
+    }
+
+    @Override
+    public SpanBuilder addReference(final String referenceType, final SpanContext referencedContext) {
+      if (referencedContext != null)
+        references.add(new Object[] {referenceType, referencedContext});
+
+      return this;
+    }
+
+    @Override
+    public SpanBuilder ignoreActiveSpan() {
+      ignoreActiveSpan = true;
+      return this;
+    }
+
+    @Override
+    public SpanBuilder withTag(final String key, final String value) {
+      tags.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SpanBuilder withTag(final String key, final boolean value) {
+      tags.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SpanBuilder withTag(final String key, final Number value) {
+      tags.put(key, value);
+      return this;
+    }
+
+    @Override
+    public <T>SpanBuilder withTag(final Tag<T> tag, final T value) {
+      tags.put(tag.getKey(), value);
+      return this;
+    }
+
+    @Override
+    public SpanBuilder withStartTimestamp(final long microseconds) {
+      startMicros = microseconds;
+      return this;
+    }
+
+    @Override
+    public Span start() {
+      if (!ignoreActiveSpan && references.isEmpty()) {
+        final Span activeSpan = scopeManager.activeSpan();
+        if (activeSpan != null)
+          references.add(new Object[] {References.CHILD_OF, activeSpan.context()});
+      }
+
+      return new PlaceholderSpan(operationName, startMicros != 0 ? startMicros : System.currentTimeMillis() * 1000, tags, references);
+    }
+
+    @Override
+    @Deprecated
+    public Span startManual() {
+      return start();
+    }
+
+    @Override
+    @Deprecated
+    public Scope startActive(final boolean finishSpanOnClose) {
+      return scopeManager().activate(start(), finishSpanOnClose);
+    }
+  }
+
+  /**
+   * A span that is recorded before the hand off, which is its own
+   * {@code SpanContext}.
+   */
+  private final class PlaceholderSpan implements Span, SpanContext {
+    private final long startMicros;
+    private final Map<String,Object> tags;
+    private final List<Object[]> references;
+    private final List<Object[]> logs = new ArrayList<>();
+    private final Map<String,String> baggage = new HashMap<>();
+    private String operationName;
+    private long finishMicros;
+    private boolean dropped;
+    private Span span;
+
+    private PlaceholderSpan(final String operationName, final long startMicros, final Map<String,Object> tags, final List<Object[]> references) {
+      this.operationName = operationName;
+      this.startMicros = startMicros;
+      this.tags = tags;
+      this.references = references;
+      for (final Object[] reference : references)
+        for (final Map.Entry<String,String> entry : ((SpanContext)reference[1]).baggageItems())
+          baggage.put(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Marks this span as dropped, so that it is not started in the actual
+     * tracer by the spans that reference it.
+     */
+    private synchronized void drop() {
+      dropped = true;
+    }
+
+    /**
+     * Returns the span of the actual tracer that corresponds to this span,
+     * which is started (with the spans it references) upon the first call of
+     * this method.
+     *
+     * @param tracer The actual tracer.
+     * @return The span of the actual tracer that corresponds to this span, or
+     *         {@code null} if this span was dropped.
+     */
+    private synchronized Span materialize(final Tracer tracer) {
+      if (span != null || dropped)
+        return span;
+
+      final SpanBuilder builder = tracer.buildSpan(operationName).withStartTimestamp(startMicros).ignoreActiveSpan();
+      for (final Object[] reference : references) {
+        final SpanContext context = resolve(tracer, (SpanContext)reference[1]);
+        if (context != null)
+          builder.addReference((String)reference[0], context);
+      }
+
+      span = builder.start();
+      for (final Map.Entry<String,String> entry : baggage.entrySet())
+        span.setBaggageItem(entry.getKey(), entry.getValue());
+
+      return span;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void replay(final Tracer tracer) {
+      final Span span = materialize(tracer);
+      span.setOperationName(operationName);
+      for (final Map.Entry<String,Object> entry : tags.entrySet()) {
+        final Object value = entry.getValue();
+        if (value instanceof Boolean)
+          span.setTag(entry.getKey(), (Boolean)value);
+        else if (value instanceof Number)
+          span.setTag(entry.getKey(), (Number)value);
+        else
+          span.setTag(entry.getKey(), String.valueOf(value));
+      }
+
+      for (final Object[] log : logs) {
+        if (log[1] instanceof String)
+          span.log((Long)log[0], (String)log[1]);
+        else
+          span.log((Long)log[0], (Map<String,?>)log[1]);
+      }
+
+      span.finish(finishMicros);
+    }
+
+    @Override
+    public SpanContext context() {
+      return this;
+    }
+
+    @Override
+    public synchronized Span setTag(final String key, final String value) {
+      tags.put(key, value);
+      return this;
+    }
+
+    @Override
+    public synchronized Span setTag(final String key, final boolean value) {
+      tags.put(key, value);
+      return this;
+    }
+
+    @Override
+    public synchronized Span setTag(final String key, final Number value) {
+      tags.put(key, value);
+      return this;
+    }
+
+    @Override
+    public synchronized <T>Span setTag(final Tag<T> tag, final T value) {
+      tags.put(tag.getKey(), value);
+      return this;
+    }
+
+    @Override
+    public Span log(final Map<String,?> fields) {
+      return log(System.currentTimeMillis() * 1000, fields);
+    }
+
+    @Override
+    public synchronized Span log(final long timestampMicroseconds, final Map<String,?> fields) {
+      logs.add(new Object[] {timestampMicroseconds, new LinkedHashMap<>(fields)});
+      return this;
+    }
+
+    @Override
+    public Span log(final String event) {
+      return log(System.currentTimeMillis() * 1000, event);
+    }
+
+    @Override
+    public synchronized Span log(final long timestampMicroseconds, final String event) {
+      logs.add(new Object[] {timestampMicroseconds, event});
+      return this;
+    }
+
+    @Override
+    public synchronized Span setBaggageItem(final String key, final String value) {
+      baggage.put(key, value);
+      return this;
+    }
+
+    @Override
+    public synchronized String getBaggageItem(final String key) {
+      return baggage.get(key);
+    }
+
+    @Override
+    public synchronized Span setOperationName(final String operationName) {
+      this.operationName = operationName;
+      return this;
+    }
+
+    @Override
+    public void finish() {
+      finish(System.currentTimeMillis() * 1000);
+    }
+
+    @Override
+    public void finish(final long finishMicros) {
+      synchronized (this) {
+        if (this.finishMicros != 0)
+          return;
+
+        this.finishMicros = finishMicros;
+      }
+
+      onFinish(this);
+    }
+
+    @Override
+    public String toTraceId() {
+      return "";
+    }
+
+    @Override
+    public String toSpanId() {
+      return "";
+    }
+
+    @Override
+    public synchronized Iterable<Map.Entry<String,String>> baggageItems() {
+      return new HashMap<>(baggage).entrySet();
+    }
+  }
+}
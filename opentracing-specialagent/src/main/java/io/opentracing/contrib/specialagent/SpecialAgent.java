@@ -18,22 +18,26 @@ package io.opentracing.contrib.specialagent;
 import java.io.File;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.jar.JarFile;
 
 import com.sun.tools.attach.VirtualMachine;
@@ -74,9 +78,13 @@ public class SpecialAgent extends SpecialAgentBase {
     }
   }
 
-  private static final Map<File,PluginManifest> fileToPluginManifest = new HashMap<>();
+  private static final Map<File,PluginManifest> fileToPluginManifest = new LinkedHashMap<>();
   private static final ClassLoaderMap<Map<Integer,Boolean>> classLoaderToCompatibility = new ClassLoaderMap<>();
   private static final ClassLoaderMap<List<RuleClassLoader>> classLoaderToRuleClassLoader = new ClassLoaderMap<>();
+  private static final String PARALLELISM_PROPERTY = "sa.init.parallelism";
+  static final String EXTRACT_DIR_PROPERTY = "sa.extract.dir";
+  private static final String TRACER_ASYNC_PROPERTY = "sa.tracer.async";
+  private static final String TRACER_ASYNC_BUFFER_PROPERTY = "sa.tracer.async.buffer";
   private static final String DEFINE_CLASS = ClassLoader.class.getName() + ".defineClass";
   private static final Map<File,File[]> pluginFileToDependencies = new HashMap<>();
 
@@ -116,21 +124,28 @@ public class SpecialAgent extends SpecialAgentBase {
    * @param inst The {@code Instrumentation}.
    */
   public static void premain(final String agentArgs, final Instrumentation inst) {
+    final StartupProfiler.Phase premain = StartupProfiler.start("premain");
+    boolean deferred = false;
     try {
+      StartupProfiler.Phase phase = StartupProfiler.start("absorbProperties");
       if (agentArgs != null)
         AssembleUtil.absorbProperties(agentArgs);
 
       loadProperties();
+      StartupProfiler.stop(phase);
 
       final String loggingConfigClass = System.clearProperty(loggingConfigClassProperty);
 
       try {
+        phase = StartupProfiler.start("BootLoaderAgent.premain");
         BootLoaderAgent.premain(inst);
+        StartupProfiler.stop(phase);
         SpecialAgent.inst = inst;
 
         final String spring = System.getProperty("sa.spring");
         if (spring != null && !"false".equals(spring)) {
-          SpringAgent.premain(inst, new Thread() {
+          deferred = true;
+          SpringAgent.premain(inst, new Thread("SpecialAgent-Spring") {
             @Override
             public void run() {
               try {
@@ -154,6 +169,11 @@ public class SpecialAgent extends SpecialAgentBase {
     catch (final Throwable t) {
       logger.log(Level.SEVERE, "Terminating SpecialAgent due to:", t);
     }
+    finally {
+      StartupProfiler.stop(premain);
+      if (!deferred)
+        StartupProfiler.report();
+    }
   }
 
   /**
@@ -176,6 +196,7 @@ public class SpecialAgent extends SpecialAgentBase {
    * @param manager The {@link Manager} instance to be used for initialization.
    */
   static void initialize(final Manager manager) {
+    final StartupProfiler.Phase initialize = StartupProfiler.start("initialize");
     if (logger.isLoggable(Level.FINEST))
       logger.finest("Agent#initialize() java.class.path:\n  " + System.getProperty("java.class.path").replace(File.pathSeparator, "\n  "));
 
@@ -221,13 +242,17 @@ public class SpecialAgent extends SpecialAgentBase {
     if (logger.isLoggable(Level.FINER))
       logger.finer("Tracer Plugins are " + (allTracerEnabled ? "en" : "dis") + "abled by default");
 
+    final File extractDir = getExtractDir();
     final Supplier<File> destDir = new Supplier<File>() {
-      private File destDir = null;
+      private File destDir = extractDir;
 
       @Override
       public File get() {
         try {
-          return destDir == null ? destDir = Files.createTempDirectory("opentracing-specialagent").toFile() : destDir;
+          if (destDir != null)
+            return destDir.isDirectory() || destDir.mkdirs() ? destDir : null;
+
+          return destDir = Files.createTempDirectory("opentracing-specialagent").toFile();
         }
         catch (final IOException e) {
           throw new IllegalStateException(e);
@@ -235,30 +260,41 @@ public class SpecialAgent extends SpecialAgentBase {
       }
     };
 
-    final List<URL> isoUrls = new ArrayList<>();
+    // Extract the JARs, read the plugin manifests, and read the dependencies
+    // in parallel, joining before the rules are loaded
+    final ExecutorService executor = newExecutor();
+    final int count;
+    StartupProfiler.Phase phase;
+    try {
+      phase = StartupProfiler.start("extractIsoJars");
 
-    // Process the ext JARs from AssembleUtil#META_INF_EXT_PATH
-    SpecialAgentUtil.findJarResources(UtilConstants.META_INF_ISO_PATH, destDir, new Predicate<File>() {
-      @Override
-      public boolean test(final File file) {
-        try {
-          isoUrls.add(new URL("file", "", file.getAbsolutePath()));
-          return true;
-        }
-        catch (final MalformedURLException e) {
-          throw new IllegalStateException(e);
-        }
+      // Process the ext JARs from AssembleUtil#META_INF_EXT_PATH
+      final List<File> isoFiles = SpecialAgentUtil.findJarResources(UtilConstants.META_INF_ISO_PATH, destDir, extractDir != null, executor);
+      final URL[] isoUrls = new URL[isoFiles.size()];
+      try {
+        for (int i = 0; i < isoUrls.length; ++i)
+          isoUrls[i] = new URL("file", "", isoFiles.get(i).getAbsolutePath());
+      }
+      catch (final MalformedURLException e) {
+        throw new IllegalStateException(e);
       }
-    });
 
-    isoClassLoader = new IsoClassLoader(isoUrls.toArray(new URL[isoUrls.size()]));
+      isoClassLoader = new IsoClassLoader(isoUrls);
+      StartupProfiler.stop(phase);
 
-    // Process the plugin JARs from AssembleUtil#META_INF_PLUGIN_PATH
-    SpecialAgentUtil.findJarResources(UtilConstants.META_INF_PLUGIN_PATH, destDir, new Predicate<File>() {
-      @Override
-      public boolean test(final File t) {
-        // Then, identify whether the JAR is an Instrumentation or Tracer Plugin
-        final PluginManifest pluginManifest = PluginManifest.getPluginManifest(t);
+      phase = StartupProfiler.start("extractPluginJars");
+
+      // Process the plugin JARs from AssembleUtil#META_INF_PLUGIN_PATH
+      final List<File> extractedFiles = SpecialAgentUtil.findJarResources(UtilConstants.META_INF_PLUGIN_PATH, destDir, extractDir != null, executor);
+      StartupProfiler.stop(phase);
+
+      phase = StartupProfiler.start("discoverPluginManifests");
+
+      // Then, identify whether each JAR is an Instrumentation or Tracer Plugin
+      final List<PluginManifest> extractedManifests = getPluginManifests(extractedFiles, executor);
+      for (int i = 0; i < extractedFiles.size(); ++i) {
+        final File file = extractedFiles.get(i);
+        final PluginManifest pluginManifest = extractedManifests.get(i);
         boolean enablePlugin = true;
         if (pluginManifest != null) {
           final boolean isInstruPlugin = pluginManifest.type == PluginManifest.Type.INSTRUMENTATION;
@@ -277,52 +313,105 @@ public class SpecialAgent extends SpecialAgentBase {
           }
         }
 
-        if (!enablePlugin)
-          return false;
-
-        fileToPluginManifest.put(t, pluginManifest);
-        return true;
+        if (enablePlugin)
+          fileToPluginManifest.put(file, pluginManifest);
+        else if (extractDir == null)
+          file.delete();
       }
-    });
 
-    if (fileToPluginManifest.size() == 0 && logger.isLoggable(Level.FINER))
-      logger.finer("Must be running from a test, because no JARs were found under " + UtilConstants.META_INF_PLUGIN_PATH);
+      if (fileToPluginManifest.size() == 0 && logger.isLoggable(Level.FINER))
+        logger.finer("Must be running from a test, because no JARs were found under " + UtilConstants.META_INF_PLUGIN_PATH);
 
-    try {
-      // Add instrumentation rule JARs from system class loader
-      final Enumeration<URL> instrumentationRules = manager.getResources();
-      while (instrumentationRules.hasMoreElements()) {
-        final File pluginFile = SpecialAgentUtil.getSourceLocation(instrumentationRules.nextElement(), manager.file);
-        fileToPluginManifest.put(pluginFile, PluginManifest.getPluginManifest(pluginFile));
+      final List<File> pluginFiles = new ArrayList<>();
+      try {
+        // Add instrumentation rule JARs from system class loader
+        final Enumeration<URL> instrumentationRules = manager.getResources();
+        while (instrumentationRules.hasMoreElements())
+          pluginFiles.add(SpecialAgentUtil.getSourceLocation(instrumentationRules.nextElement(), manager.file));
       }
-    }
-    catch (final IOException e) {
-      throw new IllegalStateException(e);
-    }
-
-    // Add plugins specified on in the RULE_PATH_ARG
-    final File[] pluginFiles = SpecialAgentUtil.classPathToFiles(System.getProperty(RULE_PATH_ARG));
-    if (pluginFiles != null) {
-      for (final File pluginFile : pluginFiles) {
-        PluginManifest pluginManifest = fileToPluginManifest.get(pluginFile);
-        if (pluginManifest == null)
-          fileToPluginManifest.put(pluginFile, pluginManifest = PluginManifest.getPluginManifest(pluginFile));
+      catch (final IOException e) {
+        throw new IllegalStateException(e);
       }
-    }
 
-    if (logger.isLoggable(Level.FINER))
-      logger.finer("Loading " + fileToPluginManifest.size() + " rule paths:\n" + AssembleUtil.toIndentedString(fileToPluginManifest.keySet()));
+      // Add plugins specified on in the RULE_PATH_ARG
+      final int rulePathIndex = pluginFiles.size();
+      final File[] rulePathFiles = SpecialAgentUtil.classPathToFiles(System.getProperty(RULE_PATH_ARG));
+      if (rulePathFiles != null)
+        pluginFiles.addAll(Arrays.asList(rulePathFiles));
 
-    pluginsClassLoader = new PluginsClassLoader(fileToPluginManifest.keySet());
+      final List<PluginManifest> pluginManifests = getPluginManifests(pluginFiles, executor);
+      for (int i = 0; i < pluginFiles.size(); ++i)
+        if (i < rulePathIndex || fileToPluginManifest.get(pluginFiles.get(i)) == null)
+          fileToPluginManifest.put(pluginFiles.get(i), pluginManifests.get(i));
+
+      StartupProfiler.stop(phase);
+      if (logger.isLoggable(Level.FINER))
+        logger.finer("Loading " + fileToPluginManifest.size() + " rule paths:\n" + AssembleUtil.toIndentedString(fileToPluginManifest.keySet()));
+
+      pluginsClassLoader = new PluginsClassLoader(fileToPluginManifest.keySet());
+
+      phase = StartupProfiler.start("loadDependencies");
+      final Map<String,String> nameToVersion = new HashMap<>();
+      count = loadDependencies(pluginsClassLoader, nameToVersion, executor) + loadDependencies(ClassLoader.getSystemClassLoader(), nameToVersion, executor);
+      StartupProfiler.stop(phase);
+    }
+    finally {
+      if (executor != null)
+        executor.shutdown();
+    }
 
-    final Map<String,String> nameToVersion = new HashMap<>();
-    final int count = loadDependencies(pluginsClassLoader, nameToVersion) + loadDependencies(ClassLoader.getSystemClassLoader(), nameToVersion);
     if (count == 0)
       logger.log(Level.SEVERE, "Could not find " + DEPENDENCIES_TGF + " in any rule JARs");
 
+    phase = StartupProfiler.start("loadTracer");
     deferredTracer = loadTracer();
+    StartupProfiler.stop(phase);
 
+    phase = StartupProfiler.start("loadRules");
     loadRules(manager);
+    StartupProfiler.stop(phase);
+    StartupProfiler.stop(initialize);
+
+    if (extractDir != null && ClassDataSharing.isDump()) {
+      final Map<File,ClassLoader> jarToClassLoader = new LinkedHashMap<>();
+      for (final URL isoUrl : isoClassLoader.getURLs())
+        jarToClassLoader.put(new File(isoUrl.getPath()), isoClassLoader);
+
+      for (final File pluginFile : fileToPluginManifest.keySet())
+        jarToClassLoader.put(pluginFile, pluginsClassLoader);
+
+      ClassDataSharing.dump(jarToClassLoader, extractDir);
+    }
+  }
+
+  /**
+   * Returns the persistent directory to which the JARs of the plugins are to
+   * be extracted, as specified by the {@link #EXTRACT_DIR_PROPERTY} system
+   * property (or {@code ${java.io.tmpdir}/opentracing-specialagent} for a
+   * {@link ClassDataSharing} training run). The JARs are extracted to a
+   * subdirectory that is specific to the {@code SpecialAgent} JAR, so that
+   * their paths are stable across runs of the same {@code SpecialAgent}.
+   *
+   * @return The persistent directory to which the JARs of the plugins are to
+   *         be extracted, or {@code null} if the JARs are to be extracted to
+   *         a temporary directory that is deleted on exit.
+   */
+  private static File getExtractDir() {
+    String extractDirProperty = System.getProperty(EXTRACT_DIR_PROPERTY);
+    if (extractDirProperty == null) {
+      if (!ClassDataSharing.isDump())
+        return null;
+
+      extractDirProperty = new File(System.getProperty("java.io.tmpdir"), "opentracing-specialagent").getPath();
+    }
+
+    final URL location = SpecialAgentUtil.getLocation(SpecialAgent.class);
+    if (location == null || !"file".equals(location.getProtocol()))
+      return new File(extractDirProperty);
+
+    final File agentJar = new File(location.getPath());
+    final String name = agentJar.getName().endsWith(".jar") ? agentJar.getName().substring(0, agentJar.getName().length() - 4) : agentJar.getName();
+    return new File(extractDirProperty, name + "-" + Long.toHexString(agentJar.length() * 31 + agentJar.lastModified()));
   }
 
   /**
@@ -363,19 +452,85 @@ public class SpecialAgent extends SpecialAgentBase {
     }
   }
 
+  /**
+   * A dependencies.tgf file, and the rule JARs it references.
+   */
+  private static final class DependenciesTgf {
+    private final URL url;
+    private final File jarFile;
+    private final String version;
+    private final File[] dependencyFiles;
+
+    private DependenciesTgf(final URL url) throws IOException {
+      this.url = url;
+      this.jarFile = SpecialAgentUtil.getSourceLocation(url, DEPENDENCIES_TGF);
+
+      final String dependenciesTgf = new String(AssembleUtil.readBytes(url));
+      final String firstLine = dependenciesTgf.substring(0, dependenciesTgf.indexOf('\n'));
+      this.version = firstLine.substring(firstLine.lastIndexOf(':') + 1);
+
+      this.dependencyFiles = MavenUtil.filterRuleURLs(pluginsClassLoader.getFiles(), dependenciesTgf, false, "compile");
+      if (logger.isLoggable(Level.FINEST))
+        logger.finest("  URLs from " + DEPENDENCIES_TGF + ": " + AssembleUtil.toIndentedString(dependencyFiles));
+    }
+  }
+
+  /**
+   * Returns the {@link PluginManifest}s of the specified files, which are read
+   * in parallel with the specified {@code ExecutorService}.
+   *
+   * @param files The files.
+   * @param executor The {@code ExecutorService}, or {@code null} to read the
+   *          manifests sequentially.
+   * @return The {@link PluginManifest}s of the specified files, in the order
+   *         of the files.
+   */
+  private static List<PluginManifest> getPluginManifests(final List<File> files, final ExecutorService executor) {
+    final List<Callable<PluginManifest>> tasks = new ArrayList<>(files.size());
+    for (final File file : files) {
+      tasks.add(new Callable<PluginManifest>() {
+        @Override
+        public PluginManifest call() {
+          return PluginManifest.getPluginManifest(file);
+        }
+      });
+    }
+
+    return SpecialAgentUtil.invokeAll(executor, tasks);
+  }
+
+  /**
+   * Returns a new {@code ExecutorService} with the parallelism specified by
+   * the {@link #PARALLELISM_PROPERTY} system property (default: the number of
+   * available processors, up to 4).
+   *
+   * @return A new {@code ExecutorService}, or {@code null} if the parallelism
+   *         is 1 or less.
+   */
+  private static ExecutorService newExecutor() {
+    final String property = System.getProperty(PARALLELISM_PROPERTY);
+    final int parallelism = property != null ? Integer.parseInt(property) : Math.min(4, Runtime.getRuntime().availableProcessors());
+    return parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+  }
+
   /**
    * Loads all dependencies.tgf files, and cross-links the dependency references
-   * with the matching rule JARs.
+   * with the matching rule JARs. The dependencies.tgf files are read and
+   * matched in parallel, and are cross-linked in the order in which they are
+   * found.
    *
    * @param classLoader The {@code ClassLoader} in which to search for
    *          dependencies.tgf files.
+   * @param executor The {@code ExecutorService}, or {@code null} to read the
+   *          dependencies.tgf files sequentially.
    * @return The number of dependencies.tgf files that were loaded.
    */
-  private static int loadDependencies(final ClassLoader classLoader, final Map<String,String> nameToVersion) {
+  private static int loadDependencies(final ClassLoader classLoader, final Map<String,String> nameToVersion, final ExecutorService executor) {
     int count = 0;
     try {
       final Enumeration<URL> enumeration = classLoader.getResources(DEPENDENCIES_TGF);
       final Set<String> urls = new HashSet<>();
+      final List<Callable<DependenciesTgf>> tasks = new ArrayList<>();
       while (enumeration.hasMoreElements()) {
         final URL url = enumeration.nextElement();
         if (urls.contains(url.toString()))
@@ -385,11 +540,18 @@ public class SpecialAgent extends SpecialAgentBase {
         if (logger.isLoggable(Level.FINEST))
           logger.finest("Found " + DEPENDENCIES_TGF + ": <" + AssembleUtil.getNameId(url) + ">" + url);
 
-        final File jarFile = SpecialAgentUtil.getSourceLocation(url, DEPENDENCIES_TGF);
+        tasks.add(new Callable<DependenciesTgf>() {
+          @Override
+          public DependenciesTgf call() throws IOException {
+            return new DependenciesTgf(url);
+          }
+        });
+      }
 
-        final String dependenciesTgf = new String(AssembleUtil.readBytes(url));
-        final String firstLine = dependenciesTgf.substring(0, dependenciesTgf.indexOf('\n'));
-        final String version = firstLine.substring(firstLine.lastIndexOf(':') + 1);
+      for (final DependenciesTgf dependenciesTgf : SpecialAgentUtil.invokeAll(executor, tasks)) {
+        final URL url = dependenciesTgf.url;
+        final File jarFile = dependenciesTgf.jarFile;
+        final String version = dependenciesTgf.version;
 
         final PluginManifest pluginManifest = fileToPluginManifest.get(jarFile);
         if (pluginManifest == null)
@@ -401,10 +563,7 @@ public class SpecialAgent extends SpecialAgentBase {
 
         nameToVersion.put(pluginManifest.name, version);
 
-        final File[] dependencyFiles = MavenUtil.filterRuleURLs(pluginsClassLoader.getFiles(), dependenciesTgf, false, "compile");
-        if (logger.isLoggable(Level.FINEST))
-          logger.finest("  URLs from " + DEPENDENCIES_TGF + ": " + AssembleUtil.toIndentedString(dependencyFiles));
-
+        final File[] dependencyFiles = dependenciesTgf.dependencyFiles;
         if (dependencyFiles == null)
           throw new UnsupportedOperationException("Unsupported " + DEPENDENCIES_TGF + " encountered: " + url + "\nPlease file an issue on https://github.com/opentracing-contrib/java-specialagent/");
 
@@ -550,12 +709,16 @@ public class SpecialAgent extends SpecialAgentBase {
             throw new IllegalStateException(TRACER_PROPERTY + "=" + tracerProperty + " did not resolve to a tracer JAR or name");
           }
 
-          final Class<?> tracerResolverClass = Class.forName("io.opentracing.contrib.tracerresolver.TracerResolver", true, AgentRuleUtil.tracerClassLoader);
-          final Method resolveTracerMethod = tracerResolverClass.getMethod("resolveTracer");
-          tracer = (Tracer)resolveTracerMethod.invoke(null);
           Thread.currentThread().setContextClassLoader(contextClassLoader);
+          final String asyncProperty = System.getProperty(TRACER_ASYNC_PROPERTY);
+          if (asyncProperty != null && !"false".equals(asyncProperty) && !isAgentRunner()) {
+            resolveTracerAsync();
+            return null;
+          }
+
+          tracer = resolveTracer();
         }
-        catch (final ClassNotFoundException | IllegalAccessException | InvocationTargetException | IOException | NoSuchMethodException e) {
+        catch (final IOException | ReflectiveOperationException e) {
           throw new IllegalStateException(e);
         }
       }
@@ -579,6 +742,66 @@ public class SpecialAgent extends SpecialAgentBase {
     }
   }
 
+  /**
+   * Resolves the tracer with the {@code TracerResolver} in
+   * {@link AgentRuleUtil#tracerClassLoader}.
+   *
+   * @return The resolved tracer, or {@code null} if a tracer was not resolved.
+   * @throws ReflectiveOperationException If the {@code TracerResolver} could
+   *           not be invoked.
+   */
+  private static Tracer resolveTracer() throws ReflectiveOperationException {
+    final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    Thread.currentThread().setContextClassLoader(AgentRuleUtil.tracerClassLoader);
+    try {
+      final Class<?> tracerResolverClass = Class.forName("io.opentracing.contrib.tracerresolver.TracerResolver", true, AgentRuleUtil.tracerClassLoader);
+      final Method resolveTracerMethod = tracerResolverClass.getMethod("resolveTracer");
+      return (Tracer)resolveTracerMethod.invoke(null);
+    }
+    finally {
+      Thread.currentThread().setContextClassLoader(contextClassLoader);
+    }
+  }
+
+  /**
+   * Registers a {@link PlaceholderTracer} with {@code GlobalTracer}, and
+   * resolves the tracer in a background thread, after which the
+   * {@link PlaceholderTracer} hands off to the resolved tracer. This allows
+   * the premain to proceed without waiting for the initialization of the
+   * tracer, which may be slow (i.e. connecting to a collector).
+   */
+  private static void resolveTracerAsync() {
+    final String bufferProperty = System.getProperty(TRACER_ASYNC_BUFFER_PROPERTY);
+    final PlaceholderTracer placeholderTracer = new PlaceholderTracer(bufferProperty != null ? Integer.parseInt(bufferProperty) : 1000);
+    if (!GlobalTracer.registerIfAbsent(placeholderTracer))
+      throw new IllegalStateException("There is already a registered global Tracer.");
+
+    final Thread thread = new Thread("SpecialAgent-TracerResolver") {
+      @Override
+      public void run() {
+        Tracer tracer = null;
+        try {
+          tracer = resolveTracer();
+          if (tracer == null)
+            logger.warning("Tracer was NOT RESOLVED");
+          else if (logger.isLoggable(Level.FINE))
+            logger.fine("Tracer was resolved asynchronously and handed off by PlaceholderTracer:\n  " + tracer.getClass().getName());
+        }
+        catch (final Throwable t) {
+          logger.log(Level.SEVERE, "Failed to resolve tracer", t);
+        }
+        finally {
+          placeholderTracer.handOff(tracer);
+        }
+      }
+    };
+
+    thread.setDaemon(true);
+    thread.start();
+    if (logger.isLoggable(Level.FINE))
+      logger.fine("PlaceholderTracer was registered with GlobalTracer, and the tracer is being resolved asynchronously");
+  }
+
   @SuppressWarnings("resource")
   public static boolean linkRule(final int index, final ClassLoader classLoader) {
     Map<Integer,Boolean> indexToCompatibility = classLoaderToCompatibility.get(classLoader);
@@ -597,14 +820,17 @@ public class SpecialAgent extends SpecialAgentBase {
       compatible = indexToCompatibility.get(index);
     }
 
-    if (compatible != null && compatible) {
+    // A link is a hit if the compatibility of the rule is already resolved,
+    // whether or not the rule is compatible
+    AgentStatistics.onLinkRule(compatible != null);
+    if (compatible != null) {
       if (logger.isLoggable(Level.FINER)) {
         final File pluginFile = pluginsClassLoader.getFiles()[index];
         final PluginManifest pluginManifest = fileToPluginManifest.get(pluginFile);
         logger.finer("SpecialAgent#linkRule(\"" + pluginManifest.name + "\"[" + index + "], " + AssembleUtil.getNameId(classLoader) + "): compatible = " + compatible + " [cached]");
       }
 
-      return true;
+      return compatible;
     }
 
     // Find the Plugin File (identified by index passed to this method)
@@ -624,7 +850,10 @@ public class SpecialAgent extends SpecialAgentBase {
 
     // Create an isolated (no parent class loader) URLClassLoader with the pluginDependencyFiles
     final RuleClassLoader ruleClassLoader = new RuleClassLoader(pluginManifest, isoClassLoader, classLoader, pluginDependencyFiles);
+    AgentStatistics.onRuleClassLoader(ruleClassLoader);
+    final long startNanos = System.nanoTime();
     compatible = ruleClassLoader.isCompatible(classLoader);
+    AgentStatistics.onFingerprint(System.nanoTime() - startNanos);
     indexToCompatibility.put(index, compatible);
     if (!compatible) {
       try {
@@ -723,6 +952,7 @@ public class SpecialAgent extends SpecialAgentBase {
       if (logger.isLoggable(Level.FINEST))
         logger.finest(">>>>>>>> findClass(" + AssembleUtil.getNameId(classLoader) + ", \"" + name + "\"): Missing RuleClassLoader");
 
+      AgentStatistics.onFindClass(false);
       return null;
     }
 
@@ -739,6 +969,7 @@ public class SpecialAgent extends SpecialAgentBase {
         if (logger.isLoggable(Level.FINEST))
           logger.finest(">>>>>>>> findClass(" + AssembleUtil.getNameId(classLoader) + ", \"" + name + "\"): BYTECODE != null (" + (bytecode != null) + ")");
 
+        AgentStatistics.onFindClass(bytecode != null);
         return bytecode;
       }
     }
@@ -746,6 +977,7 @@ public class SpecialAgent extends SpecialAgentBase {
     if (logger.isLoggable(Level.FINEST))
       logger.finest(">>>>>>>> findClass(" + AssembleUtil.getNameId(classLoader) + ", \"" + name + "\"): Not found in " + ruleClassLoaders.size() + " RuleClassLoader(s)");
 
+    AgentStatistics.onFindClass(false);
     return null;
   }
 
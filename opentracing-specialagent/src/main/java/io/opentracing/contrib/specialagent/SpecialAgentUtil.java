@@ -18,6 +18,7 @@ package io.opentracing.contrib.specialagent;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.net.JarURLConnection;
 import java.net.MalformedURLException;
@@ -27,12 +28,19 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.security.CodeSource;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -100,7 +108,7 @@ public final class SpecialAgentUtil {
     return new URL("file", null, argsIndex == -1 ? arg : arg.substring(0, argsIndex + 4));
   }
 
-  private static URL getLocation(final Class<?> cls) {
+  static URL getLocation(final Class<?> cls) {
     final CodeSource codeSource = cls.getProtectionDomain().getCodeSource();
     if (logger.isLoggable(Level.FINEST))
       logger.finest(SpecialAgentUtil.class.getSimpleName() + "#getLocation(" + cls.getName() + "): [CodeSource] -> " + (codeSource == null ? null : codeSource.getLocation()));
@@ -299,25 +307,79 @@ public final class SpecialAgentUtil {
   }
 
   /**
-   * Fills the specified {@code fileToPluginManifest} map with JAR files having
-   * a prefix path that match {@code path}, and the associated
-   * {@link PluginManifest}.
+   * Invokes the specified tasks with the specified {@code ExecutorService},
+   * and returns their results in the order of the tasks.
+   *
+   * @param <T> The type parameter of the results.
+   * @param executor The {@code ExecutorService}, or {@code null} to invoke the
+   *          tasks sequentially in the calling thread.
+   * @param tasks The tasks.
+   * @return The results of the tasks, in the order of the tasks.
+   * @throws IllegalStateException If a task has thrown a checked exception, or
+   *           the calling thread has been interrupted.
+   */
+  static <T>List<T> invokeAll(final ExecutorService executor, final List<? extends Callable<T>> tasks) {
+    final List<T> results = new ArrayList<>(tasks.size());
+    try {
+      if (executor == null) {
+        for (final Callable<T> task : tasks)
+          results.add(task.call());
+      }
+      else {
+        for (final Future<T> future : executor.invokeAll(tasks))
+          results.add(future.get());
+      }
+
+      return results;
+    }
+    catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+
+      if (cause instanceof Error)
+        throw (Error)cause;
+
+      throw new IllegalStateException(cause);
+    }
+    catch (final RuntimeException e) {
+      throw e;
+    }
+    catch (final Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Extracts the JAR files having a prefix path that match {@code path} in
+   * the resources of the system class loader into the directory supplied by
+   * {@code destDir}. The JAR files are extracted in parallel with the
+   * specified {@code ExecutorService}.
    * <p>
    * This method will add a shutdown hook to delete any temporary directory and
-   * file resources it created.
+   * file resources it created, unless {@code persistent} is {@code true}, in
+   * which case the extracted JAR files are retained, and JAR files that have
+   * already been extracted to {@code destDir} are not extracted again.
    *
    * @param path The prefix path to match when finding resources.
    * @param destDir Callback that supplies the destDir.
-   * @param callback Callback function to process resource files.
+   * @param persistent Whether the extracted JAR files are to be retained in
+   *          {@code destDir} across runs.
+   * @param executor The {@code ExecutorService} with which to extract the JAR
+   *          files, or {@code null} to extract the JAR files sequentially.
+   * @return The list of extracted JAR files, in the order in which they were
+   *         found.
    * @throws IllegalStateException If an illegal state occurs due to an
    *           {@link IOException}.
    */
-  static void findJarResources(final String path, final Supplier<File> destDir, Predicate<File> callback) {
+  static List<File> findJarResources(final String path, final Supplier<File> destDir, final boolean persistent, final ExecutorService executor) {
     try {
       final Enumeration<URL> resources = ClassLoader.getSystemClassLoader().getResources(path);
       if (!resources.hasMoreElements())
-        return;
+        return Collections.emptyList();
 
+      final List<File> files = new ArrayList<>();
+      final List<Callable<File>> tasks = new ArrayList<>();
       final Set<URL> visitedResources = new HashSet<>();
       File outDir = null;
       do {
@@ -339,7 +401,7 @@ public final class SpecialAgentUtil {
 
         if (outDir == null) {
           logger.severe("Unable to continue with null output directory");
-          return;
+          return files;
         }
 
         final JarURLConnection jarURLConnection = (JarURLConnection)connection;
@@ -347,7 +409,8 @@ public final class SpecialAgentUtil {
         final JarFile jarFile = jarURLConnection.getJarFile();
         final Enumeration<JarEntry> jarEntries = jarFile.entries();
         while (jarEntries.hasMoreElements()) {
-          final String jarEntry = jarEntries.nextElement().getName();
+          final JarEntry entry = jarEntries.nextElement();
+          final String jarEntry = entry.getName();
           if (jarEntry.length() <= path.length() || !jarEntry.startsWith(path))
             continue;
 
@@ -362,15 +425,40 @@ public final class SpecialAgentUtil {
             continue;
 
           final URL jarUrl = new URL(resource, jarEntry.substring(path.length()));
-          Files.copy(jarUrl.openStream(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+          tasks.add(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+              if (!persistent) {
+                try (final InputStream in = jarUrl.openStream()) {
+                  Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                return file;
+              }
 
-          if (!callback.test(file))
-            file.delete();
+              if (file.isFile() && file.length() == entry.getSize())
+                return file;
+
+              // Extract to a temporary file that is then moved into place, so
+              // that concurrently starting VMs never see a partial JAR
+              final Path tempFile = Files.createTempFile(subDir.toPath(), jarFileName, ".tmp");
+              try (final InputStream in = jarUrl.openStream()) {
+                Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+              }
+              finally {
+                Files.deleteIfExists(tempFile);
+              }
+
+              return file;
+            }
+          });
         }
       }
       while (resources.hasMoreElements());
 
-      if (outDir != null) {
+      files.addAll(invokeAll(executor, tasks));
+      if (outDir != null && !persistent) {
         final File targetDir = outDir;
         Runtime.getRuntime().addShutdownHook(new Thread() {
           @Override
@@ -384,6 +472,8 @@ public final class SpecialAgentUtil {
           }
         });
       }
+
+      return files;
     }
     catch (final IOException e) {
       throw new IllegalStateException(e);
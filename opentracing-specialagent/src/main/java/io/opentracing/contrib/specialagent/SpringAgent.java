@@ -21,6 +21,7 @@ import java.lang.instrument.Instrumentation;
 
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.agent.builder.AgentBuilder.InitializationStrategy;
+import net.bytebuddy.agent.builder.AgentBuilder.LocationStrategy;
 import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
 import net.bytebuddy.agent.builder.AgentBuilder.Transformer;
 import net.bytebuddy.agent.builder.AgentBuilder.TypeStrategy;
@@ -29,42 +30,120 @@ import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.DynamicType.Builder;
 import net.bytebuddy.utility.JavaModule;
 
+/**
+ * Agent for <ins>Static Deferred Attach</ins>, which defers the loading of
+ * the {@code AgentRule}s until Spring has begun to initialize the application.
+ * <p>
+ * By default, the loading of the rules is started in a background thread upon
+ * the construction of the first {@code ApplicationContext}, and proceeds in
+ * parallel with the initialization of the context. Upon the construction of a
+ * {@code ContextRefreshedEvent}, the refreshing thread waits for the loading
+ * of the rules to complete, only if it has not already completed. With
+ * {@code -Dsa.spring=refresh}, the loading of the rules is not started until
+ * the first {@code ContextRefreshedEvent}. In either mode, the rules are
+ * loaded exactly once, regardless of the number of (child) contexts.
+ */
 public class SpringAgent {
   private static final Logger logger = Logger.getLogger(SpringAgent.class);
 
-  public static Thread thread;
+  private static Thread thread;
+  private static boolean started;
+  private static boolean awaited;
 
   public static void premain(final Instrumentation inst, final Thread thread) {
     if (logger.isLoggable(Level.FINE))
       logger.fine("\n<<<<<<<<<<<<<<<<<<<< Installing SpringAgent >>>>>>>>>>>>>>>>>>>>\n");
 
-    new AgentBuilder.Default()
+    SpringAgent.thread = thread;
+    final boolean early = !"refresh".equals(System.getProperty("sa.spring"));
+    AgentBuilder.Identified.Extendable builder = new AgentBuilder.Default()
       .ignore(none())
       .disableClassFormatChanges()
       .with(RedefinitionStrategy.RETRANSFORMATION)
       .with(InitializationStrategy.NoOp.INSTANCE)
       .with(TypeStrategy.Default.REDEFINE)
+      .with(TypePoolCache.INSTANCE)
+      .with(LocationStrategy.ForClassLoader.WEAK)
       .type(named("org.springframework.context.event.ContextRefreshedEvent"))
       .transform(new Transformer() {
         @Override
         public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
-          return builder.visit(Advice.to(SpringAgent.class).on(isConstructor()));
-        }})
-      .installOn(inst);
+          return builder.visit(Advice.to(RefreshAdvice.class).on(isConstructor()));
+        }});
 
-    SpringAgent.thread = thread;
+    if (early) {
+      builder = builder
+        .type(named("org.springframework.context.support.AbstractApplicationContext"))
+        .transform(new Transformer() {
+          @Override
+          public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
+            return builder.visit(Advice.to(ContextAdvice.class).on(isConstructor()));
+          }});
+    }
+
+    builder.installOn(inst);
     if (logger.isLoggable(Level.FINE))
       logger.fine("\n>>>>>>>>>>>>>>>>>>>>> Installed SpringAgent <<<<<<<<<<<<<<<<<<<<\n");
   }
 
-  @Advice.OnMethodExit
-  public static void exit() {
+  /**
+   * Starts the loading of the rules, if it has not already been started.
+   */
+  public static void start() {
+    synchronized (SpringAgent.class) {
+      if (started)
+        return;
+
+      started = true;
+    }
+
+    if (logger.isLoggable(Level.FINE))
+      logger.fine("SpringAgent started loading rules in thread: " + thread.getName());
+
+    thread.start();
+  }
+
+  /**
+   * Waits for the loading of the rules to complete, starting it if it has not
+   * already been started. The time that the first caller was blocked is
+   * reported to the log.
+   */
+  public static void await() {
+    start();
+    final boolean first;
+    synchronized (SpringAgent.class) {
+      first = !awaited;
+      awaited = true;
+    }
+
+    if (!first && !thread.isAlive())
+      return;
+
+    final long startNanos = System.nanoTime();
     try {
-      thread.start();
       thread.join();
     }
     catch (final InterruptedException e) {
-      throw new ExceptionInInitializerError(e);
+      Thread.currentThread().interrupt();
+    }
+
+    if (first) {
+      logger.info("SpringAgent blocked Spring startup for " + (System.nanoTime() - startNanos) / 1000000 + "ms while loading rules");
+      StartupProfiler.report();
+    }
+  }
+
+  public static class ContextAdvice {
+    @Advice.OnMethodExit
+    public static void exit() {
+      SpringAgent.start();
+    }
+  }
+
+  public static class RefreshAdvice {
+    @Advice.OnMethodExit
+    public static void exit() {
+      SpringAgent.await();
     }
   }
-}
\ No newline at end of file
+}
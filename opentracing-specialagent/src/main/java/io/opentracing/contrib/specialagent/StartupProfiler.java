@@ -0,0 +1,299 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiler of the phases of the startup of the {@code SpecialAgent}, which
+ * records the elapsed time and the number of bytes allocated by the thread
+ * that executes each phase. The profiler is enabled with the
+ * {@link #PROFILE_PROPERTY} system property, which must be specified on the
+ * command line, because the profiler is initialized before the properties of
+ * the {@code SpecialAgent} are loaded.
+ * <p>
+ * When the startup has completed, the profiler reports the phases as a table
+ * to the log, and in JSON to the file specified by {@link #PROFILE_PROPERTY}
+ * (or to the log if a file is not specified). The
+ * {@link #BUDGET_PROPERTY} system property specifies the maximum elapsed time
+ * of phases, and phases that exceed their budget are reported as
+ * {@link #getViolations() violations}.
+ */
+public final class StartupProfiler {
+  private static final Logger logger = Logger.getLogger(StartupProfiler.class);
+  static final String PROFILE_PROPERTY = "sa.profile";
+  static final String BUDGET_PROPERTY = "sa.profile.budget";
+
+  /**
+   * A phase of the startup, the measurements of which are accumulated over
+   * all of the times that the phase is {@link StartupProfiler#start(String)
+   * started}.
+   */
+  static final class Phase {
+    final String name;
+    final int depth;
+    int count;
+    long nanos;
+    long bytes;
+
+    private long startNanos;
+    private long startBytes;
+
+    Phase(final String name, final int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  private static final boolean enabled;
+  private static final ThreadMXBean threadMXBean;
+  private static final Method getThreadAllocatedBytes;
+
+  static {
+    enabled = System.getProperty(PROFILE_PROPERTY) != null && !"false".equals(System.getProperty(PROFILE_PROPERTY));
+    ThreadMXBean mxBean = null;
+    Method method = null;
+    if (enabled) {
+      try {
+        // com.sun.management.ThreadMXBean is not available on all JVMs
+        mxBean = ManagementFactory.getThreadMXBean();
+        method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+        if (!method.getDeclaringClass().isInstance(mxBean))
+          method = null;
+      }
+      catch (final Exception e) {
+        if (logger.isLoggable(Level.FINE))
+          logger.fine("Allocated bytes are not available to " + StartupProfiler.class.getSimpleName() + ": " + e);
+      }
+    }
+
+    threadMXBean = mxBean;
+    getThreadAllocatedBytes = method;
+  }
+
+  private static final Map<String,Phase> phases = new LinkedHashMap<>();
+  private static int depth;
+  private static boolean reported;
+
+  private static long getAllocatedBytes() {
+    if (getThreadAllocatedBytes == null)
+      return 0;
+
+    try {
+      return (Long)getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId());
+    }
+    catch (final Exception e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Starts the phase by the specified name.
+   *
+   * @param name The name of the phase.
+   * @return The started {@link Phase}, to be provided to
+   *         {@link #stop(Phase)}, or {@code null} if the profiler is not
+   *         enabled, or if the startup has already been reported.
+   */
+  static synchronized Phase start(final String name) {
+    if (!enabled || reported)
+      return null;
+
+    Phase phase = phases.get(name);
+    if (phase == null)
+      phases.put(name, phase = new Phase(name, depth));
+
+    ++depth;
+    phase.startBytes = getAllocatedBytes();
+    phase.startNanos = System.nanoTime();
+    return phase;
+  }
+
+  /**
+   * Stops the specified phase.
+   *
+   * @param phase The {@link Phase} returned by {@link #start(String)}, which
+   *          may be {@code null}.
+   */
+  static synchronized void stop(final Phase phase) {
+    if (phase == null)
+      return;
+
+    phase.nanos += System.nanoTime() - phase.startNanos;
+    phase.bytes += getAllocatedBytes() - phase.startBytes;
+    ++phase.count;
+    --depth;
+  }
+
+  /**
+   * Returns the budgets of the phases, as specified by a comma-delimited list
+   * of {@code <phase>=<millis>} entries, where a {@code <phase>} of
+   * {@code *} specifies the budget of all phases that do not have a budget of
+   * their own.
+   *
+   * @param budget The budget specification.
+   * @return The map of phase names to budgets in milliseconds.
+   * @throws IllegalArgumentException If the specification is malformed.
+   */
+  static Map<String,Long> parseBudgets(final String budget) {
+    if (budget == null || budget.length() == 0)
+      return Collections.emptyMap();
+
+    final Map<String,Long> budgets = new HashMap<>();
+    for (final String entry : budget.split(",")) {
+      final int index = entry.lastIndexOf('=');
+      if (index == -1)
+        throw new IllegalArgumentException("Illegal value for " + BUDGET_PROPERTY + ": " + budget);
+
+      budgets.put(entry.substring(0, index).trim(), Long.parseLong(entry.substring(index + 1).trim()));
+    }
+
+    return budgets;
+  }
+
+  /**
+   * Returns the phases that exceeded their budget.
+   *
+   * @param phases The phases.
+   * @param budgets The map of phase names to budgets in milliseconds.
+   * @return The descriptions of the phases that exceeded their budget.
+   */
+  static List<String> getViolations(final Iterable<Phase> phases, final Map<String,Long> budgets) {
+    final List<String> violations = new ArrayList<>();
+    final Long defaultBudget = budgets.get("*");
+    for (final Phase phase : phases) {
+      Long budget = budgets.get(phase.name);
+      if (budget == null && (budget = defaultBudget) == null)
+        continue;
+
+      final long millis = phase.nanos / 1000000;
+      if (millis > budget)
+        violations.add(phase.name + ": " + millis + "ms > " + budget + "ms");
+    }
+
+    return violations;
+  }
+
+  /**
+   * Returns the phases that exceeded their budget, as specified by the
+   * {@link #BUDGET_PROPERTY} system property.
+   *
+   * @return The descriptions of the phases that exceeded their budget.
+   */
+  public static synchronized List<String> getViolations() {
+    return getViolations(phases.values(), parseBudgets(System.getProperty(BUDGET_PROPERTY)));
+  }
+
+  private static String pad(final String string, final int length, final boolean left) {
+    final StringBuilder builder = new StringBuilder(length);
+    if (!left)
+      builder.append(string);
+
+    for (int i = string.length(); i < length; ++i)
+      builder.append(' ');
+
+    if (left)
+      builder.append(string);
+
+    return builder.toString();
+  }
+
+  static String toTable(final Iterable<Phase> phases) {
+    int width = 5;
+    for (final Phase phase : phases)
+      width = Math.max(width, phase.depth * 2 + phase.name.length());
+
+    final StringBuilder builder = new StringBuilder();
+    builder.append(pad("Phase", width, false)).append(pad("Count", 7, true)).append(pad("Time (ms)", 12, true)).append(pad("Alloc (KB)", 12, true));
+    for (final Phase phase : phases) {
+      builder.append('\n').append(pad(pad("", phase.depth * 2, false) + phase.name, width, false));
+      builder.append(pad(String.valueOf(phase.count), 7, true));
+      builder.append(pad(String.format("%.3f", phase.nanos / 1000000d), 12, true));
+      builder.append(pad(String.valueOf(phase.bytes / 1024), 12, true));
+    }
+
+    return builder.toString();
+  }
+
+  private static String escape(final String string) {
+    return string.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  static String toJson(final Iterable<Phase> phases, final List<String> violations) {
+    final StringBuilder builder = new StringBuilder("{\n  \"phases\": [");
+    boolean first = true;
+    for (final Phase phase : phases) {
+      builder.append(first ? "\n" : ",\n");
+      builder.append("    {\"name\": \"").append(escape(phase.name)).append("\", \"depth\": ").append(phase.depth);
+      builder.append(", \"count\": ").append(phase.count).append(", \"nanos\": ").append(phase.nanos);
+      builder.append(", \"allocatedBytes\": ").append(phase.bytes).append('}');
+      first = false;
+    }
+
+    builder.append("\n  ],\n  \"violations\": [");
+    first = true;
+    for (final String violation : violations) {
+      builder.append(first ? "" : ", ").append('"').append(escape(violation)).append('"');
+      first = false;
+    }
+
+    return builder.append("]\n}").toString();
+  }
+
+  /**
+   * Reports the recorded phases, if the profiler is enabled and the phases
+   * have not already been reported. Phases that are started after the report
+   * are not recorded.
+   */
+  static synchronized void report() {
+    if (!enabled || reported)
+      return;
+
+    reported = true;
+    final List<String> violations = getViolations();
+    logger.info("SpecialAgent startup profile:\n" + toTable(phases.values()));
+    for (final String violation : violations)
+      logger.severe("Startup phase exceeded budget: " + violation);
+
+    final String json = toJson(phases.values(), violations);
+    final String file = System.getProperty(PROFILE_PROPERTY);
+    if (file.length() == 0 || "true".equals(file)) {
+      logger.info(json);
+      return;
+    }
+
+    try {
+      Files.write(new File(file).toPath(), json.getBytes());
+    }
+    catch (final IOException e) {
+      logger.log(Level.WARNING, "Unable to write startup profile to " + file, e);
+    }
+  }
+
+  private StartupProfiler() {
+  }
+}
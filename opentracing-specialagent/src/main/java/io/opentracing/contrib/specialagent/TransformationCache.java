@@ -0,0 +1,437 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.instrument.IllegalClassFormatException;
+import java.lang.instrument.Instrumentation;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+
+/**
+ * On-disk cache of the results of the {@code ClassFileTransformer}s installed
+ * by {@code AgentRule}s. The results are keyed by the digest of the input
+ * bytecode (and the type of the defining class loader), together with the id
+ * of the transformer. The cache file is specific to the SpecialAgent version
+ * and to the {@code sa.*} configuration, so it is invalidated when either
+ * changes.
+ * <p>
+ * Only the definitions of new classes are cached, because the result of a
+ * retransformation depends on the transformers that were previously applied.
+ * On a cache hit for a transformed class, the plugin is linked into the class
+ * loader just as it would be by the transformation listener, and the cached
+ * bytecode is returned without invoking ByteBuddy. Results of transformations
+ * that errored or were disallowed due to incompatibility are not cached.
+ * <p>
+ * The result of a transformation is assumed to depend on the bytecode of the
+ * class only. Matchers that inspect the type hierarchy may, however, depend
+ * on the bytecode of other classes, so the cache should be cleared when
+ * libraries are upgraded without a corresponding change of the bytecode of
+ * their subclasses.
+ */
+class TransformationCache {
+  private static final Logger logger = Logger.getLogger(TransformationCache.class);
+  private static final String FILE_PREFIX = "transformation-";
+  private static final String FILE_SUFFIX = ".bin";
+  private static final int MAX_RECORDS = 100000;
+
+  private static final ThreadLocal<Boolean> aborted = new ThreadLocal<>();
+
+  /**
+   * Marks the transformation in progress on the current thread as not
+   * cacheable. This method is called by the transformation listener when a
+   * transformation errors or is disallowed.
+   */
+  static void abort() {
+    aborted.set(Boolean.TRUE);
+  }
+
+  private static final ThreadLocal<MessageDigest> messageDigest = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-1");
+      }
+      catch (final NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  /**
+   * The last input bytecode and its {@link Key} on the current thread. The
+   * JVM passes the same buffer to consecutive transformers when a transformer
+   * does not transform the class, so the digest is computed once per class
+   * definition for all transformers that do not modify it.
+   */
+  private static final ThreadLocal<Object[]> lastKey = new ThreadLocal<Object[]>() {
+    @Override
+    protected Object[] initialValue() {
+      return new Object[3];
+    }
+  };
+
+  private static final class Key {
+    private final byte[] digest;
+    private final int hashCode;
+
+    private Key(final byte[] digest) {
+      this.digest = digest;
+      this.hashCode = Arrays.hashCode(digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj == this || obj instanceof Key && Arrays.equals(digest, ((Key)obj).digest);
+    }
+  }
+
+  private static final class Record {
+    private final BitSet seen;
+    private final Map<Integer,byte[]> transformed;
+
+    private Record(final BitSet seen, final Map<Integer,byte[]> transformed) {
+      this.seen = seen;
+      this.transformed = transformed;
+    }
+
+    private Record() {
+      this(new BitSet(), new HashMap<Integer,byte[]>(1));
+    }
+  }
+
+  private static Key getKey(final ClassLoader classLoader, final byte[] classfileBuffer) {
+    final Object[] last = lastKey.get();
+    final String loaderType = classLoader == null ? "" : classLoader.getClass().getName();
+    if (last[0] == classfileBuffer && loaderType.equals(last[1]))
+      return (Key)last[2];
+
+    final MessageDigest digest = messageDigest.get();
+    digest.update(loaderType.getBytes());
+    digest.update((byte)0);
+    final Key key = new Key(digest.digest(classfileBuffer));
+    last[0] = classfileBuffer;
+    last[1] = loaderType;
+    last[2] = key;
+    return key;
+  }
+
+  /**
+   * Returns the hex-encoded digest of the SpecialAgent version, the location
+   * of the SpecialAgent, the external rule paths, and the {@code sa.*} system
+   * properties (excluding {@code sa.log.*}).
+   */
+  private static String getVersionDigest() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append(ByteBuddyManager.class.getPackage().getImplementationVersion()).append('\n');
+    final CodeSource codeSource = ByteBuddyManager.class.getProtectionDomain().getCodeSource();
+    final URL location = codeSource == null ? null : codeSource.getLocation();
+    builder.append(location).append('\n');
+    if (location != null && "file".equals(location.getProtocol())) {
+      final File file = new File(location.getPath());
+      builder.append(file.length()).append(':').append(file.lastModified()).append('\n');
+    }
+
+    final File[] ruleFiles = SpecialAgentUtil.classPathToFiles(System.getProperty(SpecialAgentBase.RULE_PATH_ARG));
+    if (ruleFiles != null)
+      for (final File ruleFile : ruleFiles)
+        builder.append(ruleFile).append(':').append(ruleFile.length()).append(':').append(ruleFile.lastModified()).append('\n');
+
+    final Map<String,String> properties = new TreeMap<>();
+    for (final Map.Entry<Object,Object> property : System.getProperties().entrySet()) {
+      final String key = String.valueOf(property.getKey());
+      if (key.startsWith("sa.") && !key.startsWith("sa.log."))
+        properties.put(key, String.valueOf(property.getValue()));
+    }
+
+    builder.append(properties);
+    final byte[] digest = messageDigest.get().digest(builder.toString().getBytes());
+    final StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < 8; ++i)
+      hex.append(String.format("%02x", digest[i]));
+
+    return hex.toString();
+  }
+
+  private final ConcurrentHashMap<Key,Record> keyToRecord = new ConcurrentHashMap<>();
+  private final Map<String,Integer> idToIndex = new HashMap<>();
+  private final List<String> ids = new ArrayList<>();
+  private final File dir;
+  private final File file;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private volatile boolean dirty;
+
+  /**
+   * Creates a new {@code TransformationCache} in the specified directory, and
+   * loads the cache file for the current SpecialAgent version and
+   * configuration, if one exists. The cache file is saved when the JVM shuts
+   * down.
+   *
+   * @param dir The directory of the cache.
+   */
+  TransformationCache(final File dir) {
+    this.dir = dir;
+    this.file = new File(dir, FILE_PREFIX + getVersionDigest() + FILE_SUFFIX);
+    if (file.exists()) {
+      try {
+        load();
+      }
+      catch (final IOException e) {
+        logger.log(Level.WARNING, "Unable to load transformation cache: " + file, e);
+        keyToRecord.clear();
+        idToIndex.clear();
+        ids.clear();
+      }
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread("SpecialAgent-TransformationCache") {
+      @Override
+      public void run() {
+        save();
+      }
+    });
+  }
+
+  private synchronized int getIndex(final String id) {
+    Integer index = idToIndex.get(id);
+    if (index == null) {
+      idToIndex.put(id, index = ids.size());
+      ids.add(id);
+    }
+
+    return index;
+  }
+
+  private void load() throws IOException {
+    try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      final int idCount = in.readInt();
+      for (int i = 0; i < idCount; ++i)
+        getIndex(in.readUTF());
+
+      final int recordCount = in.readInt();
+      for (int i = 0; i < recordCount; ++i) {
+        final byte[] digest = new byte[in.readUnsignedByte()];
+        in.readFully(digest);
+        final long[] words = new long[in.readInt()];
+        for (int j = 0; j < words.length; ++j)
+          words[j] = in.readLong();
+
+        final int transformedCount = in.readInt();
+        final Map<Integer,byte[]> transformed = new HashMap<>(transformedCount);
+        for (int j = 0; j < transformedCount; ++j) {
+          final int index = in.readInt();
+          final byte[] bytes = new byte[in.readInt()];
+          in.readFully(bytes);
+          transformed.put(index, bytes);
+        }
+
+        keyToRecord.put(new Key(digest), new Record(BitSet.valueOf(words), transformed));
+      }
+    }
+
+    if (logger.isLoggable(Level.FINE))
+      logger.fine("Loaded transformation cache with " + keyToRecord.size() + " records: " + file);
+  }
+
+  /**
+   * Saves this cache to its file, if it has changed since it was loaded, and
+   * deletes the cache files of other SpecialAgent versions or configurations.
+   */
+  void save() {
+    if (logger.isLoggable(Level.FINE))
+      logger.fine("Transformation cache: " + hits.get() + " hits, " + misses.get() + " misses, " + keyToRecord.size() + " records");
+
+    if (!dirty)
+      return;
+
+    try {
+      dir.mkdirs();
+      final File tempFile = File.createTempFile(FILE_PREFIX, ".tmp", dir);
+      try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        synchronized (this) {
+          out.writeInt(ids.size());
+          for (final String id : ids)
+            out.writeUTF(id);
+        }
+
+        final List<Map.Entry<Key,Record>> entries = new ArrayList<>(keyToRecord.entrySet());
+        out.writeInt(entries.size());
+        for (final Map.Entry<Key,Record> entry : entries) {
+          final byte[] digest = entry.getKey().digest;
+          out.writeByte(digest.length);
+          out.write(digest);
+          final Record record = entry.getValue();
+          synchronized (record) {
+            final long[] words = record.seen.toLongArray();
+            out.writeInt(words.length);
+            for (final long word : words)
+              out.writeLong(word);
+
+            out.writeInt(record.transformed.size());
+            for (final Map.Entry<Integer,byte[]> transformed : record.transformed.entrySet()) {
+              out.writeInt(transformed.getKey());
+              out.writeInt(transformed.getValue().length);
+              out.write(transformed.getValue());
+            }
+          }
+        }
+      }
+
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      final File[] files = dir.listFiles();
+      if (files != null)
+        for (final File stale : files)
+          if (stale.getName().startsWith(FILE_PREFIX) && stale.getName().endsWith(FILE_SUFFIX) && !stale.equals(file))
+            stale.delete();
+
+      dirty = false;
+      if (logger.isLoggable(Level.FINE))
+        logger.fine("Saved transformation cache: " + file);
+    }
+    catch (final IOException e) {
+      logger.log(Level.WARNING, "Unable to save transformation cache: " + file, e);
+    }
+  }
+
+  /**
+   * Returns a {@code TransformerDecorator} that decorates the
+   * {@code ClassFileTransformer} installed by an {@code AgentRule} with this
+   * cache.
+   *
+   * @param id The id of the transformer, which must be unique and stable
+   *          across restarts.
+   * @param index The index of the plugin to be linked via
+   *          {@link SpecialAgent#linkRule(int,ClassLoader)} on a cache hit, or
+   *          {@code -1} if no plugin is to be linked.
+   * @return A {@code TransformerDecorator} that decorates the
+   *         {@code ClassFileTransformer} with this cache.
+   */
+  AgentBuilder.TransformerDecorator decorator(final String id, final int index) {
+    final int id0 = getIndex(id);
+    return new AgentBuilder.TransformerDecorator() {
+      @Override
+      public ResettableClassFileTransformer decorate(final ResettableClassFileTransformer classFileTransformer) {
+        return new CachingTransformer(classFileTransformer, id0, index);
+      }
+    };
+  }
+
+  private final class CachingTransformer extends ResettableClassFileTransformer.AbstractBase {
+    private final ResettableClassFileTransformer target;
+    private final int id;
+    private final int index;
+
+    private CachingTransformer(final ResettableClassFileTransformer target, final int id, final int index) {
+      this.target = target;
+      this.id = id;
+      this.index = index;
+    }
+
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain, final byte[] classfileBuffer) throws IllegalClassFormatException {
+      if (classBeingRedefined != null || classfileBuffer == null)
+        return target.transform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+
+      final Key key = getKey(loader, classfileBuffer);
+      Record record = keyToRecord.get(key);
+      if (record != null) {
+        final byte[] cached;
+        final boolean seen;
+        synchronized (record) {
+          seen = record.seen.get(id);
+          cached = seen ? record.transformed.get(id) : null;
+        }
+
+        if (seen) {
+          hits.incrementAndGet();
+          if (cached == null)
+            return null;
+
+          if (index != -1 && !SpecialAgent.linkRule(index, loader))
+            return null;
+
+          if (logger.isLoggable(Level.FINEST))
+            logger.finest("Transformation cache hit for " + className + " with " + ids.get(id));
+
+          return cached;
+        }
+      }
+
+      misses.incrementAndGet();
+      aborted.remove();
+      final byte[] bytes = target.transform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+      if (aborted.get() != null) {
+        aborted.remove();
+        return bytes;
+      }
+
+      if (record == null) {
+        if (keyToRecord.size() >= MAX_RECORDS)
+          return bytes;
+
+        record = new Record();
+        final Record existing = keyToRecord.putIfAbsent(key, record);
+        if (existing != null)
+          record = existing;
+      }
+
+      synchronized (record) {
+        record.seen.set(id);
+        if (bytes != null)
+          record.transformed.put(id, bytes);
+      }
+
+      dirty = true;
+      return bytes;
+    }
+
+    @Override
+    public boolean reset(final Instrumentation instrumentation, final ResettableClassFileTransformer classFileTransformer, final RedefinitionStrategy redefinitionStrategy, final RedefinitionStrategy.DiscoveryStrategy redefinitionDiscoveryStrategy, final RedefinitionStrategy.BatchAllocator redefinitionBatchAllocator, final RedefinitionStrategy.Listener redefinitionListener) {
+      return target.reset(instrumentation, classFileTransformer, redefinitionStrategy, redefinitionDiscoveryStrategy, redefinitionBatchAllocator, redefinitionListener);
+    }
+  }
+}
@@ -0,0 +1,347 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@code ClassFileTransformer} that defers the installation of the
+ * {@code AgentRule}s of an Instrumentation Plugin until one of the plugin's
+ * trigger classes is first defined. A single {@code TriggerTransformer} is
+ * shared by all deferred plugins, and costs one map lookup per class
+ * definition. A trigger class may be shared by several plugins, in which case
+ * the first definition of the class fires the {@link Trigger}s of all of
+ * them. Once all deferred plugins have been triggered and installed, the
+ * {@code TriggerTransformer} removes itself from the {@code Instrumentation}.
+ * <p>
+ * Installing an {@code AgentRule} retransforms the classes that are already
+ * loaded, which is not permitted from within a {@code ClassFileTransformer}
+ * callback. Triggers that fire during a class definition are therefore
+ * installed on a dedicated daemon thread, and calls made to the plugin's
+ * target classes before the installation completes are not instrumented.
+ * <p>
+ * A class whose definition begins before an installation completes (such as
+ * the trigger class itself) may be neither seen by the transformers of the
+ * installed rules, nor among the loaded classes that the installation
+ * retransforms. Therefore, the classes that are defined while an installation
+ * is pending are recorded, and are retransformed once the rules are
+ * installed.
+ */
+class TriggerTransformer implements ClassFileTransformer {
+  private static final Logger logger = Logger.getLogger(TriggerTransformer.class);
+
+  /**
+   * A deferred installation of the {@code AgentRule}s of a plugin.
+   */
+  abstract static class Trigger {
+    final PluginManifest pluginManifest;
+    final String[] names;
+    private boolean fired;
+
+    /**
+     * Creates a new {@code Trigger} for the specified {@link PluginManifest}
+     * and trigger class names.
+     *
+     * @param pluginManifest The {@link PluginManifest}.
+     * @param names The names of the trigger classes.
+     */
+    Trigger(final PluginManifest pluginManifest, final String[] names) {
+      this.pluginManifest = pluginManifest;
+      this.names = names;
+    }
+
+    /**
+     * Installs the {@code AgentRule}s of the plugin.
+     */
+    abstract void install();
+
+    /**
+     * Fires this {@code Trigger}, if it has not already been fired.
+     */
+    final synchronized void fire() {
+      if (fired)
+        return;
+
+      fired = true;
+      install();
+    }
+  }
+
+  private static final Trigger[] NO_TRIGGERS = {};
+
+  private final Map<String,Trigger[]> nameToTriggers = new ConcurrentHashMap<>();
+  private final Instrumentation inst;
+  private ExecutorService executor;
+  private Thread executorThread;
+  private volatile int pending;
+  private Map<String,List<ClassLoader>> defined;
+
+  /**
+   * Creates a new {@code TriggerTransformer} with the specified
+   * {@code Instrumentation}.
+   *
+   * @param inst The {@code Instrumentation}.
+   */
+  TriggerTransformer(final Instrumentation inst) {
+    this.inst = inst;
+  }
+
+  /**
+   * Registers the specified {@link Trigger}.
+   *
+   * @param trigger The {@link Trigger}.
+   */
+  synchronized void register(final Trigger trigger) {
+    for (final String name : trigger.names) {
+      final String internalName = name.replace('.', '/');
+      final Trigger[] triggers = nameToTriggers.get(internalName);
+      if (triggers == null) {
+        nameToTriggers.put(internalName, new Trigger[] {trigger});
+      }
+      else {
+        final Trigger[] added = Arrays.copyOf(triggers, triggers.length + 1);
+        added[triggers.length] = trigger;
+        nameToTriggers.put(internalName, added);
+      }
+    }
+  }
+
+  /**
+   * @return Whether this {@code TriggerTransformer} has any {@link Trigger}s
+   *         that have not been fired.
+   */
+  boolean isEmpty() {
+    return nameToTriggers.isEmpty();
+  }
+
+  /**
+   * Removes the {@link Trigger}s of the specified class name, along with the
+   * other names of each of them.
+   *
+   * @param className The internal name of the class.
+   * @return The removed {@link Trigger}s, which are to be fired by the caller.
+   */
+  private synchronized Trigger[] remove(final String className) {
+    final Trigger[] triggers = nameToTriggers.remove(className);
+    if (triggers == null)
+      return NO_TRIGGERS;
+
+    for (final Trigger trigger : triggers) {
+      for (final String name : trigger.names) {
+        final String internalName = name.replace('.', '/');
+        final Trigger[] others = nameToTriggers.get(internalName);
+        if (others == null)
+          continue;
+
+        final List<Trigger> retained = new ArrayList<>(others.length);
+        for (final Trigger other : others)
+          if (other != trigger)
+            retained.add(other);
+
+        if (retained.isEmpty())
+          nameToTriggers.remove(internalName);
+        else if (retained.size() < others.length)
+          nameToTriggers.put(internalName, retained.toArray(new Trigger[retained.size()]));
+      }
+
+      if (logger.isLoggable(Level.FINE))
+        logger.fine("Installing rules of \"" + trigger.pluginManifest.name + "\" triggered by: " + className);
+    }
+
+    return triggers;
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+          final Thread thread = new Thread(runnable, "SpecialAgent-TriggerTransformer");
+          thread.setDaemon(true);
+          executorThread = thread;
+          return thread;
+        }
+      });
+    }
+
+    return executor;
+  }
+
+  /**
+   * Fires the {@link Trigger}s for which a trigger class is in the specified
+   * array of loaded classes. The {@link Trigger}s are fired on the calling
+   * thread.
+   *
+   * @param classes The array of loaded classes.
+   */
+  void fireLoaded(final Class<?>[] classes) {
+    for (final Class<?> cls : classes) {
+      if (nameToTriggers.isEmpty())
+        break;
+
+      final String className = cls.getName().replace('.', '/');
+      if (nameToTriggers.containsKey(className))
+        for (final Trigger trigger : remove(className))
+          trigger.fire();
+    }
+
+    removeIfDone();
+  }
+
+  /**
+   * Records the specified class, which is being defined while an installation
+   * is pending, so that it is retransformed once the installation completes.
+   * Classes that are defined by the installation itself are not recorded.
+   *
+   * @param loader The class loader that is defining the class, or
+   *          {@code null} for the bootstrap class loader.
+   * @param className The internal name of the class.
+   */
+  private void record(final ClassLoader loader, final String className) {
+    if (pending != 0 && Thread.currentThread() != executorThread)
+      doRecord(loader, className);
+  }
+
+  private synchronized void doRecord(final ClassLoader loader, final String className) {
+    if (defined == null)
+      return;
+
+    List<ClassLoader> loaders = defined.get(className);
+    if (loaders == null)
+      defined.put(className, loaders = new ArrayList<>(1));
+
+    loaders.add(loader);
+  }
+
+  private synchronized void onPending() {
+    if (pending++ == 0)
+      defined = new HashMap<>();
+  }
+
+  /**
+   * Completes a pending installation. The recorded classes are retained while
+   * other installations are pending, since the rules of those are yet to be
+   * installed.
+   *
+   * @return A copy of the classes that have been recorded.
+   */
+  private synchronized Map<String,List<ClassLoader>> drain() {
+    final Map<String,List<ClassLoader>> drained = new HashMap<>();
+    for (final Map.Entry<String,List<ClassLoader>> entry : defined.entrySet())
+      drained.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+
+    if (--pending == 0)
+      defined = null;
+
+    return drained;
+  }
+
+  private synchronized void removeIfDone() {
+    if (pending == 0 && nameToTriggers.isEmpty())
+      inst.removeTransformer(this);
+  }
+
+  /**
+   * Retransforms the specified classes that were defined while the rules were
+   * being installed, so that they are transformed by the installed rules.
+   * The classes that have been defined are found in a single pass over the
+   * loaded classes. A class that is still being defined is loaded by name
+   * from its class loader, which waits on the class loading lock of the
+   * class until its definition completes. Retransforming a class that was
+   * already transformed by the rules is idempotent.
+   *
+   * @param defined The names of the classes that were defined, mapped to the
+   *          class loaders by which they were defined.
+   */
+  void retransform(final Map<String,List<ClassLoader>> defined) {
+    if (defined.isEmpty())
+      return;
+
+    final List<Class<?>> classes = new ArrayList<>();
+    for (final Class<?> cls : inst.getAllLoadedClasses()) {
+      final List<ClassLoader> loaders = defined.get(cls.getName().replace('.', '/'));
+      if (loaders != null && loaders.remove(cls.getClassLoader()))
+        classes.add(cls);
+    }
+
+    for (final Map.Entry<String,List<ClassLoader>> entry : defined.entrySet()) {
+      final String name = entry.getKey().replace('/', '.');
+      for (final ClassLoader loader : entry.getValue()) {
+        try {
+          final Class<?> cls = Class.forName(name, false, loader);
+          if (cls.getClassLoader() == loader)
+            classes.add(cls);
+        }
+        catch (final ClassNotFoundException | LinkageError e) {
+          // The definition of the class failed, so there is nothing to retransform
+          if (logger.isLoggable(Level.FINE))
+            logger.fine("Class " + name + " was not defined, and was not retransformed: " + e);
+        }
+      }
+    }
+
+    for (final Class<?> cls : classes) {
+      try {
+        if (inst.isModifiableClass(cls))
+          inst.retransformClasses(cls);
+      }
+      catch (final Exception | LinkageError e) {
+        logger.log(Level.WARNING, "Unable to retransform class " + cls.getName(), e);
+      }
+    }
+  }
+
+  @Override
+  public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+    if (className == null || classBeingRedefined != null)
+      return null;
+
+    final Trigger[] triggers = nameToTriggers.containsKey(className) ? remove(className) : NO_TRIGGERS;
+    if (triggers.length > 0)
+      onPending();
+
+    record(loader, className);
+    if (triggers.length == 0)
+      return null;
+
+    getExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (final Trigger trigger : triggers)
+            trigger.fire();
+        }
+        finally {
+          retransform(drain());
+          removeIfDone();
+        }
+      }
+    });
+
+    return null;
+  }
+}
@@ -0,0 +1,230 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.pool.TypePool;
+
+/**
+ * A {@link AgentBuilder.PoolStrategy} that shares one cache of resolved
+ * {@link TypePool.Resolution}s per {@code ClassLoader} among all of the
+ * {@code AgentBuilder}s of the SpecialAgent, so that the type descriptions of
+ * common supertypes (i.e. {@code java.lang.Thread}, or
+ * {@code javax.servlet.http.HttpServlet}) are parsed once, rather than once
+ * for each installed rule. The caches are weakly keyed by
+ * {@code ClassLoader}, and each is bounded to {@link #SIZE_PROPERTY} entries
+ * by an approximation of least-recently-used eviction. Lookups of the caches
+ * do not block, so that concurrent class loading is not serialized by this
+ * strategy.
+ */
+class TypePoolCache extends AgentBuilder.PoolStrategy.WithTypePoolCache {
+  private static final Logger logger = Logger.getLogger(TypePoolCache.class);
+  static final String SIZE_PROPERTY = "sa.instrumentation.typepool.size";
+  private static final int DEFAULT_SIZE = 2048;
+
+  static final TypePoolCache INSTANCE = new TypePoolCache(getSize());
+
+  private static int getSize() {
+    final String size = System.getProperty(SIZE_PROPERTY);
+    if (size == null)
+      return DEFAULT_SIZE;
+
+    try {
+      return Integer.parseInt(size);
+    }
+    catch (final NumberFormatException e) {
+      logger.warning("Illegal value for " + SIZE_PROPERTY + ": " + size);
+      return DEFAULT_SIZE;
+    }
+  }
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicInteger entries = new AtomicInteger();
+  private final WeakIdentityMap<ClassLoader,BoundedCacheProvider> classLoaderToCache = new WeakIdentityMap<>();
+  private final BoundedCacheProvider bootstrapCache;
+  private final int maxSize;
+
+  /**
+   * Creates a new {@code TypePoolCache} with the specified maximum number of
+   * entries per {@code ClassLoader}.
+   *
+   * @param maxSize The maximum number of entries per {@code ClassLoader}. If
+   *          {@code maxSize} is not positive, nothing is cached.
+   */
+  TypePoolCache(final int maxSize) {
+    super(TypePool.Default.ReaderMode.FAST);
+    this.maxSize = maxSize;
+    this.bootstrapCache = new BoundedCacheProvider();
+  }
+
+  @Override
+  protected TypePool.CacheProvider locate(final ClassLoader classLoader) {
+    if (maxSize <= 0)
+      return TypePool.CacheProvider.NoOp.INSTANCE;
+
+    if (classLoader == null)
+      return bootstrapCache;
+
+    final BoundedCacheProvider cache = classLoaderToCache.get(classLoader);
+    if (cache != null)
+      return cache;
+
+    final BoundedCacheProvider created = new BoundedCacheProvider();
+    final BoundedCacheProvider previous = classLoaderToCache.putIfAbsent(classLoader, created);
+    return previous != null ? previous : created;
+  }
+
+  /**
+   * Returns a summary of the hit rate, the number of entries and the
+   * evictions of this cache, followed by the current Heap and Metaspace (or
+   * Perm Gen) usage of the whole VM, which is not attributable to this cache
+   * alone.
+   *
+   * @return A summary of the hit rate and the size of this cache.
+   */
+  String getStatistics() {
+    final long hits = this.hits.get();
+    final long misses = this.misses.get();
+    final long total = hits + misses;
+    final StringBuilder builder = new StringBuilder("TypePoolCache: ");
+    builder.append(hits).append(" hits, ").append(misses).append(" misses (");
+    builder.append(total == 0 ? 0 : hits * 100 / total).append("% hit rate), ");
+    builder.append(entries.get()).append(" entries in ").append(classLoaderToCache.size() + (bootstrapCache.size.get() > 0 ? 1 : 0)).append(" class loaders, ");
+    builder.append(evictions.get()).append(" evictions; VM-wide heap used: ");
+    builder.append(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1024).append("KB");
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      if ("Metaspace".equals(pool.getName()) || pool.getName().endsWith("Perm Gen"))
+        builder.append(", VM-wide ").append(pool.getName().toLowerCase()).append(" used: ").append(pool.getUsage().getUsed() / 1024).append("KB");
+
+    return builder.toString();
+  }
+
+  /**
+   * Logs the {@link #getStatistics() statistics} of this cache at
+   * {@link Level#FINE}.
+   */
+  void logStatistics() {
+    if (logger.isLoggable(Level.FINE))
+      logger.fine(getStatistics());
+  }
+
+  /**
+   * A cached {@link TypePool.Resolution}, with the mark of whether it has been
+   * found since it was last considered for eviction.
+   */
+  private static final class Entry {
+    private final TypePool.Resolution resolution;
+    private volatile boolean referenced;
+
+    private Entry(final TypePool.Resolution resolution) {
+      this.resolution = resolution;
+    }
+  }
+
+  /**
+   * A {@link TypePool.CacheProvider} that evicts {@link TypePool.Resolution}s
+   * when its size exceeds {@link #maxSize}. Eviction approximates
+   * least-recently-used order with the "second chance" (or clock) algorithm:
+   * the entries that were found since they were last passed over are spared
+   * once, and the others are evicted. Lookups only set the mark of the found
+   * entry, and eviction is performed by one registering thread at a time.
+   */
+  private final class BoundedCacheProvider implements TypePool.CacheProvider {
+    private final ConcurrentMap<String,Entry> storage = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private Iterator<Map.Entry<String,Entry>> hand;
+
+    @Override
+    public TypePool.Resolution find(final String name) {
+      final Entry entry = storage.get(name);
+      if (entry == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+
+      if (!entry.referenced)
+        entry.referenced = true;
+
+      hits.incrementAndGet();
+      return entry.resolution;
+    }
+
+    @Override
+    public TypePool.Resolution register(final String name, final TypePool.Resolution resolution) {
+      final Entry previous = storage.putIfAbsent(name, new Entry(resolution));
+      if (previous != null)
+        return previous.resolution;
+
+      entries.incrementAndGet();
+      if (size.incrementAndGet() > maxSize)
+        evict();
+
+      return resolution;
+    }
+
+    private void evict() {
+      if (!evicting.compareAndSet(false, true))
+        return;
+
+      try {
+        while (size.get() > maxSize) {
+          if (hand == null || !hand.hasNext()) {
+            hand = storage.entrySet().iterator();
+            if (!hand.hasNext())
+              break;
+          }
+
+          final Map.Entry<String,Entry> next = hand.next();
+          final Entry entry = next.getValue();
+          if (entry.referenced)
+            entry.referenced = false;
+          else if (storage.remove(next.getKey(), entry))
+            onRemove(true);
+        }
+      }
+      finally {
+        evicting.set(false);
+      }
+    }
+
+    private void onRemove(final boolean evicted) {
+      size.decrementAndGet();
+      entries.decrementAndGet();
+      if (evicted)
+        evictions.incrementAndGet();
+    }
+
+    @Override
+    public void clear() {
+      for (final String name : storage.keySet())
+        if (storage.remove(name) != null)
+          onRemove(false);
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * Offline (build-time) weaver that applies the {@code AgentRule}s of
+ * Instrumentation Plugins to the classes of application JARs, and writes the
+ * pre-woven JARs to a destination directory. Each pre-woven JAR contains a
+ * {@link UtilConstants#META_INF_WOVEN_FILE} that lists the woven classes and
+ * the names of the plugins that were applied to them, which the
+ * {@link WovenClasses} registry reads at runtime to skip the matching and
+ * transformation of these classes, and to only link the plugins into the
+ * class loaders that define them.
+ */
+public final class Weaver {
+  private static final Logger logger = Logger.getLogger(Weaver.class);
+
+  private static final class Plugin {
+    private final String name;
+    private final List<ClassFileTransformer> transformers = new ArrayList<>();
+
+    private Plugin(final String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Entrypoint to weave JARs from the command line.
+   *
+   * @param args The arguments: {@code <destDir> <rulePath> <jar>...}, where
+   *          {@code <rulePath>} is a {@link File#pathSeparator}-delimited list
+   *          of plugin JARs.
+   * @throws IOException If an I/O error has occurred.
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println("Usage: <destDir> <rulePath> <jar>...");
+      System.exit(1);
+    }
+
+    final File[] jarFiles = new File[args.length - 2];
+    for (int i = 2; i < args.length; ++i)
+      jarFiles[i - 2] = new File(args[i]);
+
+    weave(SpecialAgentUtil.classPathToFiles(args[1]), jarFiles, new File(args[0]));
+  }
+
+  private static List<Plugin> loadPlugins(final ClassLoader ruleClassLoader, final File[] ruleFiles) throws IOException {
+    final List<Plugin> plugins = new ArrayList<>();
+    for (final File ruleFile : ruleFiles) {
+      final PluginManifest pluginManifest = PluginManifest.getPluginManifest(ruleFile);
+      if (pluginManifest == null || pluginManifest.type != PluginManifest.Type.INSTRUMENTATION)
+        continue;
+
+      final String rules = AssembleUtil.readFileFromJar(ruleFile, ByteBuddyManager.RULES_FILE);
+      if (rules == null)
+        continue;
+
+      final Plugin plugin = new Plugin(pluginManifest.name);
+      for (String line : rules.split("\n")) {
+        line = line.trim();
+        if (line.length() == 0 || line.charAt(0) == '#')
+          continue;
+
+        try {
+          final Class<?> agentClass = Class.forName(line, false, ruleClassLoader);
+          if (!AgentRule.class.isAssignableFrom(agentClass)) {
+            logger.severe("Class " + agentClass.getName() + " does not implement " + AgentRule.class);
+            continue;
+          }
+
+          AgentRule.classNameToName.put(agentClass.getName(), pluginManifest.name);
+          final AgentRule agentRule = (AgentRule)agentClass.getConstructor().newInstance();
+          for (final AgentBuilder builder : agentRule.buildAgent(ByteBuddyManager.newBuilder()))
+            plugin.transformers.add(builder.with(new ErrorListener(pluginManifest.name)).makeRaw());
+
+          final MergedAdvice mergedAdvice = new MergedAdvice();
+          if (mergedAdvice.add(agentRule, -1, null))
+            plugin.transformers.add(mergedAdvice.apply(ByteBuddyManager.newBuilder()).with(new ErrorListener(pluginManifest.name)).makeRaw());
+        }
+        catch (final Exception e) {
+          logger.log(Level.SEVERE, "[" + pluginManifest.name + "] Unable to load rule: " + line, e);
+        }
+      }
+
+      if (plugin.transformers.size() > 0)
+        plugins.add(plugin);
+    }
+
+    return plugins;
+  }
+
+  private static boolean isSigned(final JarFile jarFile) {
+    final Enumeration<JarEntry> entries = jarFile.entries();
+    while (entries.hasMoreElements()) {
+      final String name = entries.nextElement().getName();
+      if (name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC")))
+        return true;
+    }
+
+    return false;
+  }
+
+  private static int weave(final List<Plugin> plugins, final ClassLoader classLoader, final File jarFile, final File destFile) throws IOException {
+    final StringBuilder woven = new StringBuilder();
+    int count = 0;
+    try (
+      final JarFile in = new JarFile(jarFile);
+      final JarOutputStream out = new JarOutputStream(new FileOutputStream(destFile));
+    ) {
+      final boolean skip = isSigned(in) || in.getEntry(UtilConstants.META_INF_WOVEN_FILE) != null;
+      if (skip && logger.isLoggable(Level.FINE))
+        logger.fine("Copying signed or already woven JAR without weaving: " + jarFile);
+
+      final Enumeration<JarEntry> entries = in.entries();
+      while (entries.hasMoreElements()) {
+        final JarEntry entry = entries.nextElement();
+        final String name = entry.getName();
+        byte[] bytes;
+        try (final InputStream stream = in.getInputStream(entry)) {
+          bytes = AssembleUtil.readBytes(stream);
+        }
+
+        if (!skip && name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class")) {
+          final String className = name.substring(0, name.length() - 6);
+          final Set<String> pluginNames = new LinkedHashSet<>();
+          for (final Plugin plugin : plugins) {
+            for (final ClassFileTransformer transformer : plugin.transformers) {
+              try {
+                final byte[] transformed = transformer.transform(classLoader, className, null, null, bytes);
+                if (transformed != null) {
+                  bytes = transformed;
+                  pluginNames.add(plugin.name);
+                }
+              }
+              catch (final IllegalClassFormatException e) {
+                logger.log(Level.WARNING, "[" + plugin.name + "] Unable to weave " + className, e);
+              }
+            }
+          }
+
+          if (pluginNames.size() > 0) {
+            ++count;
+            for (final String pluginName : pluginNames)
+              woven.append(className.replace('/', '.')).append(' ').append(pluginName).append('\n');
+
+            if (logger.isLoggable(Level.FINE))
+              logger.fine("Woven " + className.replace('/', '.') + " with " + pluginNames);
+          }
+        }
+
+        final JarEntry outEntry = new JarEntry(name);
+        outEntry.setTime(entry.getTime());
+        out.putNextEntry(outEntry);
+        out.write(bytes);
+        out.closeEntry();
+      }
+
+      if (count > 0) {
+        out.putNextEntry(new JarEntry(UtilConstants.META_INF_WOVEN_FILE));
+        out.write(woven.toString().getBytes());
+        out.closeEntry();
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Applies the {@code AgentRule}s of the Instrumentation Plugins in
+   * {@code ruleFiles} to the classes in {@code jarFiles}, and writes the
+   * resulting JARs (by the same file names) to {@code destDir}. JARs that are
+   * signed, or have already been woven, are copied without modification.
+   *
+   * @param ruleFiles The plugin JARs.
+   * @param jarFiles The JARs to weave. All of the JARs are used to resolve the
+   *          type hierarchies of the woven classes, so this array should
+   *          include the full runtime classpath of the application.
+   * @param destDir The directory to which the woven JARs are to be written.
+   * @return The number of woven classes.
+   * @throws IOException If an I/O error has occurred.
+   * @throws IllegalArgumentException If two JARs in {@code jarFiles} have the
+   *           same file name.
+   */
+  public static int weave(final File[] ruleFiles, final File[] jarFiles, final File destDir) throws IOException {
+    final Set<String> names = new LinkedHashSet<>();
+    for (final File jarFile : jarFiles)
+      if (!names.add(jarFile.getName()))
+        throw new IllegalArgumentException("Duplicate JAR file name: " + jarFile.getName());
+
+    destDir.mkdirs();
+    int count = 0;
+    try (
+      final URLClassLoader ruleClassLoader = new URLClassLoader(AssembleUtil.toURLs(ruleFiles), Weaver.class.getClassLoader());
+      final URLClassLoader classLoader = new URLClassLoader(AssembleUtil.toURLs(jarFiles), null);
+    ) {
+      final List<Plugin> plugins = loadPlugins(ruleClassLoader, ruleFiles);
+      if (logger.isLoggable(Level.FINE))
+        logger.fine("Weaving " + jarFiles.length + " JARs with " + plugins.size() + " plugins");
+
+      for (final File jarFile : jarFiles)
+        count += weave(plugins, classLoader, jarFile, new File(destDir, jarFile.getName()));
+    }
+
+    return count;
+  }
+
+  private static final class ErrorListener extends AgentBuilder.Listener.Adapter {
+    private final String pluginName;
+
+    private ErrorListener(final String pluginName) {
+      this.pluginName = pluginName;
+    }
+
+    @Override
+    public void onError(final String typeName, final ClassLoader classLoader, final JavaModule module, final boolean loaded, final Throwable throwable) {
+      logger.log(Level.WARNING, "[" + pluginName + "] Unable to weave " + typeName, throwable);
+    }
+  }
+
+  private Weaver() {
+  }
+}
@@ -0,0 +1,206 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.net.URL;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * Registry of the classes that were woven offline by the {@link Weaver}, as
+ * listed in the {@link UtilConstants#META_INF_WOVEN_FILE} resources visible to
+ * each class loader. The registry provides a {@link AgentBuilder.RawMatcher}
+ * per plugin, by which the plugin's {@code AgentBuilder}s ignore the classes
+ * that have already been woven with the plugin, and is itself a
+ * {@code ClassFileTransformer} that links the plugins of a woven class into
+ * the class loader that defines it.
+ */
+class WovenClasses implements ClassFileTransformer {
+  private static final Logger logger = Logger.getLogger(WovenClasses.class);
+
+  private static final ThreadLocal<Set<ClassLoader>> reading = new ThreadLocal<Set<ClassLoader>>() {
+    @Override
+    protected Set<ClassLoader> initialValue() {
+      return Collections.newSetFromMap(new IdentityHashMap<ClassLoader,Boolean>());
+    }
+  };
+
+  private final WeakIdentityMap<ClassLoader,Map<String,String[]>> classLoaderToWoven = new WeakIdentityMap<>();
+  private final Map<String,Integer> nameToIndex;
+
+  /**
+   * Creates a new {@code WovenClasses} registry.
+   *
+   * @param nameToIndex The map of plugin names to the indices of the plugin
+   *          JARs, as provided to {@link SpecialAgent#linkRule(int,ClassLoader)}.
+   */
+  WovenClasses(final Map<String,Integer> nameToIndex) {
+    this.nameToIndex = nameToIndex;
+  }
+
+  private static Map<String,String[]> readWoven(final ClassLoader classLoader) throws IOException {
+    final Map<String,String[]> classNameToPluginNames = new HashMap<>();
+    final Enumeration<URL> resources = classLoader.getResources(UtilConstants.META_INF_WOVEN_FILE);
+    while (resources.hasMoreElements()) {
+      final URL resource = resources.nextElement();
+      for (final String line : new String(AssembleUtil.readBytes(resource)).split("\n")) {
+        final int space = line.indexOf(' ');
+        if (space == -1)
+          continue;
+
+        final String className = line.substring(0, space);
+        final String pluginName = line.substring(space + 1).trim();
+        final String[] pluginNames = classNameToPluginNames.get(className);
+        if (pluginNames == null) {
+          classNameToPluginNames.put(className, new String[] {pluginName});
+        }
+        else if (!Arrays.asList(pluginNames).contains(pluginName)) {
+          final String[] copy = Arrays.copyOf(pluginNames, pluginNames.length + 1);
+          copy[pluginNames.length] = pluginName;
+          classNameToPluginNames.put(className, copy);
+        }
+      }
+    }
+
+    return classNameToPluginNames.size() == 0 ? Collections.<String,String[]>emptyMap() : classNameToPluginNames;
+  }
+
+  /**
+   * Returns the names of the plugins with which the class by the specified
+   * name was woven, as visible to the specified {@code ClassLoader}.
+   *
+   * @param classLoader The {@code ClassLoader}.
+   * @param className The name of the class.
+   * @return The names of the plugins with which the class was woven, or
+   *         {@code null} if the class was not woven.
+   */
+  String[] getPluginNames(final ClassLoader classLoader, final String className) {
+    if (classLoader == null)
+      return null;
+
+    Map<String,String[]> woven = classLoaderToWoven.get(classLoader);
+    if (woven == null) {
+      // Guard against re-entry from class loading that is triggered on this
+      // thread while the resources are being read. The resources are read
+      // outside of any lock, so that a class loader that is locked by another
+      // thread cannot deadlock with the transformer.
+      final Set<ClassLoader> reading = WovenClasses.reading.get();
+      if (!reading.add(classLoader))
+        return null;
+
+      try {
+        woven = readWoven(classLoader);
+      }
+      catch (final IOException e) {
+        logger.log(Level.WARNING, "Unable to read " + UtilConstants.META_INF_WOVEN_FILE + " from " + AssembleUtil.getNameId(classLoader), e);
+        woven = Collections.emptyMap();
+      }
+      finally {
+        reading.remove(classLoader);
+      }
+
+      final Map<String,String[]> existing = classLoaderToWoven.putIfAbsent(classLoader, woven);
+      if (existing != null)
+        woven = existing;
+    }
+
+    return woven.get(className);
+  }
+
+  /**
+   * Returns a {@link AgentBuilder.RawMatcher} that matches the classes that
+   * have been woven with the plugin by the specified name.
+   *
+   * @param pluginName The name of the plugin.
+   * @return A {@link AgentBuilder.RawMatcher} that matches the classes that
+   *         have been woven with the plugin by the specified name.
+   */
+  AgentBuilder.RawMatcher matcher(final String pluginName) {
+    return new AgentBuilder.RawMatcher() {
+      @Override
+      public boolean matches(final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain) {
+        final String[] pluginNames = getPluginNames(classLoader, typeDescription.getName());
+        if (pluginNames != null)
+          for (final String name : pluginNames)
+            if (name.equals(pluginName))
+              return true;
+
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Links the plugin at the specified index into the specified class loader.
+   *
+   * @param index The index of the plugin JAR.
+   * @param classLoader The {@code ClassLoader} into which the plugin is to be
+   *          linked.
+   * @return Whether the plugin is compatible with, and was linked into the
+   *         class loader.
+   * @see SpecialAgent#linkRule(int,ClassLoader)
+   */
+  boolean linkRule(final int index, final ClassLoader classLoader) {
+    return SpecialAgent.linkRule(index, classLoader);
+  }
+
+  private void link(final ClassLoader classLoader, final String className) {
+    final String[] pluginNames = getPluginNames(classLoader, className);
+    if (pluginNames == null)
+      return;
+
+    for (final String pluginName : pluginNames) {
+      final Integer index = nameToIndex.get(pluginName);
+      if (index == null)
+        logger.severe("Class " + className + " was woven with plugin \"" + pluginName + "\", which is not enabled");
+      else if (!linkRule(index, classLoader))
+        logger.severe("Class " + className + " was woven with plugin \"" + pluginName + "\", which is incompatible with " + AssembleUtil.getNameId(classLoader));
+      else if (logger.isLoggable(Level.FINE))
+        logger.fine("Linked plugin \"" + pluginName + "\" for woven class " + className);
+    }
+  }
+
+  /**
+   * Links the plugins of the woven classes in the specified array of loaded
+   * classes into the class loaders that defined them.
+   *
+   * @param classes The array of loaded classes.
+   */
+  void linkLoaded(final Class<?>[] classes) {
+    for (final Class<?> cls : classes)
+      link(cls.getClassLoader(), cls.getName());
+  }
+
+  @Override
+  public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+    if (className != null && classBeingRedefined == null)
+      link(loader, className.replace('/', '.'));
+
+    return null;
+  }
+}
@@ -397,6 +397,12 @@ public class AgentRunner extends BlockJUnit4ClassRunner {
       e.printStackTrace();
       throw new IllegalStateException(e.getMessage(), e.getCause());
     }
+
+    // Fail the test if -Dsa.profile.budget is specified, and a phase of the
+    // startup exceeded its budget
+    final List<String> violations = StartupProfiler.getViolations();
+    if (violations.size() > 0)
+      throw new IllegalStateException("Startup phases exceeded budget:\n" + AssembleUtil.toIndentedString(violations));
   }
 
   private int delta = Integer.MAX_VALUE;
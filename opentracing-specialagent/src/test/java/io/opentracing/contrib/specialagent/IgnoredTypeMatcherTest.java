@@ -0,0 +1,70 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static org.junit.Assert.*;
+
+import java.net.URLClassLoader;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IgnoredTypeMatcher}.
+ */
+public class IgnoredTypeMatcherTest {
+  @Test
+  public void testDefaults() {
+    final IgnoredTypeMatcher matcher = new IgnoredTypeMatcher(IgnoredTypeMatcher.DEFAULTS);
+    assertTrue(matcher.isIgnored(String.class.getName()));
+    assertTrue(matcher.isIgnored("sun.reflect.GeneratedMethodAccessor1"));
+    assertTrue(matcher.isIgnored("com.sun.proxy.$Proxy12"));
+    assertTrue(matcher.isIgnored("javax.xml.parsers.DocumentBuilder"));
+    assertTrue(matcher.isIgnored("net.bytebuddy.description.type.TypeDescription"));
+
+    assertFalse(matcher.isIgnored(ClassLoader.class.getName()));
+    assertFalse(matcher.isIgnored(URLClassLoader.class.getName()));
+    assertFalse(matcher.isIgnored(Thread.class.getName()));
+    assertFalse(matcher.isIgnored("java.lang.VirtualThread"));
+    assertFalse(matcher.isIgnored(ThreadPoolExecutor.class.getName()));
+    assertFalse(matcher.isIgnored("java.sql.DriverManager"));
+    assertFalse(matcher.isIgnored("jdk.internal.loader.BuiltinClassLoader"));
+    assertFalse(matcher.isIgnored("sun.misc.Launcher$AppClassLoader"));
+    assertFalse(matcher.isIgnored("javax.servlet.http.HttpServlet"));
+    assertFalse(matcher.isIgnored("okhttp3.OkHttpClient"));
+  }
+
+  @Test
+  public void testGenerated() {
+    final IgnoredTypeMatcher matcher = new IgnoredTypeMatcher();
+    assertTrue(matcher.isIgnored("com.example.Main$$Lambda$1/1324119927"));
+    assertTrue(matcher.isIgnored("com.example.Service$$EnhancerBySpringCGLIB$$2c1e3b8d"));
+    assertTrue(matcher.isIgnored("com.example.Service$$FastClassByCGLIB$$b7c5d1e0"));
+    assertTrue(matcher.isIgnored("com.example.$Proxy7"));
+    assertFalse(matcher.isIgnored("com.example.$ProxyFactory"));
+    assertFalse(matcher.isIgnored("com.example.Service$Inner"));
+  }
+
+  @Test
+  public void testLongestPrefix() {
+    final IgnoredTypeMatcher matcher = new IgnoredTypeMatcher("com.example.", "!com.example.traced.", "com.example.traced.Internal", "");
+    assertTrue(matcher.isIgnored("com.example.Hot"));
+    assertFalse(matcher.isIgnored("com.example.traced.Service"));
+    assertTrue(matcher.isIgnored("com.example.traced.InternalService"));
+    assertFalse(matcher.isIgnored("com.examples.Other"));
+    assertFalse(matcher.isIgnored("com"));
+  }
+}
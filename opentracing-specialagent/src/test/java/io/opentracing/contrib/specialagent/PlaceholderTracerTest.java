@@ -0,0 +1,150 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+
+/**
+ * Tests for {@link PlaceholderTracer}.
+ */
+public class PlaceholderTracerTest {
+  @Test
+  public void testHandOff() {
+    final PlaceholderTracer placeholderTracer = new PlaceholderTracer(10);
+    final Span parent = placeholderTracer.buildSpan("parent").withStartTimestamp(1000).start();
+    try (final Scope scope = placeholderTracer.activateSpan(parent)) {
+      final Span child = placeholderTracer.buildSpan("child").withTag("early", true).withStartTimestamp(2000).start();
+      child.setTag("count", 1);
+      child.log(3000, "event");
+      child.finish(4000);
+    }
+
+    final MockTracer tracer = new MockTracer();
+    placeholderTracer.handOff(tracer);
+    List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(1, spans.size());
+    final MockSpan child = spans.get(0);
+    assertEquals("child", child.operationName());
+    assertEquals(2000, child.startMicros());
+    assertEquals(4000, child.finishMicros());
+    assertEquals(Boolean.TRUE, child.tags().get("early"));
+    assertEquals(1, child.tags().get("count"));
+    assertEquals("event", child.logEntries().get(0).fields().get("event"));
+
+    // The parent is started at the hand off, but is finished afterwards
+    parent.finish(5000);
+    spans = tracer.finishedSpans();
+    assertEquals(2, spans.size());
+    final MockSpan mockParent = spans.get(1);
+    assertEquals("parent", mockParent.operationName());
+    assertEquals(1000, mockParent.startMicros());
+    assertEquals(mockParent.context().spanId(), child.parentId());
+    assertEquals(mockParent.context().traceId(), child.context().traceId());
+
+    // After the hand off, spans are created by the actual tracer
+    placeholderTracer.buildSpan("late").start().finish();
+    assertEquals(3, tracer.finishedSpans().size());
+  }
+
+  @Test
+  public void testScopeAcrossHandOff() {
+    final PlaceholderTracer placeholderTracer = new PlaceholderTracer(10);
+    final Span parent = placeholderTracer.buildSpan("parent").start();
+    final MockTracer tracer = new MockTracer();
+    try (final Scope scope = placeholderTracer.activateSpan(parent)) {
+      placeholderTracer.handOff(tracer);
+
+      // The scope that was activated before the hand off remains active
+      assertSame(parent, placeholderTracer.activeSpan());
+      final Span child = placeholderTracer.buildSpan("child").start();
+      try (final Scope childScope = placeholderTracer.activateSpan(child)) {
+        assertSame(child, placeholderTracer.activeSpan());
+        placeholderTracer.buildSpan("grandchild").start().finish();
+      }
+
+      assertSame(parent, placeholderTracer.activeSpan());
+      child.finish();
+    }
+
+    // Once the scopes of the placeholder are closed, calls are delegated
+    assertNull(placeholderTracer.activeSpan());
+    parent.finish();
+    final Span late = placeholderTracer.buildSpan("late").start();
+    try (final Scope scope = placeholderTracer.activateSpan(late)) {
+      assertSame(late, tracer.activeSpan());
+      assertSame(late, placeholderTracer.activeSpan());
+    }
+
+    late.finish();
+    final List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(4, spans.size());
+    final MockSpan grandchild = spans.get(0);
+    final MockSpan child = spans.get(1);
+    final MockSpan mockParent = spans.get(2);
+    assertEquals("grandchild", grandchild.operationName());
+    assertEquals("child", child.operationName());
+    assertEquals("parent", mockParent.operationName());
+    assertEquals(child.context().spanId(), grandchild.parentId());
+    assertEquals(mockParent.context().spanId(), child.parentId());
+    assertEquals(0, spans.get(3).parentId());
+  }
+
+  @Test
+  public void testDrop() {
+    final PlaceholderTracer placeholderTracer = new PlaceholderTracer(1);
+    placeholderTracer.buildSpan("first").start().finish();
+    placeholderTracer.buildSpan("second").start().finish();
+
+    final MockTracer tracer = new MockTracer();
+    placeholderTracer.handOff(tracer);
+    assertEquals(1, tracer.finishedSpans().size());
+    assertEquals("first", tracer.finishedSpans().get(0).operationName());
+  }
+
+  @Test
+  public void testDropReferenced() {
+    final PlaceholderTracer placeholderTracer = new PlaceholderTracer(1);
+    final Span parent = placeholderTracer.buildSpan("parent").start();
+    placeholderTracer.buildSpan("child").asChildOf(parent).start().finish();
+    parent.finish();
+
+    // The parent is dropped, so the child is replayed without its reference,
+    // rather than starting the parent in the actual tracer
+    final MockTracer tracer = new MockTracer();
+    placeholderTracer.handOff(tracer);
+    final List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(1, spans.size());
+    assertEquals("child", spans.get(0).operationName());
+    assertEquals(0, spans.get(0).parentId());
+  }
+
+  @Test
+  public void testNotResolved() {
+    final PlaceholderTracer placeholderTracer = new PlaceholderTracer(10);
+    placeholderTracer.buildSpan("early").start().finish();
+    placeholderTracer.handOff(null);
+    assertNotNull(placeholderTracer.buildSpan("late").start());
+  }
+}
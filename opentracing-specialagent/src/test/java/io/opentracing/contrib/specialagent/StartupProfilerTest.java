@@ -0,0 +1,65 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link StartupProfiler}.
+ */
+public class StartupProfilerTest {
+  private static StartupProfiler.Phase newPhase(final String name, final int depth, final long millis) {
+    final StartupProfiler.Phase phase = new StartupProfiler.Phase(name, depth);
+    phase.count = 1;
+    phase.nanos = millis * 1000000;
+    phase.bytes = 2048;
+    return phase;
+  }
+
+  @Test
+  public void testBudgets() {
+    final Map<String,Long> budgets = StartupProfiler.parseBudgets("*=100, loadRules=500");
+    assertEquals(Long.valueOf(100), budgets.get("*"));
+    assertEquals(Long.valueOf(500), budgets.get("loadRules"));
+
+    final List<StartupProfiler.Phase> phases = Arrays.asList(newPhase("premain", 0, 600), newPhase("loadTracer", 1, 50), newPhase("loadRules", 1, 400));
+    assertEquals(Arrays.asList("premain: 600ms > 100ms"), StartupProfiler.getViolations(phases, budgets));
+    assertEquals(0, StartupProfiler.getViolations(phases, StartupProfiler.parseBudgets(null)).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalBudget() {
+    StartupProfiler.parseBudgets("loadRules");
+  }
+
+  @Test
+  public void testReport() {
+    final List<StartupProfiler.Phase> phases = Arrays.asList(newPhase("premain", 0, 600), newPhase("loadTracer", 1, 50));
+    final String table = StartupProfiler.toTable(phases);
+    assertTrue(table, table.contains("\n  loadTracer"));
+    assertTrue(table, table.contains("50.000"));
+
+    final String json = StartupProfiler.toJson(phases, Arrays.asList("premain: 600ms > 100ms"));
+    assertTrue(json, json.contains("{\"name\": \"loadTracer\", \"depth\": 1, \"count\": 1, \"nanos\": 50000000, \"allocatedBytes\": 2048}"));
+    assertTrue(json, json.contains("\"violations\": [\"premain: 600ms > 100ms\"]"));
+  }
+}
@@ -0,0 +1,94 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
+import java.security.ProtectionDomain;
+
+import org.junit.Test;
+
+import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+
+/**
+ * Tests for {@link TransformationCache}.
+ */
+public class TransformationCacheTest {
+  private static class CountingTransformer extends ResettableClassFileTransformer.AbstractBase {
+    private int count;
+
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+      ++count;
+      if ("Abort".equals(className))
+        TransformationCache.abort();
+
+      return "Transform".equals(className) ? new byte[] {(byte)(classfileBuffer[0] + 1)} : null;
+    }
+
+    @Override
+    public boolean reset(final Instrumentation instrumentation, final ResettableClassFileTransformer classFileTransformer, final RedefinitionStrategy redefinitionStrategy, final RedefinitionStrategy.DiscoveryStrategy redefinitionDiscoveryStrategy, final RedefinitionStrategy.BatchAllocator redefinitionBatchAllocator, final RedefinitionStrategy.Listener redefinitionListener) {
+      return false;
+    }
+  }
+
+  @Test
+  public void test() throws Exception {
+    final File dir = Files.createTempDirectory("transformation-cache").toFile();
+    final ClassLoader classLoader = getClass().getClassLoader();
+
+    CountingTransformer target = new CountingTransformer();
+    TransformationCache cache = new TransformationCache(dir);
+    ClassFileTransformer transformer = cache.decorator("rule#0", -1).decorate(target);
+
+    // Misses for new inputs, and hits for repeated inputs
+    assertArrayEquals(new byte[] {2}, transformer.transform(classLoader, "Transform", null, null, new byte[] {1}));
+    assertArrayEquals(new byte[] {2}, transformer.transform(classLoader, "Transform", null, null, new byte[] {1}));
+    assertNull(transformer.transform(classLoader, "Skip", null, null, new byte[] {3}));
+    assertNull(transformer.transform(classLoader, "Skip", null, null, new byte[] {3}));
+    assertEquals(2, target.count);
+
+    // Retransformations are never cached
+    assertArrayEquals(new byte[] {2}, transformer.transform(classLoader, "Transform", Object.class, null, new byte[] {1}));
+    assertEquals(3, target.count);
+
+    // Aborted transformations are not cached
+    assertNull(transformer.transform(classLoader, "Abort", null, null, new byte[] {4}));
+    assertNull(transformer.transform(classLoader, "Abort", null, null, new byte[] {4}));
+    assertEquals(5, target.count);
+
+    cache.save();
+
+    // The saved results are used after a restart
+    target = new CountingTransformer();
+    cache = new TransformationCache(dir);
+    transformer = cache.decorator("rule#0", -1).decorate(target);
+    assertArrayEquals(new byte[] {2}, transformer.transform(classLoader, "Transform", null, null, new byte[] {1}));
+    assertNull(transformer.transform(classLoader, "Skip", null, null, new byte[] {3}));
+    assertEquals(0, target.count);
+
+    // The results of other transformers are not shared
+    target = new CountingTransformer();
+    transformer = cache.decorator("rule#1", -1).decorate(target);
+    assertArrayEquals(new byte[] {2}, transformer.transform(classLoader, "Transform", null, null, new byte[] {1}));
+    assertEquals(1, target.count);
+  }
+}
@@ -0,0 +1,321 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static net.bytebuddy.matcher.ElementMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.bytebuddy.agent.ByteBuddyAgent;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType.Builder;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * Tests for {@link TriggerTransformer}. Each {@link TriggerTransformer.Trigger}
+ * installs an {@code AgentBuilder} the way that {@link ByteBuddyManager}
+ * installs the rules of a deferred plugin, which advises the fixture classes
+ * by name. The fixture classes are defined in new class loaders, so that they
+ * are loaded after the {@link TriggerTransformer} is registered. The
+ * {@link Instrumentation} is attached as by {@link AgentRunner}, but without
+ * appending the agent to the bootstrap class path, so that the package-private
+ * {@link TriggerTransformer} remains accessible from this test.
+ */
+public class TriggerTransformerTest {
+  private static final Instrumentation inst = ByteBuddyAgent.install();
+  private static final String ADVISED = "advised";
+  private static final long TIMEOUT = 10000;
+
+  public static class FixtureA1 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureA2 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureB1 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureB2 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureB3 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureB4 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureC1 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureD1 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureD2 {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class ToAdvised {
+    @Advice.OnMethodExit
+    public static void exit(@Advice.Return(readOnly = false) String returned) {
+      returned = "advised";
+    }
+  }
+
+  /**
+   * A class loader that defines its own copies of the fixture classes.
+   */
+  private static final class FixtureClassLoader extends ClassLoader {
+    private FixtureClassLoader() {
+      super(TriggerTransformerTest.class.getClassLoader());
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+      if (!name.startsWith(FixtureA1.class.getName().replace("A1", "")))
+        return super.loadClass(name, resolve);
+
+      final Class<?> loaded = findLoadedClass(name);
+      if (loaded != null)
+        return loaded;
+
+      try (final InputStream in = getParent().getResourceAsStream(name.replace('.', '/').concat(".class"))) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        for (int len; (len = in.read(buffer)) != -1;)
+          out.write(buffer, 0, len);
+
+        final byte[] bytes = out.toByteArray();
+        return defineClass(name, bytes, 0, bytes.length);
+      }
+      catch (final IOException e) {
+        throw new ClassNotFoundException(name, e);
+      }
+    }
+  }
+
+  private static TriggerTransformer.Trigger newTrigger(final String ... names) {
+    ElementMatcher.Junction<TypeDescription> matcher = none();
+    for (final String name : names)
+      matcher = matcher.or(named(name));
+
+    final ElementMatcher<TypeDescription> typeMatcher = matcher;
+    return new TriggerTransformer.Trigger(null, names) {
+      @Override
+      void install() {
+        new AgentBuilder.Default()
+          .disableClassFormatChanges()
+          .with(RedefinitionStrategy.RETRANSFORMATION)
+          .type(typeMatcher)
+          .transform(new AgentBuilder.Transformer() {
+            @Override
+            public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
+              return builder.visit(Advice.to(ToAdvised.class).on(named("get")));
+            }})
+          .installOn(inst);
+      }
+    };
+  }
+
+  private static Object newFixture(final String name) throws Exception {
+    return Class.forName(name, true, new FixtureClassLoader()).newInstance();
+  }
+
+  private static String get(final Object fixture) throws Exception {
+    return (String)fixture.getClass().getMethod("get").invoke(fixture);
+  }
+
+  private static void awaitAdvised(final Object fixture) throws Exception {
+    final long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (!ADVISED.equals(get(fixture)) && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+
+    assertEquals(fixture.getClass().getName(), ADVISED, get(fixture));
+  }
+
+  @Test
+  public void testTriggerLoadedAfterPremain() throws Exception {
+    final TriggerTransformer triggerTransformer = new TriggerTransformer(inst);
+    triggerTransformer.register(newTrigger(FixtureA1.class.getName(), FixtureA2.class.getName()));
+    inst.addTransformer(triggerTransformer);
+
+    final Object trigger = newFixture(FixtureA1.class.getName());
+    awaitAdvised(trigger);
+    assertTrue(triggerTransformer.isEmpty());
+
+    // A class that is loaded after the rules are installed is advised upon its definition
+    assertEquals(ADVISED, get(newFixture(FixtureA2.class.getName())));
+  }
+
+  private static TriggerTransformer.Trigger newTrigger(final CountDownLatch fired, final String ... names) {
+    return new TriggerTransformer.Trigger(null, names) {
+      @Override
+      void install() {
+        fired.countDown();
+      }
+    };
+  }
+
+  @Test
+  public void testSharedTriggerName() throws Exception {
+    final CountDownLatch firedD1 = new CountDownLatch(2);
+    final CountDownLatch firedD2 = new CountDownLatch(1);
+    final TriggerTransformer triggerTransformer = new TriggerTransformer(inst);
+    triggerTransformer.register(newTrigger(firedD1, FixtureD1.class.getName()));
+    triggerTransformer.register(newTrigger(firedD1, FixtureD1.class.getName(), FixtureD2.class.getName()));
+    triggerTransformer.register(newTrigger(firedD2, FixtureD2.class.getName()));
+    inst.addTransformer(triggerTransformer);
+
+    // Both triggers of the shared name are fired, but the trigger that is
+    // registered for the other name alone is not
+    newFixture(FixtureD1.class.getName());
+    assertTrue(firedD1.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertEquals(1, firedD2.getCount());
+    assertFalse(triggerTransformer.isEmpty());
+
+    newFixture(FixtureD2.class.getName());
+    assertTrue(firedD2.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertTrue(triggerTransformer.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentTriggers() throws Exception {
+    final String[] names = {FixtureB1.class.getName(), FixtureB2.class.getName(), FixtureB3.class.getName(), FixtureB4.class.getName()};
+    final TriggerTransformer triggerTransformer = new TriggerTransformer(inst);
+    for (final String name : names)
+      triggerTransformer.register(newTrigger(name));
+
+    inst.addTransformer(triggerTransformer);
+    final CyclicBarrier barrier = new CyclicBarrier(names.length);
+    final Object[] fixtures = new Object[names.length];
+    final List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < names.length; ++i) {
+      final int index = i;
+      final Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+            fixtures[index] = newFixture(names[index]);
+          }
+          catch (final Exception e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    for (final Thread thread : threads)
+      thread.join(TIMEOUT);
+
+    for (final Object fixture : fixtures)
+      awaitAdvised(fixture);
+
+    assertTrue(triggerTransformer.isEmpty());
+  }
+
+  @Test
+  public void testInstalledDuringDefinition() throws Exception {
+    final String name = FixtureC1.class.getName();
+    final CountDownLatch installed = new CountDownLatch(1);
+    final TriggerTransformer triggerTransformer = new TriggerTransformer(inst);
+    final TriggerTransformer.Trigger trigger = newTrigger(name);
+    triggerTransformer.register(new TriggerTransformer.Trigger(null, trigger.names) {
+      @Override
+      void install() {
+        trigger.install();
+        installed.countDown();
+      }
+    });
+
+    // Hold the definition of the trigger class until the rules are installed,
+    // so that the class is neither seen by the transformer of the rules, nor
+    // among the loaded classes that the installation retransforms. The holder
+    // is retransform capable, so that it runs in the same pass as (but before)
+    // the transformer of the rules.
+    final ClassFileTransformer holder = new ClassFileTransformer() {
+      @Override
+      public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined, final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+        if (classBeingRedefined == null && name.replace('.', '/').equals(className)) {
+          try {
+            installed.await(TIMEOUT, TimeUnit.MILLISECONDS);
+          }
+          catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+
+        return null;
+      }
+    };
+
+    inst.addTransformer(triggerTransformer);
+    inst.addTransformer(holder, true);
+    try {
+      final Object fixture = newFixture(name);
+      assertEquals(0, installed.getCount());
+      awaitAdvised(fixture);
+    }
+    finally {
+      inst.removeTransformer(holder);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent;
+
+import static net.bytebuddy.matcher.ElementMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Test;
+
+import net.bytebuddy.agent.ByteBuddyAgent;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.DynamicType.Builder;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * Round-trip test of the {@link Weaver} and {@link WovenClasses}: a fixture
+ * JAR is woven with a fixture plugin offline, and is then loaded with the
+ * rules of the plugin installed as by {@link ByteBuddyManager}. The
+ * {@code agentrule:weave} goal delegates to {@link Weaver#weave}, which is
+ * tested here directly.
+ */
+public class WovenClassesTest {
+  private static final String PLUGIN_NAME = "fixture";
+  // Named by string, so that the fixture class is not loaded by this class loader
+  private static final String FIXTURE = "io.opentracing.contrib.specialagent.WovenClassesTest$Fixture";
+
+  public static class Fixture {
+    public String get() {
+      return "original";
+    }
+  }
+
+  public static class FixtureRule extends AgentRule {
+    @Override
+    public Iterable<? extends AgentBuilder> buildAgent(final AgentBuilder builder) throws Exception {
+      return Collections.singletonList(builder
+        .type(named(FIXTURE))
+        .transform(new AgentBuilder.Transformer() {
+          @Override
+          public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
+            return builder.visit(Advice.to(FixtureAdvice.class).on(named("get")));
+          }}));
+    }
+  }
+
+  public static class FixtureAdvice {
+    @Advice.OnMethodExit
+    public static void exit(@Advice.Return(readOnly = false) String returned) {
+      returned += "+advised";
+    }
+  }
+
+  private static class CountingListener extends AgentBuilder.Listener.Adapter {
+    private final List<ClassLoader> transformed = new ArrayList<>();
+
+    @Override
+    public void onTransformation(final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module, final boolean loaded, final DynamicType dynamicType) {
+      transformed.add(classLoader);
+    }
+  }
+
+  private static void writeJar(final File file, final String[] names, final byte[][] contents) throws Exception {
+    try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < names.length; ++i) {
+        out.putNextEntry(new JarEntry(names[i]));
+        out.write(contents[i]);
+        out.closeEntry();
+      }
+    }
+  }
+
+  private static String get(final ClassLoader classLoader) throws Exception {
+    final Class<?> cls = Class.forName(FIXTURE, true, classLoader);
+    return (String)cls.getMethod("get").invoke(cls.getConstructor().newInstance());
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    final File dir = Files.createTempDirectory("woven-classes").toFile();
+    final String entry = FIXTURE.replace('.', '/').concat(".class");
+    final byte[] bytes;
+    try (final InputStream in = WovenClassesTest.class.getClassLoader().getResourceAsStream(entry)) {
+      bytes = AssembleUtil.readBytes(in);
+    }
+
+    final File pluginFile = new File(dir, "plugin.jar");
+    writeJar(pluginFile, new String[] {"sa.plugin.name." + PLUGIN_NAME, ByteBuddyManager.RULES_FILE}, new byte[][] {new byte[0], FixtureRule.class.getName().getBytes()});
+    final File jarFile = new File(dir, "fixture.jar");
+    writeJar(jarFile, new String[] {entry}, new byte[][] {bytes});
+
+    // Weave the fixture JAR offline
+    final File destDir = new File(dir, "woven");
+    assertEquals(1, Weaver.weave(new File[] {pluginFile}, new File[] {jarFile}, destDir));
+    final File wovenFile = new File(destDir, jarFile.getName());
+    try (final JarFile wovenJar = new JarFile(wovenFile)) {
+      assertEquals(FIXTURE + " " + PLUGIN_NAME + "\n", new String(AssembleUtil.readBytes(wovenJar.getInputStream(wovenJar.getEntry(UtilConstants.META_INF_WOVEN_FILE)))));
+    }
+
+    // Install the rules of the plugin, and the registry of woven classes
+    final Instrumentation inst = ByteBuddyAgent.install();
+    final List<ClassLoader> linked = new ArrayList<>();
+    final WovenClasses wovenClasses = new WovenClasses(Collections.singletonMap(PLUGIN_NAME, 0)) {
+      @Override
+      boolean linkRule(final int index, final ClassLoader classLoader) {
+        assertEquals(0, index);
+        linked.add(classLoader);
+        return true;
+      }
+    };
+
+    final CountingListener listener = new CountingListener();
+    final ResettableClassFileTransformer transformer = new FixtureRule().buildAgent(ByteBuddyManager.newBuilder(wovenClasses.matcher(PLUGIN_NAME))).iterator().next().with(listener).installOn(inst);
+    inst.addTransformer(wovenClasses);
+    try {
+      // The woven class is linked, and is not transformed again
+      try (final URLClassLoader classLoader = new URLClassLoader(new URL[] {wovenFile.toURI().toURL()}, null)) {
+        assertEquals("original+advised", get(classLoader));
+        assertEquals(Collections.singletonList(classLoader), linked);
+        assertEquals(0, listener.transformed.size());
+      }
+
+      // The class that is not woven is transformed at runtime, and not linked
+      // by the registry
+      linked.clear();
+      try (final URLClassLoader classLoader = new URLClassLoader(new URL[] {jarFile.toURI().toURL()}, null)) {
+        assertEquals("original+advised", get(classLoader));
+        assertEquals(0, linked.size());
+        assertEquals(Collections.singletonList(classLoader), listener.transformed);
+      }
+    }
+    finally {
+      inst.removeTransformer(wovenClasses);
+      transformer.reset(inst, AgentBuilder.RedefinitionStrategy.RETRANSFORMATION);
+    }
+  }
+}
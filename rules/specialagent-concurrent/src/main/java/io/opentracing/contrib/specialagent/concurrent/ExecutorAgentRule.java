@@ -35,8 +35,9 @@ import net.bytebuddy.utility.JavaModule;
 public class ExecutorAgentRule extends AgentRule {
   @Override
   public Iterable<? extends AgentBuilder> buildAgent(final AgentBuilder builder) throws Exception {
+    // The tasks of a thread-per-task executor (JDK 21+) are propagated by the thread rule
     return Arrays.asList(builder
-      .type(isSubTypeOf(Executor.class))
+      .type(isSubTypeOf(Executor.class).and(not(named("java.util.concurrent.ThreadPerTaskExecutor"))))
       .transform(new Transformer() {
         @Override
         public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
@@ -34,7 +34,8 @@ public class JdbcAgentIntercept {
   }
 
   public static Connection connect(final String url, final Properties info) throws SQLException {
-    if (AgentRuleUtil.callerEquals(2, TracingDriver.class.getName() + ".connect"))
+    // In the slow query mode, the connection of the driver is wrapped on exit
+    if (SlowQueryTracing.get() != null || AgentRuleUtil.callerEquals(2, TracingDriver.class.getName() + ".connect"))
       return null;
 
     if (tracingDriver.get() == null) {
@@ -68,4 +69,9 @@ public class JdbcAgentIntercept {
 
     return tracingDriver.get().connect(!url.startsWith("jdbc:tracing:") ? "jdbc:tracing:" + url.substring(5) : url, info);
   }
+
+  public static Object exit(final Object connection, final String url) {
+    final SlowQueryTracing slowQueryTracing = SlowQueryTracing.get();
+    return slowQueryTracing == null || !(connection instanceof Connection) ? connection : slowQueryTracing.wrap((Connection)connection, url);
+  }
 }
\ No newline at end of file
@@ -90,11 +90,13 @@ public class JdbcAgentRule extends AgentRule {
   public static class DriverExit {
     @SuppressWarnings("unused")
     @Advice.OnMethodExit(onThrowable = Throwable.class)
-    public static void exit(@Advice.Return(readOnly = false, typing = Typing.DYNAMIC) Object returned, @Advice.Thrown(readOnly = false, typing = Typing.DYNAMIC) Throwable thrown) throws Exception {
+    public static void exit(final @Advice.Origin String origin, final @Advice.Argument(value = 0) String url, @Advice.Return(readOnly = false, typing = Typing.DYNAMIC) Object returned, @Advice.Thrown(readOnly = false, typing = Typing.DYNAMIC) Throwable thrown) throws Exception {
       if (thrown instanceof EarlyReturnException) {
         returned = ((EarlyReturnException)thrown).getReturnValue();
         thrown = null;
       }
+      else if (thrown == null && returned != null && isEnabled(origin))
+        returned = JdbcAgentIntercept.exit(returned, url);
     }
   }
 }
\ No newline at end of file
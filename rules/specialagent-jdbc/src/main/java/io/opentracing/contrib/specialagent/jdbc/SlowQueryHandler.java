@@ -0,0 +1,280 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+
+/**
+ * The {@link InvocationHandler} of the proxies of a {@link Connection} and of
+ * its {@link Statement}s in the slow query mode of {@link SlowQueryTracing},
+ * which times the execution of the statements, counts the size of their
+ * batches, and rolls up the executions of a {@link PreparedStatement} in the
+ * aggregate mode.
+ */
+public final class SlowQueryHandler implements InvocationHandler {
+  /**
+   * The rollup of the executions of a {@code PreparedStatement}. A rollup that
+   * has executions is pending in the {@link SlowQueryTracing}, and in the set
+   * of the rollups of its connection, until it is flushed.
+   */
+  static final class Rollup {
+    private final SlowQueryTracing tracing;
+    private final String sql;
+    private final String dbType;
+    private final Set<Rollup> connectionRollups;
+    private SpanContext parent;
+    private long windowStart;
+    private long startMicros;
+    private long endMicros;
+    private long executions;
+    private long totalNanos;
+    private long maxNanos;
+    private long errors;
+
+    private Rollup(final SlowQueryTracing tracing, final String sql, final String dbType, final Set<Rollup> connectionRollups) {
+      this.tracing = tracing;
+      this.sql = sql;
+      this.dbType = dbType;
+      this.connectionRollups = connectionRollups;
+    }
+
+    private synchronized void add(final long startMicros, final long nanos, final Throwable thrown) {
+      if (executions == 0) {
+        final Span activeSpan = tracing.getTracer().activeSpan();
+        this.parent = activeSpan == null ? null : activeSpan.context();
+        this.windowStart = System.nanoTime();
+        this.startMicros = startMicros;
+        connectionRollups.add(this);
+        tracing.onPending(this);
+      }
+
+      ++executions;
+      totalNanos += nanos;
+      if (nanos > maxNanos)
+        maxNanos = nanos;
+
+      if (thrown != null)
+        ++errors;
+
+      endMicros = startMicros + TimeUnit.NANOSECONDS.toMicros(nanos);
+      if (System.nanoTime() - windowStart >= tracing.getWindowNanos())
+        flush();
+    }
+
+    /**
+     * Flushes this rollup if its window has elapsed at the specified time.
+     *
+     * @param nanoTime The time as per {@link System#nanoTime()}.
+     */
+    synchronized void flushIfExpired(final long nanoTime) {
+      if (executions > 0 && nanoTime - windowStart >= tracing.getWindowNanos())
+        flush();
+    }
+
+    synchronized void flush() {
+      if (executions == 0)
+        return;
+
+      tracing.onRollup(sql, dbType, parent, startMicros, endMicros, executions, totalNanos, maxNanos, errors);
+      parent = null;
+      executions = 0;
+      totalNanos = 0;
+      maxNanos = 0;
+      errors = 0;
+      connectionRollups.remove(this);
+      tracing.onFlushed(this);
+    }
+  }
+
+  /**
+   * Returns a new proxy of the specified target.
+   *
+   * @param tracing The {@code SlowQueryTracing}.
+   * @param target The target connection or statement.
+   * @param type The interface of the proxy.
+   * @param dbType The type of the database.
+   * @param sql The SQL of a prepared statement, or {@code null}.
+   * @param connection The proxy of the connection of a statement, or
+   *          {@code null}.
+   * @return A new proxy of the specified target.
+   */
+  static Object newProxy(final SlowQueryTracing tracing, final Object target, final Class<?> type, final String dbType, final String sql, final Object connection) {
+    return Proxy.newProxyInstance(SlowQueryHandler.class.getClassLoader(), new Class<?>[] {type}, new SlowQueryHandler(tracing, target, dbType, sql, connection));
+  }
+
+  private final SlowQueryTracing tracing;
+  private final Object target;
+  private final String dbType;
+  private final String sql;
+  private final Object connection;
+  private final Set<Rollup> rollups;
+  private final Rollup rollup;
+  private String batchSql;
+  private int batchSize;
+
+  private SlowQueryHandler(final SlowQueryTracing tracing, final Object target, final String dbType, final String sql, final Object connection) {
+    this.tracing = tracing;
+    this.target = target;
+    this.dbType = dbType;
+    this.sql = sql;
+    this.connection = connection;
+    if (!tracing.isAggregate()) {
+      this.rollups = null;
+      this.rollup = null;
+    }
+    else if (connection == null) {
+      // The pending rollups of the statements of this connection
+      this.rollups = Collections.newSetFromMap(new ConcurrentHashMap<Rollup,Boolean>());
+      this.rollup = null;
+    }
+    else {
+      this.rollups = null;
+      this.rollup = sql != null ? new Rollup(tracing, sql, dbType, ((SlowQueryHandler)Proxy.getInvocationHandler(connection)).rollups) : null;
+    }
+  }
+
+  @Override
+  public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+    final String name = method.getName();
+    if ("equals".equals(name) && args != null && args.length == 1)
+      return proxy == args[0];
+
+    if ("hashCode".equals(name) && args == null)
+      return System.identityHashCode(proxy);
+
+    if (target instanceof Connection) {
+      // The statements that are not closed are closed with the connection
+      if ("close".equals(name) && rollups != null)
+        for (final Rollup rollup : rollups)
+          rollup.flush();
+
+      final Object returned = invoke(method, args);
+      if (returned == null)
+        return null;
+
+      if ("createStatement".equals(name))
+        return newProxy(tracing, returned, Statement.class, dbType, null, proxy);
+
+      if ("prepareStatement".equals(name))
+        return newProxy(tracing, returned, PreparedStatement.class, dbType, (String)args[0], proxy);
+
+      if ("prepareCall".equals(name))
+        return newProxy(tracing, returned, CallableStatement.class, dbType, (String)args[0], proxy);
+
+      return returned;
+    }
+
+    if ("getConnection".equals(name) && args == null)
+      return connection;
+
+    if ("addBatch".equals(name)) {
+      final Object returned = invoke(method, args);
+      if (args != null && args.length == 1 && args[0] instanceof String)
+        batchSql = (String)args[0];
+
+      ++batchSize;
+      return returned;
+    }
+
+    if ("clearBatch".equals(name)) {
+      batchSize = 0;
+      batchSql = null;
+      return invoke(method, args);
+    }
+
+    if ("close".equals(name) && rollup != null)
+      rollup.flush();
+
+    if (!name.startsWith("execute"))
+      return invoke(method, args);
+
+    final boolean isBatch = name.endsWith("Batch");
+    final boolean hasSql = args != null && args.length > 0 && args[0] instanceof String;
+    final String sql = hasSql ? (String)args[0] : this.sql != null ? this.sql : isBatch ? batchSql : null;
+    final long startMicros = System.currentTimeMillis() * 1000;
+    final long start = System.nanoTime();
+    Object returned = null;
+    Throwable thrown = null;
+    try {
+      return returned = invoke(method, args);
+    }
+    catch (final Throwable t) {
+      thrown = t;
+      throw t;
+    }
+    finally {
+      final long nanos = System.nanoTime() - start;
+      if (isBatch) {
+        // The batch of the statement is cleared by the execution
+        final int batchSize = this.batchSize;
+        this.batchSize = 0;
+        this.batchSql = null;
+        tracing.onExecute(name, sql, dbType, startMicros, nanos, thrown, batchSize, sum(returned));
+      }
+      else if (rollup != null && !hasSql)
+        rollup.add(startMicros, nanos, thrown);
+      else
+        tracing.onExecute(name, sql, dbType, startMicros, nanos, thrown, -1, -1);
+    }
+  }
+
+  /**
+   * Returns the sum of the update counts returned by {@code executeBatch} or
+   * {@code executeLargeBatch}, or {@code -1} if none of the counts are known.
+   *
+   * @param returned The update counts.
+   * @return The sum of the update counts, or {@code -1} if none of the counts
+   *         are known.
+   */
+  private static long sum(final Object returned) {
+    long sum = -1;
+    if (returned instanceof int[]) {
+      for (final int count : (int[])returned)
+        if (count >= 0)
+          sum = (sum == -1 ? 0 : sum) + count;
+    }
+    else if (returned instanceof long[]) {
+      for (final long count : (long[])returned)
+        if (count >= 0)
+          sum = (sum == -1 ? 0 : sum) + count;
+    }
+
+    return sum;
+  }
+
+  private Object invoke(final Method method, final Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    }
+    catch (final InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
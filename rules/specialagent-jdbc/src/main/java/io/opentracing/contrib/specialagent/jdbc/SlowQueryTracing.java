@@ -0,0 +1,531 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.contrib.specialagent.Level;
+import io.opentracing.contrib.specialagent.Logger;
+import io.opentracing.tag.Tags;
+import io.opentracing.util.GlobalTracer;
+
+/**
+ * The slow query mode of the JDBC rule, in which connections are wrapped
+ * with {@link SlowQueryHandler} instead of the {@code TracingDriver}, and a
+ * span is only created for statements whose execution takes at least the
+ * {@link #THRESHOLD_PROPERTY} number of milliseconds, and which are sampled
+ * by the {@link #SAMPLE_PROPERTY} rules. Statements that are faster than the
+ * threshold, or are not sampled, are only counted.
+ * <p>
+ * The span of a slow statement is created after the statement has executed,
+ * with the timestamps of the start and end of its execution, as a child of
+ * the span that was active when the statement was executed. The SQL of the
+ * statement is truncated to {@link #MAX_LENGTH_PROPERTY} characters. A batch
+ * is traced with one span per {@code executeBatch}, which is tagged with the
+ * size of the batch and the total number of updated rows.
+ * <p>
+ * With the {@link #AGGREGATE_PROPERTY}, the executions of a
+ * {@code PreparedStatement} do not create a span each. Instead, they are
+ * rolled up into a single span with the number of executions, and the total
+ * and maximum latency, which is created when the statement is closed, or
+ * when an execution completes after the {@link #WINDOW_PROPERTY} has elapsed
+ * since the first execution of the rollup. The rollup span is subject to the
+ * threshold by its maximum latency. The aggregate mode implies a threshold of
+ * {@code 0} if a threshold is not specified.
+ * <p>
+ * With the {@link #STATS_PROPERTY} of the self-diagnostics of the
+ * {@code SpecialAgent}, the counts of fast, unsampled and slow statements, and
+ * of rollups, are exposed via JMX as the {@link #OBJECT_NAME} MBean, and are
+ * logged every {@link #INTERVAL_PROPERTY} seconds.
+ */
+public final class SlowQueryTracing implements SlowQueryTracingMBean {
+  private static final Logger logger = Logger.getLogger(SlowQueryTracing.class);
+  public static final String THRESHOLD_PROPERTY = "sa.instrumentation.plugin.jdbc.threshold";
+  public static final String MAX_LENGTH_PROPERTY = "sa.instrumentation.plugin.jdbc.sql.maxLength";
+  public static final String SAMPLE_PROPERTY = "sa.instrumentation.plugin.jdbc.sample";
+  public static final String AGGREGATE_PROPERTY = "sa.instrumentation.plugin.jdbc.aggregate";
+  public static final String WINDOW_PROPERTY = "sa.instrumentation.plugin.jdbc.aggregate.window";
+  static final String STATS_PROPERTY = "sa.stats";
+  static final String INTERVAL_PROPERTY = "sa.stats.interval";
+  static final String OBJECT_NAME = "io.opentracing.contrib.specialagent:type=SlowQueryTracing";
+  static final String COMPONENT_NAME = "java-jdbc";
+  static final int DEFAULT_MAX_LENGTH = 1024;
+  static final long DEFAULT_WINDOW = 10000;
+  static final String BATCH_SIZE_TAG = "db.batch.size";
+  static final String ROWS_TAG = "db.rows";
+  static final String EXECUTIONS_TAG = "db.executions";
+  static final String TOTAL_LATENCY_TAG = "db.latency.total_us";
+  static final String MAX_LATENCY_TAG = "db.latency.max_us";
+  static final String ERRORS_TAG = "db.errors";
+
+  private static Timer timer;
+
+  /**
+   * @return The daemon {@code Timer} that runs the background tasks of the
+   *         slow query mode, which is created upon the first call of this
+   *         method.
+   */
+  static synchronized Timer timer() {
+    if (timer == null)
+      timer = new Timer("SpecialAgent-SlowQueryTracing", true);
+
+    return timer;
+  }
+
+  private static final SlowQueryTracing instance = publish(parse(System.getProperty(THRESHOLD_PROPERTY), System.getProperty(MAX_LENGTH_PROPERTY), System.getProperty(SAMPLE_PROPERTY), System.getProperty(AGGREGATE_PROPERTY), System.getProperty(WINDOW_PROPERTY)), System.getProperty(STATS_PROPERTY), System.getProperty(INTERVAL_PROPERTY));
+
+  /**
+   * @return The slow query mode, or {@code null} if neither the
+   *         {@link #THRESHOLD_PROPERTY} nor the {@link #AGGREGATE_PROPERTY} is
+   *         specified, in which case every statement is traced by the
+   *         {@code TracingDriver}.
+   */
+  static SlowQueryTracing get() {
+    return instance;
+  }
+
+  /**
+   * Schedules the publication of the counters of the specified
+   * {@code SlowQueryTracing} if the statistics are enabled. The MBean is
+   * registered after the first interval, so that the platform MBean server is
+   * not initialized while the first connection is being opened.
+   *
+   * @param slowQueryTracing The {@code SlowQueryTracing}, or {@code null}.
+   * @param stats The value of the {@link #STATS_PROPERTY}, or {@code null}.
+   * @param interval The value of the {@link #INTERVAL_PROPERTY} in seconds, or
+   *          {@code null} for {@code 60}.
+   * @return The specified {@code SlowQueryTracing}.
+   */
+  static SlowQueryTracing publish(final SlowQueryTracing slowQueryTracing, final String stats, final String interval) {
+    if (slowQueryTracing == null || stats == null || "false".equals(stats))
+      return slowQueryTracing;
+
+    final long intervalMillis = TimeUnit.SECONDS.toMillis(interval != null ? Long.parseLong(interval.trim()) : 60);
+    timer().schedule(new TimerTask() {
+      private boolean registered;
+
+      @Override
+      public void run() {
+        if (!registered) {
+          registered = true;
+          try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(slowQueryTracing, new ObjectName(OBJECT_NAME));
+          }
+          catch (final Exception e) {
+            logger.log(Level.WARNING, "Unable to register " + OBJECT_NAME, e);
+          }
+        }
+
+        logger.info(slowQueryTracing.getSummary());
+      }
+    }, intervalMillis, intervalMillis);
+    return slowQueryTracing;
+  }
+
+  /**
+   * A rule that samples the statements whose SQL starts with a prefix, which
+   * is matched case-insensitively, and after leading whitespace.
+   */
+  static final class SampleRule {
+    private final String prefix;
+    private final double rate;
+
+    SampleRule(final String prefix, final double rate) {
+      if (rate < 0 || rate > 1)
+        throw new IllegalArgumentException("Sample rate of \"" + prefix + "\" must be between 0 and 1: " + rate);
+
+      this.prefix = prefix;
+      this.rate = rate;
+    }
+
+    boolean matches(final String sql, final int offset) {
+      return sql.regionMatches(true, offset, prefix, 0, prefix.length());
+    }
+  }
+
+  /**
+   * Returns a new {@code SlowQueryTracing} of the specified property values,
+   * or {@code null} if neither the threshold nor the aggregate mode is
+   * specified.
+   *
+   * @param threshold The threshold in milliseconds, or {@code null}.
+   * @param maxLength The maximum length of the SQL of a span, or {@code null}
+   *          for {@link #DEFAULT_MAX_LENGTH}.
+   * @param sample The comma-delimited sample rules as
+   *          {@code <prefix>=<rate>}, or {@code null}.
+   * @param aggregate The value of the aggregate mode property, or
+   *          {@code null}.
+   * @param window The window of a rollup in milliseconds, or {@code null} for
+   *          {@link #DEFAULT_WINDOW}.
+   * @return A new {@code SlowQueryTracing} of the specified property values,
+   *         or {@code null} if neither the threshold nor the aggregate mode is
+   *         specified.
+   * @throws IllegalArgumentException If a value is invalid.
+   */
+  static SlowQueryTracing parse(final String threshold, final String maxLength, final String sample, final String aggregate, final String window) {
+    final boolean isAggregate = aggregate != null && !"false".equals(aggregate);
+    if (threshold == null && !isAggregate)
+      return null;
+
+    final List<SampleRule> rules = new ArrayList<>();
+    if (sample != null) {
+      for (final String rule : sample.split(",")) {
+        final int index = rule.lastIndexOf('=');
+        if (index == -1)
+          throw new IllegalArgumentException("Sample rule must be specified as <prefix>=<rate>: " + rule);
+
+        rules.add(new SampleRule(rule.substring(0, index).trim(), Double.parseDouble(rule.substring(index + 1).trim())));
+      }
+    }
+
+    final SlowQueryTracing slowQueryTracing = new SlowQueryTracing(threshold == null ? 0 : Long.parseLong(threshold.trim()), maxLength == null ? DEFAULT_MAX_LENGTH : Integer.parseInt(maxLength.trim()), rules.toArray(new SampleRule[rules.size()]));
+    return isAggregate ? slowQueryTracing.aggregate(window == null ? DEFAULT_WINDOW : Long.parseLong(window.trim())) : slowQueryTracing;
+  }
+
+  private final long thresholdNanos;
+  private final int maxLength;
+  private final SampleRule[] sampleRules;
+  private final AtomicLong fast = new AtomicLong();
+  private final AtomicLong unsampled = new AtomicLong();
+  private final AtomicLong slow = new AtomicLong();
+  private final AtomicLong rollups = new AtomicLong();
+  private final Set<SlowQueryHandler.Rollup> pending = Collections.newSetFromMap(new ConcurrentHashMap<SlowQueryHandler.Rollup,Boolean>());
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private long windowNanos = -1;
+  private Tracer tracer;
+
+  /**
+   * Creates a new {@code SlowQueryTracing}.
+   *
+   * @param thresholdMillis The minimum execution time in milliseconds of the
+   *          statements for which a span is created.
+   * @param maxLength The maximum length of the SQL of a span.
+   * @param sampleRules The sample rules.
+   * @throws IllegalArgumentException If {@code thresholdMillis} or
+   *           {@code maxLength} is negative.
+   */
+  SlowQueryTracing(final long thresholdMillis, final int maxLength, final SampleRule ... sampleRules) {
+    if (thresholdMillis < 0)
+      throw new IllegalArgumentException("Threshold must not be negative: " + thresholdMillis);
+
+    if (maxLength < 0)
+      throw new IllegalArgumentException("Maximum length must not be negative: " + maxLength);
+
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.maxLength = maxLength;
+    this.sampleRules = sampleRules;
+  }
+
+  /**
+   * Enables the aggregate mode, in which the executions of a
+   * {@code PreparedStatement} are rolled up into a single span.
+   *
+   * @param windowMillis The window of a rollup in milliseconds.
+   * @return This {@code SlowQueryTracing}.
+   * @throws IllegalArgumentException If {@code windowMillis} is negative.
+   */
+  SlowQueryTracing aggregate(final long windowMillis) {
+    if (windowMillis < 0)
+      throw new IllegalArgumentException("Window must not be negative: " + windowMillis);
+
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    return this;
+  }
+
+  /**
+   * Sets the tracer of the spans, in place of the {@code GlobalTracer}.
+   *
+   * @param tracer The tracer.
+   * @return This {@code SlowQueryTracing}.
+   */
+  SlowQueryTracing tracer(final Tracer tracer) {
+    this.tracer = tracer;
+    return this;
+  }
+
+  /**
+   * @return The tracer of the spans.
+   */
+  Tracer getTracer() {
+    return tracer != null ? tracer : GlobalTracer.get();
+  }
+
+  /**
+   * @return Whether the executions of a {@code PreparedStatement} are rolled
+   *         up into a single span.
+   */
+  boolean isAggregate() {
+    return windowNanos != -1;
+  }
+
+  /**
+   * @return The window of a rollup in nanoseconds.
+   */
+  long getWindowNanos() {
+    return windowNanos;
+  }
+
+  /**
+   * Called when the specified rollup has its first execution, which schedules
+   * the flush of the pending rollups upon the first call of this method.
+   *
+   * @param rollup The rollup.
+   */
+  void onPending(final SlowQueryHandler.Rollup rollup) {
+    pending.add(rollup);
+    if (!flushScheduled.get() && flushScheduled.compareAndSet(false, true))
+      scheduleFlush();
+  }
+
+  /**
+   * Called when the specified rollup is flushed.
+   *
+   * @param rollup The rollup.
+   */
+  void onFlushed(final SlowQueryHandler.Rollup rollup) {
+    pending.remove(rollup);
+  }
+
+  /**
+   * Schedules the flush of the pending rollups every window, so that the
+   * rollup of a statement that is idle is reported even if the statement is
+   * not closed, and at shutdown.
+   */
+  private void scheduleFlush() {
+    final long periodMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(windowNanos));
+    timer().schedule(new TimerTask() {
+      @Override
+      public void run() {
+        final long nanoTime = System.nanoTime();
+        for (final SlowQueryHandler.Rollup rollup : pending)
+          rollup.flushIfExpired(nanoTime);
+      }
+    }, periodMillis, periodMillis);
+
+    Runtime.getRuntime().addShutdownHook(new Thread("SpecialAgent-SlowQueryTracing-Flush") {
+      @Override
+      public void run() {
+        for (final SlowQueryHandler.Rollup rollup : pending)
+          rollup.flush();
+      }
+    });
+  }
+
+  /**
+   * Returns a proxy of the specified connection that times the execution of
+   * its statements.
+   *
+   * @param connection The connection.
+   * @param url The URL of the connection.
+   * @return A proxy of the specified connection.
+   */
+  public Connection wrap(final Connection connection, final String url) {
+    if (Proxy.isProxyClass(connection.getClass()) && Proxy.getInvocationHandler(connection) instanceof SlowQueryHandler)
+      return connection;
+
+    return (Connection)SlowQueryHandler.newProxy(this, connection, Connection.class, dbType(url), null, null);
+  }
+
+  /**
+   * Called after the execution of a statement, which creates a span for the
+   * statement if it is slow and sampled, and otherwise counts it.
+   *
+   * @param operation The name of the method that executed the statement.
+   * @param sql The SQL of the statement, or {@code null} if it is unknown.
+   * @param dbType The type of the database.
+   * @param startMicros The epoch timestamp in microseconds of the start of
+   *          the execution.
+   * @param nanos The duration of the execution in nanoseconds.
+   * @param thrown The exception thrown by the execution, or {@code null}.
+   * @param batchSize The size of the executed batch, or {@code -1} if the
+   *          execution is not a batch.
+   * @param rows The total number of rows updated by the batch, or {@code -1}
+   *          if it is unknown.
+   */
+  void onExecute(final String operation, final String sql, final String dbType, final long startMicros, final long nanos, final Throwable thrown, final int batchSize, final long rows) {
+    if (nanos < thresholdNanos) {
+      fast.incrementAndGet();
+      return;
+    }
+
+    if (!isSampled(sql)) {
+      unsampled.incrementAndGet();
+      return;
+    }
+
+    slow.incrementAndGet();
+    final Span span = newSpan(operation, sql, dbType, false, null, startMicros);
+    if (batchSize != -1)
+      span.setTag(BATCH_SIZE_TAG, batchSize);
+
+    if (rows != -1)
+      span.setTag(ROWS_TAG, rows);
+
+    if (thrown != null)
+      Tags.ERROR.set(span, Boolean.TRUE);
+
+    span.finish(startMicros + TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  /**
+   * Called when the rollup of the executions of a {@code PreparedStatement}
+   * is complete, which creates a span for the rollup if its slowest execution
+   * is slow and the statement is sampled, and otherwise counts the
+   * executions.
+   *
+   * @param sql The SQL of the statement.
+   * @param dbType The type of the database.
+   * @param parent The context of the span that was active at the first
+   *          execution, or {@code null}.
+   * @param startMicros The epoch timestamp in microseconds of the start of
+   *          the first execution.
+   * @param endMicros The epoch timestamp in microseconds of the end of the
+   *          last execution.
+   * @param executions The number of executions.
+   * @param totalNanos The total duration of the executions in nanoseconds.
+   * @param maxNanos The maximum duration of an execution in nanoseconds.
+   * @param errors The number of executions that threw an exception.
+   */
+  void onRollup(final String sql, final String dbType, final SpanContext parent, final long startMicros, final long endMicros, final long executions, final long totalNanos, final long maxNanos, final long errors) {
+    if (maxNanos < thresholdNanos) {
+      fast.addAndGet(executions);
+      return;
+    }
+
+    if (!isSampled(sql)) {
+      unsampled.addAndGet(executions);
+      return;
+    }
+
+    rollups.incrementAndGet();
+    // A rollup may be flushed by the timer, on which the active span is not
+    // that of the executions
+    final Span span = newSpan("PreparedStatement", sql, dbType, true, parent, startMicros);
+    span.setTag(EXECUTIONS_TAG, executions);
+    span.setTag(TOTAL_LATENCY_TAG, TimeUnit.NANOSECONDS.toMicros(totalNanos));
+    span.setTag(MAX_LATENCY_TAG, TimeUnit.NANOSECONDS.toMicros(maxNanos));
+    if (errors > 0) {
+      span.setTag(ERRORS_TAG, errors);
+      Tags.ERROR.set(span, Boolean.TRUE);
+    }
+
+    span.finish(endMicros);
+  }
+
+  private Span newSpan(final String operation, final String sql, final String dbType, final boolean ignoreActiveSpan, final SpanContext parent, final long startMicros) {
+    final Tracer.SpanBuilder builder = getTracer().buildSpan(operation)
+      .withStartTimestamp(startMicros)
+      .withTag(Tags.COMPONENT.getKey(), COMPONENT_NAME)
+      .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+      .withTag(Tags.DB_TYPE.getKey(), dbType);
+
+    if (ignoreActiveSpan)
+      builder.ignoreActiveSpan();
+
+    if (parent != null)
+      builder.asChildOf(parent);
+
+    final Span span = builder.start();
+    if (sql != null)
+      Tags.DB_STATEMENT.set(span, truncate(sql));
+
+    return span;
+  }
+
+  private boolean isSampled(final String sql) {
+    if (sql == null || sampleRules.length == 0)
+      return true;
+
+    int offset = 0;
+    while (offset < sql.length() && Character.isWhitespace(sql.charAt(offset)))
+      ++offset;
+
+    for (final SampleRule rule : sampleRules)
+      if (rule.matches(sql, offset))
+        return rule.rate >= 1 || rule.rate > 0 && ThreadLocalRandom.current().nextDouble() < rule.rate;
+
+    return true;
+  }
+
+  String truncate(final String sql) {
+    return sql.length() <= maxLength ? sql : sql.substring(0, maxLength) + "...";
+  }
+
+  /**
+   * @return The number of statements that were faster than the threshold.
+   */
+  @Override
+  public long getFast() {
+    return fast.get();
+  }
+
+  /**
+   * @return The number of statements that were slower than the threshold, but
+   *         were not sampled.
+   */
+  @Override
+  public long getUnsampled() {
+    return unsampled.get();
+  }
+
+  /**
+   * @return The number of statements for which a span was created.
+   */
+  @Override
+  public long getSlow() {
+    return slow.get();
+  }
+
+  /**
+   * @return The number of rollups of the executions of a
+   *         {@code PreparedStatement} for which a span was created.
+   */
+  @Override
+  public long getRollups() {
+    return rollups.get();
+  }
+
+  @Override
+  public String getSummary() {
+    return "SlowQueryTracing: fast=" + fast.get() + ", unsampled=" + unsampled.get() + ", slow=" + slow.get() + ", rollups=" + rollups.get();
+  }
+
+  private static String dbType(final String url) {
+    if (url == null || !url.startsWith("jdbc:"))
+      return "sql";
+
+    final int end = url.indexOf(':', 5);
+    return end == -1 ? "sql" : url.substring(5, end);
+  }
+}
@@ -0,0 +1,108 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.jdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+
+/**
+ * Tests for the aggregate mode of {@link SlowQueryTracing}, in which the
+ * batches and repeated executions of a {@code PreparedStatement} are traced
+ * with rollup spans.
+ */
+public class SlowQueryAggregateTest {
+  @Test
+  public void testAggregate() throws Exception {
+    final MockTracer tracer = new MockTracer();
+    final SlowQueryTracing slowQueryTracing = SlowQueryTracing.parse(null, null, null, "true", null).tracer(tracer);
+    try (final Connection connection = SlowQueryTracingTest.connect(slowQueryTracing, "jdbc:h2:mem:aggregate")) {
+      connection.createStatement().executeUpdate("CREATE TABLE employee (id INTEGER)");
+      try (final PreparedStatement statement = connection.prepareStatement("INSERT INTO employee VALUES (?)")) {
+        for (int i = 0; i < 10; ++i) {
+          statement.setInt(1, i);
+          statement.executeUpdate();
+        }
+
+        for (int i = 0; i < 5; ++i) {
+          statement.setInt(1, i);
+          statement.addBatch();
+        }
+
+        statement.executeBatch();
+      }
+    }
+
+    final List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(3, spans.size());
+    assertEquals(5, spans.get(1).tags().get("db.batch.size"));
+    assertEquals(5L, spans.get(1).tags().get("db.rows"));
+    assertEquals(10L, spans.get(2).tags().get("db.executions"));
+    assertEquals(1, slowQueryTracing.getRollups());
+  }
+
+  @Test
+  public void testConnectionClose() throws Exception {
+    final MockTracer tracer = new MockTracer();
+    final SlowQueryTracing slowQueryTracing = SlowQueryTracing.parse(null, null, null, "true", null).tracer(tracer);
+    final Connection connection = SlowQueryTracingTest.connect(slowQueryTracing, "jdbc:h2:mem:close");
+    connection.createStatement().executeUpdate("CREATE TABLE employee (id INTEGER)");
+    final PreparedStatement statement = connection.prepareStatement("INSERT INTO employee VALUES (?)");
+    for (int i = 0; i < 3; ++i) {
+      statement.setInt(1, i);
+      statement.executeUpdate();
+    }
+
+    assertEquals(1, tracer.finishedSpans().size());
+    connection.close();
+
+    final List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(2, spans.size());
+    assertEquals(3L, spans.get(1).tags().get("db.executions"));
+    assertEquals(1, slowQueryTracing.getRollups());
+  }
+
+  @Test
+  public void testIdleFlush() throws Exception {
+    final MockTracer tracer = new MockTracer();
+    final SlowQueryTracing slowQueryTracing = SlowQueryTracing.parse(null, null, null, "true", "50").tracer(tracer);
+    try (final Connection connection = SlowQueryTracingTest.connect(slowQueryTracing, "jdbc:h2:mem:idle")) {
+      connection.createStatement().executeUpdate("CREATE TABLE employee (id INTEGER)");
+      final PreparedStatement statement = connection.prepareStatement("INSERT INTO employee VALUES (?)");
+      for (int i = 0; i < 3; ++i) {
+        statement.setInt(1, i);
+        statement.executeUpdate();
+      }
+
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (tracer.finishedSpans().size() < 2 && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+
+      final List<MockSpan> spans = tracer.finishedSpans();
+      assertEquals(2, spans.size());
+      assertEquals(3L, spans.get(1).tags().get("db.executions"));
+    }
+
+    assertEquals(2, tracer.finishedSpans().size());
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.jdbc;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.h2.Driver;
+import org.junit.Test;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.tag.Tags;
+
+/**
+ * Tests for {@link SlowQueryTracing}, which wrap the connections of the H2
+ * driver with the {@code SlowQueryTracing} of each test.
+ */
+public class SlowQueryTracingTest {
+  static Connection connect(final SlowQueryTracing slowQueryTracing, final String url) throws SQLException {
+    return slowQueryTracing.wrap(new Driver().connect(url, new Properties()), url);
+  }
+
+  @Test
+  public void testSlowQuery() throws Exception {
+    final MockTracer tracer = new MockTracer();
+    final SlowQueryTracing slowQueryTracing = SlowQueryTracing.parse("0", "16", "select=0", null, null).tracer(tracer);
+    try (final Connection connection = connect(slowQueryTracing, "jdbc:h2:mem:slow")) {
+      final Statement statement = connection.createStatement();
+      statement.executeUpdate("CREATE TABLE employee (id INTEGER)");
+      statement.executeQuery("SELECT * FROM employee");
+    }
+
+    final List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(1, spans.size());
+    assertEquals("CREATE TABLE emp...", spans.get(0).tags().get(Tags.DB_STATEMENT.getKey()));
+    assertEquals(1, slowQueryTracing.getSlow());
+    assertEquals(1, slowQueryTracing.getUnsampled());
+    assertEquals("SlowQueryTracing: fast=0, unsampled=1, slow=1, rollups=0", slowQueryTracing.getSummary());
+  }
+
+  @Test
+  public void testPublish() throws Exception {
+    final SlowQueryTracing slowQueryTracing = SlowQueryTracing.publish(SlowQueryTracing.parse("0", null, null, null, null).tracer(new MockTracer()), "true", "1");
+    try (final Connection connection = connect(slowQueryTracing, "jdbc:h2:mem:publish")) {
+      connection.createStatement().executeUpdate("CREATE TABLE employee (id INTEGER)");
+    }
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName objectName = new ObjectName(SlowQueryTracing.OBJECT_NAME);
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (!server.isRegistered(objectName) && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+
+    try {
+      assertEquals(1L, server.getAttribute(objectName, "Slow"));
+      assertEquals(0L, server.getAttribute(objectName, "Fast"));
+    }
+    finally {
+      server.unregisterMBean(objectName);
+    }
+  }
+}
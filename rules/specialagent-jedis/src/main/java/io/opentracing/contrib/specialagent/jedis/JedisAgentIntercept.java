@@ -16,73 +16,288 @@
 package io.opentracing.contrib.specialagent.jedis;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.opentracing.Span;
+import io.opentracing.contrib.specialagent.Logger;
 import io.opentracing.tag.Tags;
 import io.opentracing.util.GlobalTracer;
 import redis.clients.jedis.Protocol.Command;
 
 public class JedisAgentIntercept {
-  private final static ThreadLocal<Queue<Span>> spanHolder = ThreadLocal.withInitial(LinkedList::new);
+  public static final String CAPTURE_PROPERTY = "sa.instrumentation.plugin.jedis.capture";
+  public static final String MAX_ARGS_PROPERTY = "sa.instrumentation.plugin.jedis.capture.maxArgs";
+  public static final String MAX_BYTES_PROPERTY = "sa.instrumentation.plugin.jedis.capture.maxBytes";
+  static final String COMMAND_COUNT_TAG = "redis.command.count";
+  static final String COMMANDS_TAG = "redis.commands";
+  private static final Logger logger = Logger.getLogger(JedisAgentIntercept.class);
+  private static final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * The arguments of a command that are captured in its
+   * {@link Tags#DB_STATEMENT}.
+   */
+  enum Capture {
+    /** The first {@link #MAX_ARGS_PROPERTY} arguments. */
+    ARGS,
+    /** The first argument, which is the key of most commands. */
+    KEYS,
+    /** No arguments. */
+    NONE
+  }
+
+  static final Capture capture;
+  static final int maxArgs;
+  static final int maxBytes;
+  private static final Command[] commands = Command.values();
+
+  static {
+    final String captureProperty = System.getProperty(CAPTURE_PROPERTY);
+    capture = captureProperty == null ? Capture.ARGS : Capture.valueOf(captureProperty.toUpperCase());
+    final String maxArgsProperty = System.getProperty(MAX_ARGS_PROPERTY);
+    maxArgs = maxArgsProperty == null ? 8 : Integer.parseInt(maxArgsProperty);
+    final String maxBytesProperty = System.getProperty(MAX_BYTES_PROPERTY);
+    maxBytes = maxBytesProperty == null ? 64 : Integer.parseInt(maxBytesProperty);
+  }
+
+  /**
+   * A command that was sent, the reply of which has not been read.
+   */
+  static final class Pending {
+    private Command command;
+    private String statement;
+    private long startMicros;
+  }
+
+  /**
+   * The state of a thread, which comprises a ring of the pending commands,
+   * and the counts of the commands that were queued in a {@code Pipeline} or
+   * {@code Transaction}, the replies of which are read upon the sync or
+   * execution without a span. The entries of the ring are reused, so that a
+   * command does not allocate more than its statement.
+   * <p>
+   * The reply of a command that is not queued is read before the next command
+   * is sent, so the ring only fills up if the commands are sent on a thread
+   * that does not read the replies, such as the {@code unsubscribe} of a
+   * {@code JedisPubSub} from another thread.
+   */
+  static final class State {
+    private static final int CAPACITY = 16;
+    private static final int MASK = CAPACITY - 1;
+
+    private final Pending[] ring = new Pending[CAPACITY];
+    private int head;
+    private int size;
+    private final int[] counts = new int[commands.length];
+    private int queued;
+    private int unread;
+    private boolean multi;
+    private long queuedMicros;
+
+    private State() {
+      for (int i = 0; i < CAPACITY; ++i)
+        ring[i] = new Pending();
+    }
+
+    /**
+     * @return The entry of the next pending command, which overwrites the
+     *         oldest pending command if the ring is full, in which case the
+     *         span of the oldest command is dropped.
+     */
+    Pending push() {
+      if (size == CAPACITY) {
+        head = (head + 1) & MASK;
+        --size;
+        if (dropped.getAndIncrement() == 0)
+          logger.warning("Dropped the span of a Redis command, the reply of which was not read on the thread that sent it");
+      }
+
+      return ring[(head + size++) & MASK];
+    }
+
+    /**
+     * @return The oldest pending command, or {@code null} if there are no
+     *         pending commands.
+     */
+    Pending poll() {
+      if (size == 0)
+        return null;
+
+      final Pending pending = ring[head];
+      head = (head + 1) & MASK;
+      --size;
+      return pending;
+    }
+
+    /**
+     * @return The latest pending command, or {@code null} if there are no
+     *         pending commands.
+     */
+    Pending pollLast() {
+      return size == 0 ? null : ring[(head + --size) & MASK];
+    }
+  }
+
+  private static final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+  /**
+   * @return The number of commands the spans of which were dropped, because
+   *         their replies were not read on the threads that sent them.
+   */
+  static long getDropped() {
+    return dropped.get();
+  }
 
   public static void sendCommand(final Object command, final byte[][] args) {
-    final Command cmd = (Command)command;
-    final Span span = GlobalTracer.get()
-      .buildSpan(cmd.name())
-      .withTag(Tags.COMPONENT.getKey(), "java-redis")
-      .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
-      .withTag(Tags.DB_TYPE.getKey(), "redis").start();
+    final State state = JedisAgentIntercept.state.get();
+    if (command == Command.MULTI || command == Command.EXEC || command == Command.DISCARD) {
+      // The commands of a transaction are traced by its TRANSACTION span
+      if (command == Command.MULTI) {
+        state.multi = true;
+        if (state.queued == 0)
+          state.queuedMicros = System.currentTimeMillis() * 1000;
+      }
+
+      ++state.unread;
+      return;
+    }
 
-    final String redisCommand = convert(args);
-    if (redisCommand != null)
-      span.setTag(Tags.DB_STATEMENT, redisCommand);
+    final Pending pending = state.push();
+    if (command instanceof Command) {
+      pending.command = (Command)command;
+      pending.statement = capture(args);
+    }
+    else {
+      pending.command = null;
+      pending.statement = null;
+    }
 
-    spanHolder.get().add(span);
+    pending.startMicros = System.currentTimeMillis() * 1000;
   }
 
-  private static String convert(final byte[][] args) {
-    if (args == null || args.length == 0)
+  static String capture(final byte[][] args) {
+    if (capture == Capture.NONE || args == null || args.length == 0)
       return null;
 
-    final List<String> commands = new ArrayList<>();
-    for (final byte[] arg : args)
-      commands.add(new String(arg, StandardCharsets.UTF_8));
+    final int count = capture == Capture.KEYS ? 1 : Math.min(args.length, maxArgs);
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < count; ++i) {
+      if (i > 0)
+        builder.append(' ');
 
-    return String.join(" ", commands);
+      final byte[] arg = args[i];
+      if (arg.length <= maxBytes)
+        builder.append(new String(arg, StandardCharsets.UTF_8));
+      else
+        builder.append(new String(arg, 0, maxBytes, StandardCharsets.UTF_8)).append("...");
+    }
+
+    if (capture == Capture.ARGS && count < args.length)
+      builder.append(" ...(").append(args.length - count).append(" more)");
+
+    return builder.toString();
   }
 
-  public static void readCommandOutput() {
-    final Queue<Span> spans = spanHolder.get();
-    if (spans.isEmpty())
+  public static void readCommandOutput(final Throwable thrown) {
+    final State state = JedisAgentIntercept.state.get();
+    if (state.unread > 0) {
+      --state.unread;
+      return;
+    }
+
+    final Pending pending = state.poll();
+    if (pending == null || pending.command == null)
       return;
 
-    final Span span = spans.poll();
+    final Span span = newSpan(pending.command.name(), pending.startMicros);
+    if (pending.statement != null) {
+      span.setTag(Tags.DB_STATEMENT, pending.statement);
+      pending.statement = null;
+    }
+
+    onError(span, thrown);
     span.finish();
   }
 
-  public static void onError(final Throwable throwable) {
-    final Queue<Span> spans = spanHolder.get();
-    if (spans.isEmpty())
+  /**
+   * Called when the latest command is queued in a {@code Pipeline} or
+   * {@code Transaction}, which counts the command instead of creating a span
+   * for it.
+   */
+  public static void queue() {
+    final State state = JedisAgentIntercept.state.get();
+    final Pending pending = state.pollLast();
+    if (pending == null)
       return;
 
-    final Span span = spans.poll();
-    Tags.ERROR.set(span, Boolean.TRUE);
-    if (throwable != null)
-      span.log(errorLogs(throwable));
+    ++state.unread;
+    if (pending.command == null)
+      return;
+
+    if (state.queued++ == 0 && !state.multi)
+      state.queuedMicros = pending.startMicros;
+
+    ++state.counts[pending.command.ordinal()];
+    pending.statement = null;
+  }
+
+  /**
+   * Called when a {@code Pipeline} is synced, or a {@code Transaction} is
+   * executed or discarded, which creates one span for the commands that were
+   * queued, the replies of which have been read.
+   *
+   * @param operation The operation name of the span.
+   * @param thrown The exception thrown by the sync, or {@code null}.
+   */
+  public static void flush(final String operation, final Throwable thrown) {
+    final State state = JedisAgentIntercept.state.get();
+    state.unread = 0;
+    if (state.queued == 0 && !state.multi)
+      return;
 
+    state.multi = false;
+    final Span span = newSpan(operation, state.queuedMicros);
+    span.setTag(COMMAND_COUNT_TAG, state.queued);
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < state.counts.length; ++i) {
+      if (state.counts[i] > 0) {
+        if (builder.length() > 0)
+          builder.append(',');
+
+        builder.append(commands[i].name()).append(':').append(state.counts[i]);
+        state.counts[i] = 0;
+      }
+    }
+
+    span.setTag(COMMANDS_TAG, builder.toString());
+    state.queued = 0;
+    onError(span, thrown);
     span.finish();
   }
 
+  private static Span newSpan(final String operation, final long startMicros) {
+    return GlobalTracer.get()
+      .buildSpan(operation)
+      .withStartTimestamp(startMicros)
+      .withTag(Tags.COMPONENT.getKey(), "java-redis")
+      .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+      .withTag(Tags.DB_TYPE.getKey(), "redis").start();
+  }
+
+  private static void onError(final Span span, final Throwable thrown) {
+    if (thrown == null)
+      return;
+
+    Tags.ERROR.set(span, Boolean.TRUE);
+    span.log(errorLogs(thrown));
+  }
+
   private static Map<String,Object> errorLogs(final Throwable throwable) {
     final Map<String,Object> errorLogs = new HashMap<>(2);
     errorLogs.put("event", Tags.ERROR.getKey());
     errorLogs.put("error.object", throwable);
     return errorLogs;
   }
-}
\ No newline at end of file
+}
@@ -17,37 +17,21 @@ package io.opentracing.contrib.specialagent.jedis;
 
 import static net.bytebuddy.matcher.ElementMatchers.*;
 
-import java.util.Arrays;
-
 import io.opentracing.contrib.specialagent.AgentRule;
-import net.bytebuddy.agent.builder.AgentBuilder;
-import net.bytebuddy.agent.builder.AgentBuilder.Transformer;
+import io.opentracing.contrib.specialagent.DynamicAdvice;
 import net.bytebuddy.asm.Advice;
-import net.bytebuddy.description.type.TypeDescription;
-import net.bytebuddy.dynamic.DynamicType.Builder;
 import net.bytebuddy.implementation.bytecode.assign.Assigner.Typing;
-import net.bytebuddy.utility.JavaModule;
 
 public class JedisAgentRule extends AgentRule {
   @Override
-  public Iterable<? extends AgentBuilder> buildAgent(final AgentBuilder builder) {
-    return Arrays.asList(builder
-      .type(hasSuperType(named("redis.clients.jedis.Connection")))
-      .transform(new Transformer() {
-        @Override
-        public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
-          return builder.visit(Advice.to(SendCommand.class).on(named("sendCommand").and(takesArgument(1, byte[][].class))));
-        }})
-      .transform(new Transformer() {
-        @Override
-        public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
-          return builder.visit(Advice.to(ReadCommandOutput.class).on(named("readProtocolWithCheckingBroken")));
-        }})
-      .transform(new Transformer() {
-        @Override
-        public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
-          return builder.visit(Advice.to(OnError.class).on(named("readProtocolWithCheckingBroken")));
-        }}));
+  public DynamicAdvice[] advice() {
+    return new DynamicAdvice[] {
+      new DynamicAdvice(hasSuperType(named("redis.clients.jedis.Connection")), named("sendCommand").and(takesArgument(1, byte[][].class)), SendCommand.class),
+      new DynamicAdvice(hasSuperType(named("redis.clients.jedis.Connection")), named("readProtocolWithCheckingBroken"), ReadCommandOutput.class),
+      new DynamicAdvice(hasSuperType(named("redis.clients.jedis.Queable")), named("getResponse"), GetResponse.class),
+      new DynamicAdvice(hasSuperType(named("redis.clients.jedis.Pipeline")), named("sync").or(named("syncAndReturnAll")), PipelineSync.class),
+      new DynamicAdvice(hasSuperType(named("redis.clients.jedis.Transaction")), named("exec").or(named("execGetResponse")).or(named("discard")), TransactionExec.class)
+    };
   }
 
   public static class SendCommand {
@@ -59,18 +43,34 @@ public class JedisAgentRule extends AgentRule {
   }
 
   public static class ReadCommandOutput {
-    @Advice.OnMethodExit
-    public static void exit(final @Advice.Origin String origin) {
+    @Advice.OnMethodExit(onThrowable = Throwable.class)
+    public static void exit(final @Advice.Origin String origin, final @Advice.Thrown(typing = Typing.DYNAMIC) Throwable thrown) {
+      if (isEnabled(origin))
+        JedisAgentIntercept.readCommandOutput(thrown);
+    }
+  }
+
+  public static class GetResponse {
+    @Advice.OnMethodEnter
+    public static void enter(final @Advice.Origin String origin) {
+      if (isEnabled(origin))
+        JedisAgentIntercept.queue();
+    }
+  }
+
+  public static class PipelineSync {
+    @Advice.OnMethodExit(onThrowable = Throwable.class)
+    public static void exit(final @Advice.Origin String origin, final @Advice.Thrown(typing = Typing.DYNAMIC) Throwable thrown) {
       if (isEnabled(origin))
-        JedisAgentIntercept.readCommandOutput();
+        JedisAgentIntercept.flush("PIPELINE", thrown);
     }
   }
 
-  public static class OnError {
+  public static class TransactionExec {
     @Advice.OnMethodExit(onThrowable = Throwable.class)
     public static void exit(final @Advice.Origin String origin, final @Advice.Thrown(typing = Typing.DYNAMIC) Throwable thrown) {
       if (isEnabled(origin))
-        JedisAgentIntercept.onError(thrown);
+        JedisAgentIntercept.flush("TRANSACTION", thrown);
     }
   }
-}
\ No newline at end of file
+}
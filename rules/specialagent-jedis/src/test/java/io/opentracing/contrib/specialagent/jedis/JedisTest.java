@@ -18,6 +18,7 @@ package io.opentracing.contrib.specialagent.jedis;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.After;
@@ -33,6 +34,8 @@ import io.opentracing.mock.MockTracer;
 import io.opentracing.tag.Tags;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.Transaction;
 import redis.embedded.RedisServer;
 
 @RunWith(AgentRunner.class)
@@ -98,10 +101,65 @@ public class JedisTest {
 
     pipeline.sync();
     final List<MockSpan> spans = tracer.finishedSpans();
-    assertEquals(5, spans.size());
+    assertEquals(1, spans.size());
+    assertEquals("PIPELINE", spans.get(0).operationName());
+    assertEquals(5, spans.get(0).tags().get(JedisAgentIntercept.COMMAND_COUNT_TAG));
+    assertEquals("SET:5", spans.get(0).tags().get(JedisAgentIntercept.COMMANDS_TAG));
+    checkSpans(spans);
+  }
+
+  @Test
+  public void transaction(final MockTracer tracer) {
+    final Transaction transaction = jedis.multi();
+    for (int i = 0; i < 3; ++i)
+      transaction.set("key-" + i, "value-" + i);
+
+    transaction.get("key-0");
+    assertEquals(4, transaction.exec().size());
+    List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(1, spans.size());
+    assertEquals("TRANSACTION", spans.get(0).operationName());
+    assertEquals(4, spans.get(0).tags().get(JedisAgentIntercept.COMMAND_COUNT_TAG));
+    assertEquals("SET:3,GET:1", spans.get(0).tags().get(JedisAgentIntercept.COMMANDS_TAG));
+
+    // The replies of the transaction are not taken for those of later commands
+    assertEquals("value-0", jedis.get("key-0"));
+    spans = tracer.finishedSpans();
+    assertEquals(2, spans.size());
+    assertEquals("GET", spans.get(1).operationName());
+    assertEquals("key-0", spans.get(1).tags().get(Tags.DB_STATEMENT.getKey()));
     checkSpans(spans);
   }
 
+  @Test
+  public void testDropped() throws InterruptedException {
+    final long dropped = JedisAgentIntercept.getDropped();
+    final Thread thread = new Thread() {
+      @Override
+      public void run() {
+        // The replies of the commands are not read on this thread
+        for (int i = 0; i < 20; ++i)
+          JedisAgentIntercept.sendCommand(Command.UNSUBSCRIBE, null);
+      }
+    };
+    thread.start();
+    thread.join();
+    assertEquals(4, JedisAgentIntercept.getDropped() - dropped);
+  }
+
+  @Test
+  public void testCapture() {
+    final byte[][] args = new byte[10][];
+    for (int i = 0; i < args.length; ++i)
+      args[i] = ("arg-" + i).getBytes();
+
+    args[0] = new byte[1024];
+    Arrays.fill(args[0], (byte)'k');
+    final String statement = JedisAgentIntercept.capture(args);
+    assertTrue(statement, statement.startsWith(new String(args[0], 0, JedisAgentIntercept.maxBytes) + "... arg-1 "));
+    assertTrue(statement, statement.endsWith(" arg-7 ...(2 more)"));
+  }
+
   private static void checkSpans(final List<MockSpan> spans) {
     for (final MockSpan span : spans) {
       assertEquals("java-redis", span.tags().get(Tags.COMPONENT.getKey()));
@@ -0,0 +1,71 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.kafka.common.header.Headers;
+
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMap;
+
+/**
+ * A {@link TextMap} carrier that injects a {@link SpanContext} into the
+ * {@link Headers} of a record. The carrier of a thread is reused from
+ * record to record, instead of allocating a carrier per record.
+ */
+final class HeadersInjector implements TextMap {
+  private static final ThreadLocal<HeadersInjector> injector = ThreadLocal.withInitial(HeadersInjector::new);
+
+  /**
+   * Injects the specified context into the specified headers.
+   *
+   * @param tracer The {@link Tracer}.
+   * @param context The {@link SpanContext} to inject.
+   * @param headers The {@link Headers} into which the context is to be
+   *          injected.
+   */
+  static void inject(final Tracer tracer, final SpanContext context, final Headers headers) {
+    final HeadersInjector carrier = injector.get();
+    carrier.headers = headers;
+    try {
+      tracer.inject(context, Format.Builtin.TEXT_MAP, carrier);
+    }
+    finally {
+      carrier.headers = null;
+    }
+  }
+
+  private Headers headers;
+
+  private HeadersInjector() {
+  }
+
+  @Override
+  public void put(final String key, final String value) {
+    headers.remove(key);
+    headers.add(key, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public Iterator<Map.Entry<String,String>> iterator() {
+    throw new UnsupportedOperationException("iterator should never be used with Tracer.inject()");
+  }
+}
@@ -15,32 +15,384 @@
 
 package io.opentracing.contrib.specialagent.kafka;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
 
-import io.opentracing.Scope;
+import io.opentracing.References;
 import io.opentracing.Span;
-import io.opentracing.contrib.kafka.TracingCallback;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
 import io.opentracing.contrib.kafka.TracingKafkaUtils;
+import io.opentracing.tag.Tags;
 import io.opentracing.util.GlobalTracer;
 
 public class KafkaAgentIntercept {
-  public static void onConsumerEnter(final Object records) {
-    for (final ConsumerRecord<?,?> record : (ConsumerRecords<?,?>)records)
-      TracingKafkaUtils.buildAndFinishChildSpan(record, GlobalTracer.get());
+  public static final String BATCH_PROPERTY = "sa.instrumentation.plugin.kafka-client.consumer.batch";
+  public static final String SAMPLE_PROPERTY = "sa.instrumentation.plugin.kafka-client.consumer.sample";
+  public static final String PRODUCER_BATCH_PROPERTY = "sa.instrumentation.plugin.kafka-client.producer.batch";
+  static final String COMPONENT_NAME = "java-kafka";
+  static final String RECORD_COUNT_TAG = "kafka.record.count";
+  static final String PARTITIONS_TAG = "kafka.partitions";
+  static final String LAG_TAG = "kafka.lag.ms";
+  static final String ERRORS_TAG = "kafka.errors";
+
+  /**
+   * Whether a poll of a {@code KafkaConsumer} is traced with one span for its
+   * batch of records, instead of one span per record.
+   */
+  static final boolean batch = isEnabled(System.getProperty(BATCH_PROPERTY));
+
+  /**
+   * The rate (from {@code 0} to {@code 1}) at which the records of a batch
+   * that do not carry a sampled upstream context are traced with a span of
+   * their own, in the batch mode.
+   */
+  static final double sample = parseSample(System.getProperty(SAMPLE_PROPERTY));
+
+  /**
+   * Whether a {@code ProducerBatch} is traced with one span that links the
+   * contexts of its sends, instead of one span per send.
+   */
+  static final boolean producerBatch = isEnabled(System.getProperty(PRODUCER_BATCH_PROPERTY));
+
+  private static boolean isEnabled(final String property) {
+    return property != null && !"false".equals(property);
+  }
+
+  private static double parseSample(final String property) {
+    return property == null ? 0 : Double.parseDouble(property);
+  }
+
+  /**
+   * @return The start timestamp (in microseconds) of the poll, or {@code 0}
+   *         if the batch mode is not enabled.
+   */
+  public static long onConsumerEnter() {
+    return onConsumerEnter(batch);
+  }
+
+  /**
+   * @param batch Whether the batch mode is enabled.
+   * @return The start timestamp (in microseconds) of the poll, or {@code 0}
+   *         if the batch mode is not enabled.
+   */
+  static long onConsumerEnter(final boolean batch) {
+    return batch ? System.currentTimeMillis() * 1000 : 0;
+  }
+
+  public static void onConsumerExit(final Object records, final long startMicros) {
+    onConsumerExit(records, startMicros, sample);
+  }
+
+  /**
+   * Traces the records of a poll, with one span per record in the default
+   * mode, or with one span for the batch of records in the batch mode.
+   *
+   * @param records The {@code ConsumerRecords} of the poll.
+   * @param startMicros The start timestamp (in microseconds) of the poll, or
+   *          {@code 0} if the batch mode is not enabled.
+   * @param sample The rate at which the records of a batch that do not carry
+   *          a sampled upstream context are traced with a span of their own.
+   */
+  static void onConsumerExit(final Object records, final long startMicros, final double sample) {
+    final ConsumerRecords<?,?> consumerRecords = (ConsumerRecords<?,?>)records;
+    if (startMicros == 0) {
+      for (final ConsumerRecord<?,?> record : consumerRecords)
+        TracingKafkaUtils.buildAndFinishChildSpan(record, GlobalTracer.get());
+
+      return;
+    }
+
+    if (consumerRecords == null || consumerRecords.isEmpty())
+      return;
+
+    final Tracer tracer = GlobalTracer.get();
+    final long now = System.currentTimeMillis();
+    long oldest = Long.MAX_VALUE;
+    for (final ConsumerRecord<?,?> record : consumerRecords) {
+      if (record.timestamp() >= 0 && record.timestamp() < oldest)
+        oldest = record.timestamp();
+
+      if (isSampled(record.headers()) || sample >= 1 || sample > 0 && ThreadLocalRandom.current().nextDouble() < sample)
+        TracingKafkaUtils.buildAndFinishChildSpan(record, tracer);
+    }
+
+    final StringBuilder partitions = new StringBuilder();
+    for (final TopicPartition partition : consumerRecords.partitions()) {
+      if (partitions.length() > 0)
+        partitions.append(',');
+
+      partitions.append(partition.topic()).append('-').append(partition.partition());
+    }
+
+    final Span span = tracer.buildSpan("poll")
+      .withStartTimestamp(startMicros)
+      .withTag(Tags.COMPONENT.getKey(), COMPONENT_NAME)
+      .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CONSUMER)
+      .withTag(RECORD_COUNT_TAG, consumerRecords.count())
+      .withTag(PARTITIONS_TAG, partitions.toString()).start();
+    if (oldest != Long.MAX_VALUE)
+      span.setTag(LAG_TAG, Math.max(0, now - oldest));
+
+    span.finish(now * 1000);
+  }
+
+  /**
+   * Returns whether the specified headers carry the context of a sampled
+   * upstream span. The OpenTracing API does not expose the sampling decision
+   * of a {@code SpanContext}, so the decision is read from the propagation
+   * headers of Jaeger ({@code uber-trace-id}), B3 ({@code X-B3-Sampled} and
+   * {@code b3}) and W3C Trace Context ({@code traceparent}). Contexts of other
+   * formats are not considered sampled.
+   *
+   * @param headers The headers of a record.
+   * @return Whether the headers carry the context of a sampled upstream span.
+   */
+  static boolean isSampled(final Headers headers) {
+    if (headers == null)
+      return false;
+
+    String value = lastValue(headers, "uber-trace-id");
+    if (value != null) {
+      value = value.replace("%3A", ":").replace("%3a", ":");
+      final int index = value.lastIndexOf(':');
+      try {
+        return index != -1 && (Integer.parseInt(value.substring(index + 1), 16) & 1) != 0;
+      }
+      catch (final NumberFormatException e) {
+        return false;
+      }
+    }
+
+    value = lastValue(headers, "X-B3-Sampled");
+    if (value == null)
+      value = lastValue(headers, "x-b3-sampled");
+
+    if (value != null)
+      return "1".equals(value) || "true".equalsIgnoreCase(value);
+
+    value = lastValue(headers, "b3");
+    if (value != null) {
+      final String[] parts = value.split("-");
+      return parts.length == 1 ? "1".equals(parts[0]) || "d".equals(parts[0]) : parts.length > 2 && ("1".equals(parts[2]) || "d".equals(parts[2]));
+    }
+
+    value = lastValue(headers, "traceparent");
+    if (value != null) {
+      final String[] parts = value.split("-");
+      try {
+        return parts.length > 3 && (Integer.parseInt(parts[3], 16) & 1) != 0;
+      }
+      catch (final NumberFormatException e) {
+        return false;
+      }
+    }
+
+    return false;
   }
 
+  private static String lastValue(final Headers headers, final String key) {
+    final Header header = headers.lastHeader(key);
+    return header == null || header.value() == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Creates the context of a {@code KafkaProducer.send}. In the default mode,
+   * the span of the send is built and injected into the headers of the record
+   * by {@link TracingKafkaUtils#buildAndInjectSpan(ProducerRecord,Tracer)},
+   * and activated. In the linger-batch mode, the context of the active span
+   * is injected into the headers of the record instead, and no span is
+   * created for the send.
+   *
+   * @param record The {@code ProducerRecord}.
+   * @param callback The {@code Callback} of the send, or {@code null}.
+   * @return The {@link SendContext}, which is to replace the callback of the
+   *         send, and to be passed to {@link #onProducerExit(Object,Throwable)}.
+   */
   public static Object onProducerEnter(final Object record, final Object callback) {
-    final Span span = TracingKafkaUtils.buildAndInjectSpan((ProducerRecord<?,?>)record, GlobalTracer.get());
-    return new TracingCallback((Callback)callback, span, GlobalTracer.get());
+    return onProducerEnter(record, callback, producerBatch);
+  }
+
+  /**
+   * Creates the context of a {@code KafkaProducer.send} in the specified mode.
+   *
+   * @param record The {@code ProducerRecord}.
+   * @param callback The {@code Callback} of the send, or {@code null}.
+   * @param producerBatch Whether the linger-batch mode is enabled.
+   * @return The {@link SendContext} of the send.
+   */
+  static Object onProducerEnter(final Object record, final Object callback, final boolean producerBatch) {
+    final ProducerRecord<?,?> producerRecord = (ProducerRecord<?,?>)record;
+    final Tracer tracer = GlobalTracer.get();
+    final long startMicros = System.currentTimeMillis() * 1000;
+    if (producerBatch) {
+      final Span active = tracer.activeSpan();
+      final SpanContext parent = active == null ? null : active.context();
+      if (parent != null)
+        HeadersInjector.inject(tracer, parent, producerRecord.headers());
+
+      return new SendContext((Callback)callback, null, parent, producerRecord.topic(), startMicros);
+    }
+
+    final Span span = TracingKafkaUtils.buildAndInjectSpan(producerRecord, tracer);
+    final SendContext context = new SendContext((Callback)callback, span, null, producerRecord.topic(), startMicros);
+    context.scope = tracer.activateSpan(span);
+    return context;
+  }
+
+  /**
+   * Closes the scope of the specified context of a send. If the send threw an
+   * exception, the callback of the send is not called, so the span of the
+   * send is finished here.
+   *
+   * @param context The {@link SendContext} returned by
+   *          {@link #onProducerEnter(Object,Object)}.
+   * @param thrown The exception thrown by the send, or {@code null}.
+   */
+  public static void onProducerExit(final Object context, final Throwable thrown) {
+    final SendContext sendContext = (SendContext)context;
+    if (sendContext.scope != null)
+      sendContext.scope.close();
+
+    if (thrown == null)
+      return;
+
+    if (sendContext.span != null) {
+      onError(sendContext.span, thrown);
+      sendContext.span.finish();
+    }
+    else {
+      onBatchRecord(sendContext, thrown);
+    }
+  }
+
+  /**
+   * The records of a {@code ProducerBatch} that are completed on a thread,
+   * in the linger-batch mode. The instance of a thread is reused from batch
+   * to batch.
+   */
+  static final class Batch {
+    private final List<SpanContext> parents = new ArrayList<>();
+    private boolean active;
+    private int count;
+    private int errors;
+    private long startMicros;
+    private String topic;
+    private Throwable thrown;
+
+    private void add(final SendContext context, final Throwable thrown) {
+      if (count++ == 0 || context.startMicros < startMicros)
+        startMicros = context.startMicros;
+
+      if (topic == null)
+        topic = context.topic;
+
+      if (thrown != null) {
+        ++errors;
+        this.thrown = thrown;
+      }
+
+      // Consecutive records of a batch are usually sent in the same span
+      if (context.parent != null && (parents.isEmpty() || parents.get(parents.size() - 1) != context.parent))
+        parents.add(context.parent);
+    }
+
+    private void flush() {
+      if (count == 0)
+        return;
+
+      final Tracer.SpanBuilder builder = GlobalTracer.get().buildSpan("flush")
+        .ignoreActiveSpan()
+        .withStartTimestamp(startMicros)
+        .withTag(Tags.COMPONENT.getKey(), COMPONENT_NAME)
+        .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_PRODUCER)
+        .withTag(Tags.MESSAGE_BUS_DESTINATION.getKey(), topic)
+        .withTag(RECORD_COUNT_TAG, count);
+      for (int i = 0, size = parents.size(); i < size; ++i)
+        builder.addReference(References.FOLLOWS_FROM, parents.get(i));
+
+      final Span span = builder.start();
+      if (thrown != null) {
+        span.setTag(ERRORS_TAG, errors);
+        onError(span, thrown);
+      }
+
+      span.finish();
+      parents.clear();
+      count = 0;
+      errors = 0;
+      topic = null;
+      thrown = null;
+    }
+  }
+
+  private static final ThreadLocal<Batch> batches = ThreadLocal.withInitial(Batch::new);
+
+  /**
+   * @return Whether the linger-batch mode is enabled.
+   */
+  public static boolean isProducerBatch() {
+    return producerBatch;
+  }
+
+  /**
+   * Called when a {@code ProducerBatch} is about to complete the callbacks of
+   * its records, in the linger-batch mode.
+   */
+  public static void onBatchEnter() {
+    batches.get().active = true;
+  }
+
+  /**
+   * Called when a {@code ProducerBatch} has completed the callbacks of its
+   * records, in the linger-batch mode, which creates one span for the batch
+   * that links the contexts of its sends.
+   *
+   * @param thrown The exception thrown by the completion, or {@code null}.
+   */
+  public static void onBatchExit(final Throwable thrown) {
+    final Batch batch = batches.get();
+    batch.active = false;
+    if (thrown != null && batch.count > 0)
+      batch.thrown = thrown;
+
+    batch.flush();
+  }
+
+  /**
+   * Called when a record that was sent in the linger-batch mode is completed.
+   * A record that is completed outside of a {@code ProducerBatch} (i.e. one
+   * that failed before it was appended to a batch) is flushed as a batch of
+   * its own.
+   *
+   * @param context The {@link SendContext} of the record.
+   * @param thrown The exception with which the record failed, or
+   *          {@code null}.
+   */
+  static void onBatchRecord(final SendContext context, final Throwable thrown) {
+    final Batch batch = batches.get();
+    batch.add(context, thrown);
+    if (!batch.active)
+      batch.flush();
   }
 
-  @SuppressWarnings("resource")
-  public static void onProducerExit() {
-    final Scope active = GlobalTracer.get().scopeManager().active();
-    if (active != null)
-      active.close();
+  static void onError(final Span span, final Throwable thrown) {
+    Tags.ERROR.set(span, Boolean.TRUE);
+    final Map<String,Object> errorLogs = new HashMap<>(2);
+    errorLogs.put("event", Tags.ERROR.getKey());
+    errorLogs.put("error.object", thrown);
+    span.log(errorLogs);
   }
-}
\ No newline at end of file
+}
@@ -43,28 +43,60 @@ public class KafkaAgentRule extends AgentRule {
         @Override
         public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
           return builder.visit(Advice.to(Producer.class).on(named("send").and(takesArguments(2))));
+        }})
+      .type(named("org.apache.kafka.clients.producer.internals.ProducerBatch"))
+      .transform(new Transformer() {
+        @Override
+        public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
+          return builder.visit(Advice.to(ProducerBatch.class).on(named("done").and(takesArguments(3))));
         }}));
   }
 
   public static class Consumer {
+    @Advice.OnMethodEnter
+    public static long enter(final @Advice.Origin String origin) {
+      return isEnabled(origin) ? KafkaAgentIntercept.onConsumerEnter() : 0;
+    }
+
     @Advice.OnMethodExit
-    public static void exit(final @Advice.Origin String origin, final @Advice.Return(typing = Typing.DYNAMIC) Object returned) {
+    public static void exit(final @Advice.Origin String origin, final @Advice.Enter long startMicros, final @Advice.Return(typing = Typing.DYNAMIC) Object returned) {
       if (isEnabled(origin))
-        KafkaAgentIntercept.onConsumerEnter(returned);
+        KafkaAgentIntercept.onConsumerExit(returned, startMicros);
     }
   }
 
   public static class Producer {
     @Advice.OnMethodEnter
-    public static void enter(final @Advice.Origin String origin, final @Advice.Argument(value = 0, typing = Typing.DYNAMIC) Object record, @Advice.Argument(value = 1, readOnly = false, typing = Typing.DYNAMIC) Object callback) {
-      if (isEnabled(origin))
-        callback = KafkaAgentIntercept.onProducerEnter(record, callback);
+    public static Object enter(final @Advice.Origin String origin, final @Advice.Argument(value = 0, typing = Typing.DYNAMIC) Object record, @Advice.Argument(value = 1, readOnly = false, typing = Typing.DYNAMIC) Object callback) {
+      if (!isEnabled(origin))
+        return null;
+
+      final Object context = KafkaAgentIntercept.onProducerEnter(record, callback);
+      callback = context;
+      return context;
     }
 
-    @Advice.OnMethodExit
-    public static void exit(final @Advice.Origin String origin) {
-      if (isEnabled(origin))
-        KafkaAgentIntercept.onProducerExit();
+    @Advice.OnMethodExit(onThrowable = Throwable.class)
+    public static void exit(final @Advice.Enter Object context, final @Advice.Thrown(typing = Typing.DYNAMIC) Throwable thrown) {
+      if (context != null)
+        KafkaAgentIntercept.onProducerExit(context, thrown);
+    }
+  }
+
+  public static class ProducerBatch {
+    @Advice.OnMethodEnter
+    public static boolean enter(final @Advice.Origin String origin) {
+      if (!isEnabled(origin) || !KafkaAgentIntercept.isProducerBatch())
+        return false;
+
+      KafkaAgentIntercept.onBatchEnter();
+      return true;
+    }
+
+    @Advice.OnMethodExit(onThrowable = Throwable.class)
+    public static void exit(final @Advice.Enter boolean batch, final @Advice.Thrown(typing = Typing.DYNAMIC) Throwable thrown) {
+      if (batch)
+        KafkaAgentIntercept.onBatchExit(thrown);
     }
   }
 }
\ No newline at end of file
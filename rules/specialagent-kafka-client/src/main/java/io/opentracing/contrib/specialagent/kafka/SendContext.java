@@ -0,0 +1,75 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.kafka;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.util.GlobalTracer;
+
+/**
+ * The context of a {@code KafkaProducer.send}, which is returned by the
+ * enter advice to be closed by the exit advice, and which replaces the
+ * callback of the send, so that a send allocates a single object for its
+ * callback and its context.
+ * <p>
+ * In the default mode, the context holds the span of the send, which is
+ * active for the duration of the send, and is finished when the send is
+ * completed. In the linger-batch mode, the context holds the context of the
+ * span that was active when the record was sent, which is linked from the
+ * span of the batch in which the record is flushed.
+ */
+public class SendContext implements Callback {
+  private final Callback callback;
+  final Span span;
+  final SpanContext parent;
+  final String topic;
+  final long startMicros;
+  Scope scope;
+
+  SendContext(final Callback callback, final Span span, final SpanContext parent, final String topic, final long startMicros) {
+    this.callback = callback;
+    this.span = span;
+    this.parent = parent;
+    this.topic = topic;
+    this.startMicros = startMicros;
+  }
+
+  @Override
+  public void onCompletion(final RecordMetadata metadata, final Exception exception) {
+    if (span == null) {
+      KafkaAgentIntercept.onBatchRecord(this, exception);
+      if (callback != null)
+        callback.onCompletion(metadata, exception);
+
+      return;
+    }
+
+    if (exception != null)
+      KafkaAgentIntercept.onError(span, exception);
+
+    try (final Scope ignored = GlobalTracer.get().activateSpan(span)) {
+      if (callback != null)
+        callback.onCompletion(metadata, exception);
+    }
+    finally {
+      span.finish();
+    }
+  }
+}
@@ -19,8 +19,10 @@ import static org.awaitility.Awaitility.*;
 import static org.hamcrest.core.IsEqual.*;
 import static org.junit.Assert.*;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +39,10 @@ import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KafkaStreams;
@@ -53,6 +59,8 @@ import org.junit.runner.RunWith;
 import org.springframework.kafka.test.rule.EmbeddedKafkaRule;
 import org.springframework.kafka.test.utils.KafkaTestUtils;
 
+import io.opentracing.References;
+import io.opentracing.Scope;
 import io.opentracing.SpanContext;
 import io.opentracing.contrib.kafka.TracingKafkaUtils;
 import io.opentracing.contrib.specialagent.AgentRunner;
@@ -88,6 +96,97 @@ public class KafkaTest {
     assertNull(tracer.activeSpan());
   }
 
+  @Test
+  public void batch(final MockTracer tracer) {
+    assertEquals(0, KafkaAgentIntercept.onConsumerEnter(false));
+    final long startMicros = KafkaAgentIntercept.onConsumerEnter(true);
+    assertTrue(startMicros > 0);
+
+    KafkaAgentIntercept.onConsumerExit(consumerRecords(2), startMicros, 0);
+    List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(1, spans.size());
+    final MockSpan span = spans.get(0);
+    assertEquals("poll", span.operationName());
+    assertEquals(startMicros, span.startMicros());
+    assertEquals(2, span.tags().get(KafkaAgentIntercept.RECORD_COUNT_TAG));
+    assertEquals("messages-0", span.tags().get(KafkaAgentIntercept.PARTITIONS_TAG));
+    assertNotNull(span.tags().get(KafkaAgentIntercept.LAG_TAG));
+
+    // Records that are sampled are traced with a span of their own
+    tracer.reset();
+    KafkaAgentIntercept.onConsumerExit(consumerRecords(2), KafkaAgentIntercept.onConsumerEnter(true), 1);
+    spans = tracer.finishedSpans();
+    assertEquals(3, spans.size());
+    assertEquals("poll", spans.get(2).operationName());
+    assertNull(tracer.activeSpan());
+  }
+
+  private static ConsumerRecords<Integer,String> consumerRecords(final int count) {
+    final long timestamp = System.currentTimeMillis() - 10;
+    final List<ConsumerRecord<Integer,String>> records = new ArrayList<>();
+    for (int i = 0; i < count; ++i)
+      records.add(new ConsumerRecord<>("messages", 0, i, timestamp, TimestampType.CREATE_TIME, (long)ConsumerRecord.NULL_CHECKSUM, ConsumerRecord.NULL_SIZE, ConsumerRecord.NULL_SIZE, 1, "test"));
+
+    return new ConsumerRecords<>(Collections.singletonMap(new TopicPartition("messages", 0), records));
+  }
+
+  @Test
+  public void producerBatch(final MockTracer tracer) {
+    final MockSpan parent = tracer.buildSpan("parent").start();
+    final List<ProducerRecord<Integer,String>> records = new ArrayList<>();
+    final List<SendContext> contexts = new ArrayList<>();
+    try (final Scope scope = tracer.activateSpan(parent)) {
+      for (int i = 0; i < 2; ++i) {
+        final ProducerRecord<Integer,String> record = new ProducerRecord<>("messages", 1, "test");
+        final Object context = KafkaAgentIntercept.onProducerEnter(record, null, true);
+        KafkaAgentIntercept.onProducerExit(context, null);
+        records.add(record);
+        contexts.add((SendContext)context);
+      }
+    }
+    finally {
+      parent.finish();
+    }
+
+    // No span is created for a send, but the context of the active span is
+    // injected into the headers of the record
+    assertEquals(1, tracer.finishedSpans().size());
+    for (final ProducerRecord<Integer,String> record : records)
+      assertEquals(String.valueOf(parent.context().spanId()), new String(record.headers().lastHeader("spanid").value(), StandardCharsets.UTF_8));
+
+    // The sends that are completed by a ProducerBatch are traced with one span
+    KafkaAgentIntercept.onBatchEnter();
+    for (final SendContext context : contexts)
+      context.onCompletion(null, null);
+
+    KafkaAgentIntercept.onBatchExit(null);
+    final List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(2, spans.size());
+    final MockSpan span = spans.get(1);
+    assertEquals("flush", span.operationName());
+    assertEquals(2, span.tags().get(KafkaAgentIntercept.RECORD_COUNT_TAG));
+    assertEquals(1, span.references().size());
+    assertEquals(References.FOLLOWS_FROM, span.references().get(0).getReferenceType());
+    assertEquals(parent.context().spanId(), span.references().get(0).getContext().spanId());
+    assertNull(tracer.activeSpan());
+  }
+
+  @Test
+  public void isSampled() {
+    assertFalse(KafkaAgentIntercept.isSampled(new RecordHeaders()));
+    assertTrue(KafkaAgentIntercept.isSampled(headers("uber-trace-id", "abc:def:0:1")));
+    assertFalse(KafkaAgentIntercept.isSampled(headers("uber-trace-id", "abc%3Adef%3A0%3A0")));
+    assertTrue(KafkaAgentIntercept.isSampled(headers("X-B3-Sampled", "1")));
+    assertFalse(KafkaAgentIntercept.isSampled(headers("b3", "abc-def-0")));
+    assertTrue(KafkaAgentIntercept.isSampled(headers("b3", "abc-def-1-ghi")));
+    assertTrue(KafkaAgentIntercept.isSampled(headers("traceparent", "00-abc-def-01")));
+    assertFalse(KafkaAgentIntercept.isSampled(headers("traceparent", "00-abc-def-00")));
+  }
+
+  private static Headers headers(final String key, final String value) {
+    return new RecordHeaders().add(key, value.getBytes(StandardCharsets.UTF_8));
+  }
+
   @Test
   public void streams(MockTracer tracer) {
     try (final Producer<Integer,String> producer = createProducer()) {
@@ -17,32 +17,18 @@ package io.opentracing.contrib.specialagent.okhttp;
 
 import static net.bytebuddy.matcher.ElementMatchers.*;
 
-import java.util.Arrays;
-
 import io.opentracing.contrib.specialagent.AgentRule;
-import net.bytebuddy.agent.builder.AgentBuilder;
-import net.bytebuddy.agent.builder.AgentBuilder.Transformer;
+import io.opentracing.contrib.specialagent.DynamicAdvice;
 import net.bytebuddy.asm.Advice;
-import net.bytebuddy.description.type.TypeDescription;
-import net.bytebuddy.dynamic.DynamicType.Builder;
 import net.bytebuddy.implementation.bytecode.assign.Assigner.Typing;
-import net.bytebuddy.utility.JavaModule;
 
 public class OkHttpAgentRule extends AgentRule {
   @Override
-  public Iterable<? extends AgentBuilder> buildAgent(final AgentBuilder builder) throws Exception {
-    return Arrays.asList(builder
-      .type(named("okhttp3.OkHttpClient"))
-      .transform(new Transformer() {
-        @Override
-        public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
-          return builder.visit(Advice.to(Interceptors.class).on(named("interceptors")));
-        }})
-      .transform(new Transformer() {
-        @Override
-        public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
-          return builder.visit(Advice.to(NetworkInterceptors.class).on(named("networkInterceptors")));
-        }}));
+  public DynamicAdvice[] advice() {
+    return new DynamicAdvice[] {
+      new DynamicAdvice(named("okhttp3.OkHttpClient"), named("interceptors"), Interceptors.class),
+      new DynamicAdvice(named("okhttp3.OkHttpClient"), named("networkInterceptors"), NetworkInterceptors.class)
+    };
   }
 
   public static class Interceptors {
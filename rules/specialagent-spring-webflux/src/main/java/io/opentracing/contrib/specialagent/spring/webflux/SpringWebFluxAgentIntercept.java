@@ -19,12 +19,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClient.Builder;
 import org.springframework.web.server.WebFilter;
 
+import io.opentracing.contrib.specialagent.PathMatcher;
 import io.opentracing.contrib.specialagent.spring.webflux.copied.TracingExchangeFilterFunction;
 import io.opentracing.contrib.specialagent.spring.webflux.copied.TracingWebFilter;
 import io.opentracing.contrib.specialagent.spring.webflux.copied.WebClientSpanDecorator;
@@ -32,12 +32,19 @@ import io.opentracing.contrib.specialagent.spring.webflux.copied.WebFluxSpanDeco
 import io.opentracing.util.GlobalTracer;
 
 public class SpringWebFluxAgentIntercept {
-  public static final Pattern pattern = Pattern.compile("");
+  public static final String SKIP_PROPERTY = "sa.instrumentation.plugin.spring-webflux.skip";
+
+  /**
+   * The matcher of the paths of requests that are not to be traced, as
+   * specified with the {@link #SKIP_PROPERTY} system property, or
+   * {@code null} if the property is not specified.
+   */
+  public static final PathMatcher skipMatcher = PathMatcher.parse(System.getProperty(SKIP_PROPERTY));
 
   @SuppressWarnings("unchecked")
   public static Object filters(final Object arg) {
     final List<WebFilter> filters = new ArrayList<>((List<WebFilter>)arg);
-    filters.add(new TracingWebFilter(GlobalTracer.get(), Integer.MIN_VALUE, pattern, Collections.emptyList(), Arrays.asList(new WebFluxSpanDecorator.StandardTags(), new WebFluxSpanDecorator.WebFluxTags())));
+    filters.add(new TracingWebFilter(GlobalTracer.get(), Integer.MIN_VALUE, skipMatcher, null, Collections.emptyList(), Arrays.asList(new WebFluxSpanDecorator.StandardTags(), new WebFluxSpanDecorator.WebFluxTags())));
     return Collections.unmodifiableList(filters);
   }
 
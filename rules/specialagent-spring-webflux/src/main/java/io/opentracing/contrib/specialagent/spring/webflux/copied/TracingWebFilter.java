@@ -16,6 +16,7 @@
 package io.opentracing.contrib.specialagent.spring.webflux.copied;
 
 import io.opentracing.Tracer;
+import io.opentracing.contrib.specialagent.PathMatcher;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.core.Ordered;
@@ -56,6 +57,8 @@ public class TracingWebFilter implements WebFilter, Ordered {
   private final Tracer tracer;
   private final int order;
   @Nullable
+  private final PathMatcher skipMatcher;
+  @Nullable
   private final Pattern skipPattern;
   private final Set<PathPattern> urlPatterns;
   private final List<WebFluxSpanDecorator> spanDecorators;
@@ -63,12 +66,14 @@ public class TracingWebFilter implements WebFilter, Ordered {
   public TracingWebFilter(
       final Tracer tracer,
       final int order,
+      final PathMatcher skipMatcher,
       final Pattern skipPattern,
       final List<String> urlPatterns,
       final List<WebFluxSpanDecorator> spanDecorators
   ) {
     this.tracer = tracer;
     this.order = order;
+    this.skipMatcher = skipMatcher;
     this.skipPattern = (skipPattern != null && StringUtils.hasText(skipPattern.pattern())) ? skipPattern : null;
     final PathPatternParser pathPatternParser = new PathPatternParser();
     this.urlPatterns = urlPatterns.stream().map(pathPatternParser::parse).collect(Collectors.toSet());
@@ -100,6 +105,13 @@ public class TracingWebFilter implements WebFilter, Ordered {
    */
   boolean shouldBeTraced(final ServerHttpRequest request) {
     final PathContainer pathWithinApplication = request.getPath().pathWithinApplication();
+    // skip URLs matching skip matcher, which matches without allocation
+    if (skipMatcher != null && skipMatcher.matches(pathWithinApplication.value())) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Not tracing request " + request + " because it matches skip matcher");
+      }
+      return false;
+    }
     // skip URLs matching skip pattern
     // e.g. pattern is defined as '/health|/status' then URL 'http://localhost:5000/context/health' won't be traced
     if (skipPattern != null) {
@@ -15,53 +15,216 @@
 
 package io.opentracing.contrib.specialagent.thread;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.contrib.specialagent.BootProxyClassLoader;
+import io.opentracing.contrib.specialagent.Level;
+import io.opentracing.contrib.specialagent.Logger;
 import io.opentracing.util.GlobalTracer;
 
+/**
+ * Propagates the span that is active when a {@link Thread} is started to the
+ * {@link Thread#run()} of the thread. The span is handed over in the
+ * {@link #slot}, a {@link ThreadLocal} of the started thread: when the thread
+ * is started, the thread-local map of the thread (which is not created before
+ * the thread runs) is created with the span in the slot, so that the span is
+ * referenced by the thread itself, and is collected with a thread that is
+ * started but never runs. The slot is cleared when the thread runs, and the
+ * scope in which the span is active in {@code run()} is handed from the enter
+ * to the exit advice. A thread that has no thread-local map when it runs was
+ * not handed a span, so the slot is not looked up on such a thread, which
+ * would otherwise create a map for it.
+ * <p>
+ * {@code java.lang.Thread} is loaded before the agent, so a field cannot be
+ * added to it. The thread-local map is instead created via method handles of
+ * the {@link MethodHandles.Lookup} of {@code java.lang.Thread}, which is
+ * passed by the advice of {@link Thread#start()} that is inlined into it. On
+ * JDK 8, on which such a lookup cannot be created for a class of the
+ * bootstrap class loader, the method handles are created via reflection.
+ * <p>
+ * Virtual threads (JDK 21+) are not propagated via the slot, because they
+ * are started at the rate of tasks rather than of threads. Instead, the task
+ * of a virtual thread is wrapped when the thread is created, with the span
+ * that is active at that time. {@code Thread.Builder.OfVirtual.start(Runnable)}
+ * and the thread-per-task executors create and start a virtual thread in the
+ * same call, so the span is the same as when the thread is started.
+ */
 @SuppressWarnings("unchecked")
 public class ThreadAgentIntercept {
-  public static final Map<Long,Span> cache;
-  private static final ThreadLocal<Scope> scopeHandler = new ThreadLocal<>();
+  private static final Logger logger = Logger.getLogger(ThreadAgentIntercept.class);
+  static final String VIRTUAL_THREAD = "java.lang.VirtualThread";
+
+  private static final int GET_THREAD_LOCALS = 0;
+  private static final int SET_THREAD_LOCALS = 1;
+  private static final int NEW_THREAD_LOCAL_MAP = 2;
+
+  public static final ThreadLocal<Span> slot;
+
+  /**
+   * The method handles to the thread-local map of a thread, which are linked
+   * by the instance of this class in the bootstrap class loader, and shared
+   * with the instances in other class loaders (in which {@link #runEnter(Object)}
+   * may be called).
+   */
+  public static final AtomicReferenceArray<MethodHandle> handles;
+  private static volatile boolean linked;
 
   static {
     try {
-      if (ThreadAgentIntercept.class.getClassLoader() != null)
-        cache = (Map<Long,Span>)BootProxyClassLoader.INSTANCE.loadClass(ThreadAgentIntercept.class.getName()).getField("cache").get(null);
-      else
-        cache = new ConcurrentHashMap<>();
+      if (ThreadAgentIntercept.class.getClassLoader() != null) {
+        final Class<?> bootClass = BootProxyClassLoader.INSTANCE.loadClass(ThreadAgentIntercept.class.getName());
+        slot = (ThreadLocal<Span>)bootClass.getField("slot").get(null);
+        handles = (AtomicReferenceArray<MethodHandle>)bootClass.getField("handles").get(null);
+      }
+      else {
+        slot = new ThreadLocal<>();
+        handles = new AtomicReferenceArray<>(3);
+      }
     }
     catch (final ClassNotFoundException | IllegalAccessException | NoSuchFieldException e) {
       throw new ExceptionInInitializerError();
     }
+
+    // A lookup of a class of the bootstrap class loader in java.* cannot be
+    // created on JDK 8
+    if (System.getProperty("java.specification.version").startsWith("1."))
+      link(null);
   }
 
-  public static void start(final Object thiz) {
-    Thread thread = (Thread)thiz;
-    final Span span = GlobalTracer.get().activeSpan();
-    if (span != null)
-      cache.put(thread.getId(), span);
+  /**
+   * @return Whether the method handles to the thread-local map of a thread
+   *         are linked, after which the advice of {@link Thread#start()} no
+   *         longer passes its {@link MethodHandles.Lookup}. The handles are
+   *         linked by {@link #start(Object,MethodHandles.Lookup)}, which is
+   *         only called from {@code java.lang.Thread}, and therefore on the
+   *         instance of this class in the bootstrap class loader.
+   */
+  public static boolean isLinked() {
+    return linked;
+  }
+
+  /**
+   * Links the method handles to the thread-local map of a thread.
+   *
+   * @param lookup The {@link MethodHandles.Lookup} of {@code java.lang.Thread},
+   *          or {@code null} to link the method handles via reflection.
+   */
+  private static synchronized void link(final MethodHandles.Lookup lookup) {
+    if (linked)
+      return;
 
+    linked = true;
+    try {
+      final Class<?> mapClass = Class.forName("java.lang.ThreadLocal$ThreadLocalMap");
+      final MethodHandle getter;
+      final MethodHandle setter;
+      final MethodHandle constructor;
+      if (lookup != null) {
+        getter = lookup.findGetter(Thread.class, "threadLocals", mapClass);
+        setter = lookup.findSetter(Thread.class, "threadLocals", mapClass);
+        constructor = lookup.findConstructor(mapClass, MethodType.methodType(void.class, ThreadLocal.class, Object.class));
+      }
+      else {
+        final Field field = Thread.class.getDeclaredField("threadLocals");
+        field.setAccessible(true);
+        final Constructor<?> declaredConstructor = mapClass.getDeclaredConstructor(ThreadLocal.class, Object.class);
+        declaredConstructor.setAccessible(true);
+        getter = MethodHandles.lookup().unreflectGetter(field);
+        setter = MethodHandles.lookup().unreflectSetter(field);
+        constructor = MethodHandles.lookup().unreflectConstructor(declaredConstructor);
+      }
+
+      handles.set(SET_THREAD_LOCALS, setter.asType(MethodType.methodType(void.class, Thread.class, Object.class)));
+      handles.set(NEW_THREAD_LOCAL_MAP, constructor.asType(MethodType.methodType(Object.class, ThreadLocal.class, Object.class)));
+      handles.set(GET_THREAD_LOCALS, getter.asType(MethodType.methodType(Object.class, Thread.class)));
+    }
+    catch (final ReflectiveOperationException | RuntimeException e) {
+      logger.log(Level.WARNING, "Unable to link the thread-local map of java.lang.Thread, so the active span is not propagated to started threads", e);
+    }
   }
 
-  public static void runEnter(final Object thiz) {
+  /**
+   * Hands the active span over to the specified thread, which is about to be
+   * started.
+   *
+   * @param thiz The {@link Thread}.
+   * @param lookup The {@link MethodHandles.Lookup} of {@code java.lang.Thread},
+   *          or {@code null} if the method handles are already linked.
+   */
+  public static void start(final Object thiz, final MethodHandles.Lookup lookup) {
+    if (lookup != null)
+      link(lookup);
+
+    final MethodHandle getThreadLocals = handles.get(GET_THREAD_LOCALS);
+    if (getThreadLocals == null)
+      return;
+
+    final Span span = GlobalTracer.get().activeSpan();
+    if (span == null)
+      return;
+
     final Thread thread = (Thread)thiz;
-    final Span span = cache.get(thread.getId());
-    if (span != null) {
-      final Scope scope = GlobalTracer.get().activateSpan(span);
-      scopeHandler.set(scope);
+    try {
+      // Thread.start() synchronizes on the thread, so the thread cannot be
+      // started while its thread-local map is created
+      synchronized (thread) {
+        if (thread.getState() == Thread.State.NEW && (Object)getThreadLocals.invokeExact(thread) == null)
+          handles.get(SET_THREAD_LOCALS).invokeExact(thread, (Object)handles.get(NEW_THREAD_LOCAL_MAP).invokeExact((ThreadLocal<?>)slot, (Object)span));
+      }
+    }
+    catch (final Throwable t) {
+      logger.log(Level.WARNING, t.getMessage(), t);
     }
   }
 
-  public static void runExit(final Object thiz) {
-    final Thread thread = (Thread)thiz;
-    final Span span = cache.remove(thread.getId());
-    final Scope scope = scopeHandler.get();
-    if (scope != null)
-      scope.close();
+  /**
+   * Returns the specified task of a virtual thread, wrapped so that the span
+   * that is active when the thread is created is active while the task runs.
+   *
+   * @param task The task of the virtual thread.
+   * @return The wrapped task, or the specified task if there is no active
+   *         span.
+   */
+  public static Runnable wrap(final Runnable task) {
+    final Span span = GlobalTracer.get().activeSpan();
+    return span == null || task == null ? task : new TracedTask(task, span);
+  }
+
+  /**
+   * @param thiz The {@link Thread}.
+   * @return The {@link Scope} in which the span that was active when the
+   *         thread was started is active, or {@code null} if there was no
+   *         such span, or if the span was already activated by an enclosing
+   *         {@code run()} of the thread.
+   */
+  public static Object runEnter(final Object thiz) {
+    if (thiz != Thread.currentThread())
+      return null;
+
+    // A thread without a thread-local map was not handed a span
+    final MethodHandle getThreadLocals = handles.get(GET_THREAD_LOCALS);
+    try {
+      if (getThreadLocals == null || (Object)getThreadLocals.invokeExact((Thread)thiz) == null)
+        return null;
+    }
+    catch (final Throwable t) {
+      logger.log(Level.WARNING, t.getMessage(), t);
+      return null;
+    }
+
+    final Span span = slot.get();
+    slot.remove();
+    return span == null ? null : GlobalTracer.get().activateSpan(span);
+  }
+
+  public static void runExit(final Object scope) {
+    ((Scope)scope).close();
   }
-}
\ No newline at end of file
+}
@@ -17,6 +17,7 @@ package io.opentracing.contrib.specialagent.thread;
 
 import static net.bytebuddy.matcher.ElementMatchers.*;
 
+import java.lang.invoke.MethodHandles;
 import java.util.Arrays;
 
 import io.opentracing.contrib.specialagent.AgentRule;
@@ -25,50 +26,60 @@ import net.bytebuddy.agent.builder.AgentBuilder.Transformer;
 import net.bytebuddy.asm.Advice;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.DynamicType.Builder;
+import net.bytebuddy.implementation.bytecode.assign.Assigner.Typing;
 import net.bytebuddy.utility.JavaModule;
 
 public class ThreadAgentRule extends AgentRule {
   @Override
   public Iterable<? extends AgentBuilder> buildAgent(final AgentBuilder builder) {
     return Arrays.asList(builder
-      .type(hasSuperType(named("java.lang.Thread")))
+      .type(hasSuperType(named("java.lang.Thread")).and(not(named(ThreadAgentIntercept.VIRTUAL_THREAD))))
       .transform(new Transformer() {
         @Override
         public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
           return builder
-            .visit(Advice.to(Start.class).on(named("start")))
-            .visit(Advice.to(Run.class).on(named("run")))
-            .visit(Advice.to(RunError.class).on(named("run")));
+            .visit(Advice.to(Start.class).on(named("start").and(isDeclaredBy(Thread.class))))
+            .visit(Advice.to(Run.class).on(named("run").and(takesArguments(0))));
+        }})
+      .type(named(ThreadAgentIntercept.VIRTUAL_THREAD))
+      .transform(new Transformer() {
+        @Override
+        public Builder<?> transform(final Builder<?> builder, final TypeDescription typeDescription, final ClassLoader classLoader, final JavaModule module) {
+          return builder.visit(Advice.to(VirtualThread.class).on(isConstructor().and(takesArgument(3, Runnable.class))));
         }}));
   }
 
+  /**
+   * The advice of {@link Thread#start()}, which is inlined into
+   * {@code java.lang.Thread}, so that {@link MethodHandles#lookup()} is the
+   * lookup of {@code java.lang.Thread}.
+   */
   public static class Start {
     @Advice.OnMethodEnter
     public static void enter(final @Advice.Origin String origin, final @Advice.This Object thiz) {
       if (isEnabled(origin))
-        ThreadAgentIntercept.start(thiz);
+        ThreadAgentIntercept.start(thiz, ThreadAgentIntercept.isLinked() ? null : MethodHandles.lookup());
     }
   }
 
-  public static class Run {
+  public static class VirtualThread {
     @Advice.OnMethodEnter
-    public static void enter(final @Advice.Origin String origin, final @Advice.This Object thiz) {
+    public static void enter(final @Advice.Origin String origin, @Advice.Argument(value = 3, readOnly = false, typing = Typing.DYNAMIC) Runnable task) {
       if (isEnabled(origin))
-        ThreadAgentIntercept.runEnter(thiz);
+        task = ThreadAgentIntercept.wrap(task);
     }
+  }
 
-    @Advice.OnMethodExit
-    public static void exit(final @Advice.Origin String origin, final @Advice.This Object thiz) {
-      if (isEnabled(origin))
-        ThreadAgentIntercept.runExit(thiz);
+  public static class Run {
+    @Advice.OnMethodEnter
+    public static Object enter(final @Advice.Origin String origin, final @Advice.This Object thiz) {
+      return isEnabled(origin) ? ThreadAgentIntercept.runEnter(thiz) : null;
     }
-  }
 
-  public static class RunError {
     @Advice.OnMethodExit(onThrowable = Throwable.class)
-    public static void exit(final @Advice.Origin String origin, final @Advice.Thrown Throwable thrown, final @Advice.This Object thiz) {
-      if (isEnabled(origin) && thrown != null)
-        ThreadAgentIntercept.runExit(thiz);
+    public static void exit(final @Advice.Enter Object scope) {
+      if (scope != null)
+        ThreadAgentIntercept.runExit(scope);
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,41 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.specialagent.thread;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.util.GlobalTracer;
+
+/**
+ * The task of a virtual thread, which is run in the span that was active
+ * when the thread was created.
+ */
+public class TracedTask implements Runnable {
+  private final Runnable delegate;
+  private final Span span;
+
+  TracedTask(final Runnable delegate, final Span span) {
+    this.delegate = delegate;
+    this.span = span;
+  }
+
+  @Override
+  public void run() {
+    try (final Scope scope = GlobalTracer.get().activateSpan(span)) {
+      delegate.run();
+    }
+  }
+}
@@ -17,8 +17,13 @@ package io.opentracing.contrib.specialagent.thread;
 
 import static org.junit.Assert.*;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -101,6 +106,93 @@ public class ThreadTest {
     assertNull(GlobalTracer.get().activeSpan());
   }
 
+  @Test
+  public void testNestedRun(final MockTracer tracer) throws InterruptedException {
+    final AtomicBoolean foundSpan = new AtomicBoolean(false);
+    final Thread thread = new CustomThread(new Runnable() {
+      @Override
+      public void run() {
+        foundSpan.set(tracer.activeSpan() != null);
+      }
+    }) {
+      @Override
+      public void run() {
+        super.run();
+        // The span must remain active after the nested run() has exited, and
+        // the slot must be cleared
+        foundSpan.set(foundSpan.get() && tracer.activeSpan() != null && ThreadAgentIntercept.slot.get() == null);
+      }
+    };
+
+    try (final Scope scope = tracer.buildSpan("parent").startActive(true)) {
+      thread.start();
+    }
+
+    thread.join(10_000);
+    assertTrue(foundSpan.get());
+    assertEquals(1, tracer.finishedSpans().size());
+    assertNull(GlobalTracer.get().activeSpan());
+  }
+
+  @Test
+  public void testVirtualThread(final MockTracer tracer) throws Exception {
+    final Method ofVirtual;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+    }
+    catch (final NoSuchMethodException e) {
+      Assume.assumeNoException("Virtual threads require JDK 21", e);
+      return;
+    }
+
+    final AtomicBoolean foundSpan = new AtomicBoolean(false);
+    final Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        foundSpan.set(tracer.activeSpan() != null);
+      }
+    };
+
+    final Thread thread;
+    try (final Scope scope = tracer.buildSpan("parent").startActive(true)) {
+      thread = (Thread)Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class).invoke(ofVirtual.invoke(null), task);
+    }
+
+    thread.join(10_000);
+    assertTrue(foundSpan.get());
+    assertEquals(1, tracer.finishedSpans().size());
+    assertNull(GlobalTracer.get().activeSpan());
+  }
+
+  @Test
+  public void testVirtualThreadPerTaskExecutor(final MockTracer tracer) throws Exception {
+    final Method newVirtualThreadPerTaskExecutor;
+    try {
+      newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    }
+    catch (final NoSuchMethodException e) {
+      Assume.assumeNoException("Virtual threads require JDK 21", e);
+      return;
+    }
+
+    final AtomicBoolean foundSpan = new AtomicBoolean(false);
+    final ExecutorService executor = (ExecutorService)newVirtualThreadPerTaskExecutor.invoke(null);
+    try (final Scope scope = tracer.buildSpan("parent").startActive(true)) {
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          foundSpan.set(tracer.activeSpan() != null);
+        }
+      });
+    }
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(foundSpan.get());
+    assertEquals(1, tracer.finishedSpans().size());
+    assertNull(GlobalTracer.get().activeSpan());
+  }
+
   private static class CustomThread extends Thread {
     CustomThread(final Runnable runnable) {
       super(runnable);
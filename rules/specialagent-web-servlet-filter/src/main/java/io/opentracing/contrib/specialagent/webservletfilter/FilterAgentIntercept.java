@@ -16,8 +16,6 @@
 package io.opentracing.contrib.specialagent.webservletfilter;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.WeakHashMap;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -31,10 +29,14 @@ import javax.servlet.http.HttpServletResponse;
 import io.opentracing.contrib.specialagent.AgentRuleUtil;
 import io.opentracing.contrib.specialagent.EarlyReturnException;
 import io.opentracing.contrib.specialagent.Level;
+import io.opentracing.contrib.specialagent.WeakIdentityMap;
+import io.opentracing.contrib.web.servlet.filter.MethodCache;
 import io.opentracing.contrib.web.servlet.filter.TracingFilter;
 
 public class FilterAgentIntercept extends ServletFilterAgentIntercept {
-  public static final Map<ServletResponse,Integer> servletResponseToStatus = new WeakHashMap<>();
+  public static final WeakIdentityMap<ServletResponse,Integer> servletResponseToStatus = new WeakIdentityMap<>();
+  private static final MethodCache getServletContextMethod = new MethodCache("getServletContext");
+  private static final MethodCache isAsyncStartedMethod = new MethodCache("isAsyncStarted");
 
   public static void init(final Object thiz, final Object filterConfig) {
     filterOrServletToServletContext.put(thiz, ((FilterConfig)filterConfig).getServletContext());
@@ -42,13 +44,13 @@ public class FilterAgentIntercept extends ServletFilterAgentIntercept {
 
   public static void doFilter(final Object thiz, final Object req, final Object res, final Object chain) {
     final ServletRequest request = (ServletRequest)req;
-    if (servletRequestToState.containsKey(request))
+    if (request.getAttribute(HANDLED_ATTRIBUTE) != null)
       return;
 
     try {
       final Filter filter = (Filter)thiz;
       final ServletContext[] context = new ServletContext[1];
-      if (!ContextAgentIntercept.invoke(context, request, getMethod(request.getClass(), "getServletContext")) || context[0] == null)
+      if (!getServletContextMethod.invoke(context, request) || context[0] == null)
         context[0] = filterOrServletToServletContext.get(filter);
 
       final TracingFilter tracingFilter = getFilter(context[0], true);
@@ -59,18 +61,24 @@ public class FilterAgentIntercept extends ServletFilterAgentIntercept {
       if (!(tracingFilter instanceof TracingProxyFilter))
         return;
 
-      servletRequestToState.put(request, Boolean.TRUE);
+      setHandled(request);
       if (logger.isLoggable(Level.FINER))
         logger.finer(">> TracingFilter#doFilter(" + AgentRuleUtil.getSimpleNameId(request) + ", " + AgentRuleUtil.getSimpleNameId(res) +  ")");
 
-      tracingFilter.doFilter(request, (ServletResponse)res, new FilterChain() {
-        @Override
-        public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
-          filter.doFilter(request, response, (FilterChain)chain);
-          if (logger.isLoggable(Level.FINER))
-            logger.finer("<< TracingFilter#doFilter(" + AgentRuleUtil.getSimpleNameId(request) + ", " + AgentRuleUtil.getSimpleNameId(response) +  ")");
-        }
-      });
+      try {
+        tracingFilter.doFilter(request, (ServletResponse)res, new FilterChain() {
+          @Override
+          public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+            filter.doFilter(request, response, (FilterChain)chain);
+            if (logger.isLoggable(Level.FINER))
+              logger.finer("<< TracingFilter#doFilter(" + AgentRuleUtil.getSimpleNameId(request) + ", " + AgentRuleUtil.getSimpleNameId(response) +  ")");
+          }
+        });
+      }
+      finally {
+        clearHandled(request);
+        clearStatusCode(request, (ServletResponse)res);
+      }
     }
     catch (final Exception e) {
       logger.log(Level.WARNING, e.getMessage(), e);
@@ -88,4 +96,30 @@ public class FilterAgentIntercept extends ServletFilterAgentIntercept {
     final Integer statusCode = servletResponseToStatus.get(response);
     return statusCode != null ? statusCode : HttpServletResponse.SC_OK;
   }
+
+  /**
+   * Removes the status code of the specified response, which is called when
+   * the span of the request has been finished.
+   *
+   * @param response The response.
+   */
+  public static void clearStatusCode(final ServletResponse response) {
+    servletResponseToStatus.remove(response);
+  }
+
+  /**
+   * Removes the status code of the specified response once the request has
+   * been handled, whether or not it was traced, so that a stale status code is
+   * not reported for a response that is recycled by the container. If the
+   * request was put into asynchronous mode, the status code is retained until
+   * the request completes.
+   *
+   * @param request The request.
+   * @param response The response.
+   */
+  public static void clearStatusCode(final ServletRequest request, final ServletResponse response) {
+    final Boolean[] isAsyncStarted = {false};
+    if (!isAsyncStartedMethod.invoke(isAsyncStarted, request) || !isAsyncStarted[0])
+      servletResponseToStatus.remove(response);
+  }
 }
\ No newline at end of file
@@ -55,15 +55,21 @@ public class ServletAgentIntercept extends ServletFilterAgentIntercept {
       if (!(tracingFilter instanceof TracingProxyFilter))
         return;
 
-      // If `servletRequestToState` contains the request key, then this request
-      // has been handled by doFilter
-      if (servletRequestToState.remove((ServletRequest)req) != null)
+      // If the request is marked as handled, then this request has been
+      // handled by doFilter
+      if (clearHandled((ServletRequest)req))
         return;
 
       if (logger.isLoggable(Level.FINER))
         logger.log(Level.FINER, ">> ServletAgentIntercept#service(" + AgentRuleUtil.getSimpleNameId(req) + ", " + AgentRuleUtil.getSimpleNameId(res) +  ")", new Exception());
 
-      tracingFilter.doFilter((ServletRequest)req, (ServletResponse)res, noopFilterChain);
+      try {
+        tracingFilter.doFilter((ServletRequest)req, (ServletResponse)res, noopFilterChain);
+      }
+      finally {
+        FilterAgentIntercept.clearStatusCode((ServletRequest)req, (ServletResponse)res);
+      }
+
       if (logger.isLoggable(Level.FINER))
         logger.finer("<< ServletAgentIntercept#service(" + AgentRuleUtil.getSimpleNameId(req) + ", " + AgentRuleUtil.getSimpleNameId(res) +  ")");
     }
@@ -17,23 +17,72 @@ package io.opentracing.contrib.specialagent.webservletfilter;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 
 import io.opentracing.contrib.specialagent.Logger;
+import io.opentracing.contrib.specialagent.PathMatcher;
+import io.opentracing.contrib.specialagent.WeakIdentityMap;
 import io.opentracing.contrib.web.servlet.filter.TracingFilter;
 import io.opentracing.util.GlobalTracer;
 
 public abstract class ServletFilterAgentIntercept {
   public static final Logger logger = Logger.getLogger(ServletAgentIntercept.class);
-  public static final Map<Object,ServletContext> filterOrServletToServletContext = new HashMap<>();
-  public static final Map<ServletRequest,Boolean> servletRequestToState = new HashMap<>();
-  public static final Map<ServletContext,TracingFilter> servletContextToFilter = new HashMap<>();
+  public static final String SKIP_PROPERTY = "sa.instrumentation.plugin.web-servlet-filter.skip";
+
+  /**
+   * The matcher of the paths of requests that are not to be traced, as
+   * specified with the {@link #SKIP_PROPERTY} system property, or
+   * {@code null} if the property is not specified.
+   */
+  public static final PathMatcher skipMatcher = PathMatcher.parse(System.getProperty(SKIP_PROPERTY));
+  public static final WeakIdentityMap<Object,ServletContext> filterOrServletToServletContext = new WeakIdentityMap<>();
+  public static final ConcurrentMap<ServletContext,TracingFilter> servletContextToFilter = new ConcurrentHashMap<>();
+
+  /**
+   * The name of the request attribute that marks a request as handled by the
+   * {@code Filter#doFilter} intercept, so that it is not traced again by the
+   * {@code HttpServlet#service} intercept. Request attributes are scoped to
+   * the request, so the mark is cleared when the container recycles the
+   * request.
+   */
+  public static final String HANDLED_ATTRIBUTE = ServletFilterAgentIntercept.class.getName() + ".handled";
+
+  /**
+   * Marks the specified request as handled by the {@code Filter#doFilter}
+   * intercept.
+   *
+   * @param request The request.
+   * @return {@code true} if the request was not marked before, otherwise
+   *         {@code false}.
+   */
+  public static boolean setHandled(final ServletRequest request) {
+    if (request.getAttribute(HANDLED_ATTRIBUTE) != null)
+      return false;
+
+    request.setAttribute(HANDLED_ATTRIBUTE, Boolean.TRUE);
+    return true;
+  }
+
+  /**
+   * Removes the mark of the specified request as handled by the
+   * {@code Filter#doFilter} intercept.
+   *
+   * @param request The request.
+   * @return {@code true} if the request was marked, otherwise {@code false}.
+   */
+  public static boolean clearHandled(final ServletRequest request) {
+    if (request.getAttribute(HANDLED_ATTRIBUTE) == null)
+      return false;
+
+    request.removeAttribute(HANDLED_ATTRIBUTE);
+    return true;
+  }
 
   public static TracingFilter getFilter(final ServletContext context, final boolean proxy) throws ServletException {
     Objects.requireNonNull(context);
@@ -46,7 +95,7 @@ public abstract class ServletFilterAgentIntercept {
       if (filter != null)
         return filter;
 
-      servletContextToFilter.put(context, filter = proxy ? new TracingProxyFilter(GlobalTracer.get(), context) : new TracingFilter(GlobalTracer.get()));
+      servletContextToFilter.put(context, filter = proxy ? new TracingProxyFilter(GlobalTracer.get(), context) : new TracingFilter(GlobalTracer.get(), skipMatcher));
       return filter;
     }
   }
@@ -0,0 +1,127 @@
+/* Copyright 2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.opentracing.contrib.web.servlet.filter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * A cache of the {@link MethodHandle} of a public method by name and parameter
+ * types, per class of the object on which the method is invoked. The handles
+ * are held in a {@link ClassValue}, so the cache does not prevent the classes
+ * (and their class loaders) from being unloaded, and the lookup of a handle
+ * for a class that has already been resolved does not allocate.
+ * <p>
+ * The handles are adapted to the generic type of {@code (Object...)Object},
+ * so that they are invoked with {@link MethodHandle#invokeExact(Object...)}
+ * without the cost of the conversion of the arguments of each invocation.
+ */
+public final class MethodCache extends ClassValue<MethodHandle> {
+  private final String name;
+  private final String[] parameterTypes;
+
+  /**
+   * Creates a new {@code MethodCache} of the method by the specified name and
+   * parameter types.
+   *
+   * @param name The name of the method.
+   * @param parameterTypes The names of the (non-primitive) parameter types of
+   *          the method, which are resolved in the class loader of each class
+   *          for which a handle is looked up, so that the API of the parameter
+   *          types need not be present in the class loader of the caller.
+   */
+  public MethodCache(final String name, final String ... parameterTypes) {
+    this.name = name;
+    this.parameterTypes = parameterTypes;
+  }
+
+  @Override
+  protected MethodHandle computeValue(final Class<?> type) {
+    try {
+      final Class<?>[] parameterTypes = new Class<?>[this.parameterTypes.length];
+      for (int i = 0; i < parameterTypes.length; ++i)
+        parameterTypes[i] = Class.forName(this.parameterTypes[i], false, type.getClassLoader());
+
+      final Method method = ClassUtil.getMethod(type, name, parameterTypes);
+      if (method == null)
+        return null;
+
+      return MethodHandles.publicLookup().unreflect(method).asType(MethodType.genericMethodType(parameterTypes.length + 1));
+    }
+    catch (final ClassNotFoundException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Invokes the method without parameters on the specified object.
+   *
+   * @param returned The array in which the returned value is to be set at
+   *          index 0.
+   * @param obj The object on which the method is to be invoked.
+   * @return {@code true} if the method was invoked successfully, or
+   *         {@code false} if the class of the object does not declare a
+   *         public non-abstract method by the name and parameter types, or if
+   *         the method threw an exception.
+   */
+  public boolean invoke(final Object[] returned, final Object obj) {
+    final MethodHandle handle = get(obj.getClass());
+    if (handle == null)
+      return false;
+
+    try {
+      returned[0] = (Object)handle.invokeExact(obj);
+      return true;
+    }
+    catch (final Error e) {
+      throw e;
+    }
+    catch (final Throwable t) {
+      return false;
+    }
+  }
+
+  /**
+   * Invokes the method with a single parameter on the specified object.
+   *
+   * @param returned The array in which the returned value is to be set at
+   *          index 0.
+   * @param obj The object on which the method is to be invoked.
+   * @param arg The argument of the method.
+   * @return {@code true} if the method was invoked successfully, or
+   *         {@code false} if the class of the object does not declare a
+   *         public non-abstract method by the name and parameter types, or if
+   *         the method threw an exception.
+   */
+  public boolean invoke(final Object[] returned, final Object obj, final Object arg) {
+    final MethodHandle handle = get(obj.getClass());
+    if (handle == null)
+      return false;
+
+    try {
+      returned[0] = (Object)handle.invokeExact(obj, arg);
+      return true;
+    }
+    catch (final Error e) {
+      throw e;
+    }
+    catch (final Throwable t) {
+      return false;
+    }
+  }
+}
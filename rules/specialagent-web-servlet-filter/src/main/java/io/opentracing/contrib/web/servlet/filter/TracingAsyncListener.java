@@ -9,6 +9,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import io.opentracing.Span;
+import io.opentracing.contrib.specialagent.webservletfilter.FilterAgentIntercept;
 
 public class TracingAsyncListener implements AsyncListener {
   private final Span span;
@@ -29,6 +30,7 @@ public class TracingAsyncListener implements AsyncListener {
               span);
       }
       span.finish();
+      FilterAgentIntercept.clearStatusCode(httpResponse);
   }
 
   @Override
@@ -15,8 +15,6 @@
 package io.opentracing.contrib.web.servlet.filter;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -38,6 +36,8 @@ import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
+import io.opentracing.contrib.specialagent.PathMatcher;
+import io.opentracing.contrib.specialagent.webservletfilter.FilterAgentIntercept;
 import io.opentracing.propagation.Format;
 import io.opentracing.tag.Tags;
 import io.opentracing.util.GlobalTracer;
@@ -71,6 +71,9 @@ import io.opentracing.util.GlobalTracer;
  */
 public class TracingFilter implements Filter {
     private static final Logger log = Logger.getLogger(TracingFilter.class.getName());
+    private static final MethodCache isAsyncStartedMethod = new MethodCache("isAsyncStarted");
+    private static final MethodCache getAsyncContextMethod = new MethodCache("getAsyncContext");
+    private static final MethodCache addListenerMethod = new MethodCache("addListener", "javax.servlet.AsyncListener");
 
     /**
      * Use as a key of {@link ServletContext#setAttribute(String, Object)} to set span decorators
@@ -91,6 +94,7 @@ public class TracingFilter implements Filter {
     protected Tracer tracer;
     private List<ServletFilterSpanDecorator> spanDecorators;
     private Pattern skipPattern;
+    private final PathMatcher skipMatcher;
 
     /**
      * Tracer instance has to be registered with {@link GlobalTracer#register(Tracer)}.
@@ -103,7 +107,15 @@ public class TracingFilter implements Filter {
      * @param tracer
      */
     public TracingFilter(Tracer tracer) {
-        this(tracer, Collections.singletonList(ServletFilterSpanDecorator.STANDARD_TAGS), null);
+        this(tracer, (PathMatcher)null);
+    }
+
+    /**
+     * @param tracer tracer
+     * @param skipMatcher null or matcher of paths to exclude from tracing, which is checked before the skip pattern
+     */
+    public TracingFilter(Tracer tracer, PathMatcher skipMatcher) {
+        this(tracer, Collections.singletonList(ServletFilterSpanDecorator.STANDARD_TAGS), null, skipMatcher);
     }
 
     /**
@@ -113,10 +125,22 @@ public class TracingFilter implements Filter {
      * @param skipPattern null or pattern to exclude certain paths from tracing e.g. "/health"
      */
     public TracingFilter(Tracer tracer, List<ServletFilterSpanDecorator> spanDecorators, Pattern skipPattern) {
+        this(tracer, spanDecorators, skipPattern, null);
+    }
+
+    /**
+     *
+     * @param tracer tracer
+     * @param spanDecorators decorators
+     * @param skipPattern null or pattern to exclude certain paths from tracing e.g. "/health"
+     * @param skipMatcher null or matcher of paths to exclude from tracing, which is checked before the skip pattern
+     */
+    public TracingFilter(Tracer tracer, List<ServletFilterSpanDecorator> spanDecorators, Pattern skipPattern, PathMatcher skipMatcher) {
         this.tracer = tracer;
         this.spanDecorators = new ArrayList<>(spanDecorators);
         this.spanDecorators.removeAll(Collections.singleton(null));
         this.skipPattern = skipPattern;
+        this.skipMatcher = skipMatcher;
     }
 
     @Override
@@ -161,7 +185,11 @@ public class TracingFilter implements Filter {
         HttpServletResponse httpResponse = (HttpServletResponse) servletResponse;
 
         if (!isTraced(httpRequest, httpResponse)) {
-            chain.doFilter(httpRequest, httpResponse);
+            try {
+                chain.doFilter(httpRequest, httpResponse);
+            } finally {
+                FilterAgentIntercept.clearStatusCode(httpRequest, httpResponse);
+            }
             return;
         }
 
@@ -188,7 +216,7 @@ public class TracingFilter implements Filter {
             final Boolean[] isAsyncStarted = new Boolean[] {false};
             try (Scope scope = tracer.activateSpan(span)) {
                 chain.doFilter(servletRequest, servletResponse);
-                if (!ClassUtil.invoke(isAsyncStarted, httpRequest, ClassUtil.getMethod(httpRequest.getClass(), "isAsyncStarted")) || !isAsyncStarted[0]) {
+                if (!isAsyncStartedMethod.invoke(isAsyncStarted, httpRequest) || !isAsyncStarted[0]) {
                     for (ServletFilterSpanDecorator spanDecorator : spanDecorators) {
                         spanDecorator.onResponse(httpRequest, httpResponse, span);
                     }
@@ -202,20 +230,15 @@ public class TracingFilter implements Filter {
             } finally {
                 if (isAsyncStarted[0]) {
                     // what if async is already finished? This would not be called
-                  try {
-                    final Method getAsyncContext = ClassUtil.getMethod(httpRequest.getClass(), "getAsyncContext");
-                    final Object asyncContext = getAsyncContext.invoke(httpRequest);
-                    final Method addListener = ClassUtil.getMethod(asyncContext.getClass(), "addListener", Class.forName("javax.servlet.AsyncListener"));
-                    addListener.invoke(asyncContext, new TracingAsyncListener(span, spanDecorators));
-                  }
-                  catch (final ClassNotFoundException | IllegalAccessException | InvocationTargetException e) {
-                    throw new IllegalStateException(e);
-                  }
+                  final Object[] asyncContext = new Object[1];
+                  if (!getAsyncContextMethod.invoke(asyncContext, httpRequest) || !addListenerMethod.invoke(new Object[1], asyncContext[0], new TracingAsyncListener(span, spanDecorators)))
+                    throw new IllegalStateException("Unable to add " + TracingAsyncListener.class.getSimpleName() + " to the AsyncContext of " + httpRequest.getClass().getName());
                 } else {
                     // If not async, then need to explicitly finish the span associated with the scope.
                     // This is necessary, as we don't know whether this request is being handled
                     // asynchronously until after the scope has already been started.
                     span.finish();
+                    FilterAgentIntercept.clearStatusCode(httpResponse);
                 }
             }
         }
@@ -236,9 +259,17 @@ public class TracingFilter implements Filter {
     protected boolean isTraced(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
         // skip URLs matching skip pattern
         // e.g. pattern is defined as '/health|/status' then URL 'http://localhost:5000/context/health' won't be traced
-        if (skipPattern != null) {
-            String url = httpServletRequest.getRequestURI().substring(httpServletRequest.getContextPath().length());
-            return !skipPattern.matcher(url).matches();
+        if (skipMatcher != null || skipPattern != null) {
+            // match the path after the context path without a substring, and fall back to the pattern
+            String uri = httpServletRequest.getRequestURI();
+            int start = httpServletRequest.getContextPath().length();
+            if (skipMatcher != null && skipMatcher.matches(uri, start, uri.length())) {
+                return false;
+            }
+
+            if (skipPattern != null) {
+                return !skipPattern.matcher(uri.substring(start)).matches();
+            }
         }
 
         return true;
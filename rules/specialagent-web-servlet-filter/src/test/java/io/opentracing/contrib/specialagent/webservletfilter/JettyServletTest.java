@@ -22,6 +22,10 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletResponse;
@@ -80,6 +84,42 @@ public class JettyServletTest {
     assertEquals(spans.toString(), 1, spans.size());
   }
 
+  @Test
+  public void testConcurrentRequests(final MockTracer tracer) throws InterruptedException {
+    final int threads = 8;
+    final int requests = 100;
+    final OkHttpClient client = new OkHttpClient();
+    final AtomicInteger ok = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int i = 0; i < threads * requests; ++i) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          final Request request = new Request.Builder().url("http://localhost:" + serverPort + "/hello").build();
+          try {
+            final Response response = client.newCall(request).execute();
+            if (response.code() == HttpServletResponse.SC_OK)
+              ok.incrementAndGet();
+
+            response.body().close();
+          }
+          catch (final IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+    }
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+    assertEquals(threads * requests, ok.get());
+
+    final List<MockSpan> spans = tracer.finishedSpans();
+    assertEquals(threads * requests, spans.size());
+    for (final MockSpan span : spans)
+      assertEquals(HttpServletResponse.SC_OK, span.tags().get("http.status_code"));
+  }
+
   @After
   public void afterTest() throws Exception {
     server.stop();